@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JSR310Module;
 import cz.jirutka.spring.exhandler.RestHandlerExceptionResolver;
+import org.broadleafcommerce.common.extensibility.context.merge.EarlyStageMergeBeanPostProcessor;
 import org.broadleafcommerce.common.web.BroadleafRequestInterceptor;
 import org.broadleafcommerce.core.checkout.service.exception.CheckoutException;
 import org.broadleafcommerce.core.order.service.exception.UpdateCartException;
@@ -15,6 +16,7 @@ import org.springframework.context.annotation.Import;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.validation.beanvalidation.MethodValidationPostProcessor;
 import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -23,8 +25,11 @@ import pl.touk.widerest.hal.HalConfiguration;
 
 import javax.annotation.PostConstruct;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 @Configuration
+@EnableScheduling
 @Import(HalConfiguration.class)
 public class ApiConfiguration extends WebMvcConfigurerAdapter {
 
@@ -40,6 +45,20 @@ public class ApiConfiguration extends WebMvcConfigurerAdapter {
         });
     }
 
+    /* Entities of this module join Broadleaf's persistence unit, whatever application the module is used in */
+    @Bean
+    public static List<String> wdPersistenceXmlLocations() {
+        return Collections.singletonList("classpath*:/META-INF/persistence-widerest-api.xml");
+    }
+
+    @Bean
+    public static EarlyStageMergeBeanPostProcessor wdPersistenceXmlLocationsMerge() {
+        final EarlyStageMergeBeanPostProcessor postProcessor = new EarlyStageMergeBeanPostProcessor();
+        postProcessor.setCollectionRef("wdPersistenceXmlLocations");
+        postProcessor.setTargetRef("blMergedPersistenceXmlLocations");
+        return postProcessor;
+    }
+
     @Bean
     public BroadleafRequestInterceptor broadleafRequestInterceptor() {
         return new BroadleafRequestInterceptor();
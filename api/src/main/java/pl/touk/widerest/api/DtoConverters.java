@@ -54,6 +54,7 @@ public class DtoConverters {
     };
 
     public static Function<SearchFacetResultDTO, FacetValueDto> searchFacetResultDTOFacetValueToDto = entity -> FacetValueDto.builder()
+            .key(entity.getValueKey())
             .value(entity.getValue())
             .minValue(entity.getMinValue())
             .maxValue(entity.getMaxValue())
@@ -62,6 +63,7 @@ public class DtoConverters {
 
     public static Function<SearchFacetDTO, FacetDto> searchFacetDTOFacetToDto = entity -> {
         final FacetDto facetDto = FacetDto.builder()
+                .name(entity.getFacet().getField().getAbbreviation())
                 .active(entity.isActive())
                 .label(entity.getFacet().getLabel())
                 .build();
@@ -1,6 +1,7 @@
 package pl.touk.widerest.api;
 
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import org.broadleafcommerce.common.web.BroadleafRequestContext;
 import org.springframework.web.context.request.RequestAttributes;
@@ -17,6 +18,22 @@ public class RequestUtils {
         setAttribute(CHANNEL_REQUEST_ATTRIBUTE_NAME, channel);
     }
 
+    /**
+     * Returns the request attribute stored under the given key, storing a freshly supplied value first if there is none.
+     * Outside of a request a new value is supplied on every call, so nothing is shared between calls: callers
+     * that may run without a request have to keep such values in a scope of their own.
+     */
+    public static <T> T getOrCreateAttribute(String key, Supplier<T> valueSupplier) {
+        final T value = getAttribute(key, null);
+        if (value != null) {
+            return value;
+        }
+
+        final T newValue = valueSupplier.get();
+        setAttribute(key, newValue);
+        return newValue;
+    }
+
     private static <T> T getAttribute(String key, T defaultValue) {
         return Optional.ofNullable(BroadleafRequestContext.getBroadleafRequestContext())
                 .map(BroadleafRequestContext::getWebRequest)
@@ -0,0 +1,28 @@
+package pl.touk.widerest.api.catalog;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Published (after commit) whenever a catalog entity is created, modified or removed through the API.
+ */
+@Getter
+public class CatalogChangeEvent extends ApplicationEvent {
+
+    public enum EntityType { PRODUCT, SKU, CATEGORY }
+
+    private final EntityType entityType;
+
+    private final Set<Long> ids;
+
+    public CatalogChangeEvent(final Object source, final EntityType entityType, final Collection<Long> ids) {
+        super(source);
+        this.entityType = entityType;
+        this.ids = Collections.unmodifiableSet(new LinkedHashSet<>(ids));
+    }
+}
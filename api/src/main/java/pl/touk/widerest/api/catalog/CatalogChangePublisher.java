@@ -0,0 +1,65 @@
+package pl.touk.widerest.api.catalog;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.touk.widerest.api.catalog.CatalogChangeEvent.EntityType;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+import static java.util.stream.Collectors.toList;
+
+@Component
+public class CatalogChangePublisher implements ApplicationEventPublisherAware {
+
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Override
+    public void setApplicationEventPublisher(final ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    public void productsChanged(final Long... productIds) {
+        publish(EntityType.PRODUCT, Arrays.asList(productIds));
+    }
+
+    public void skusChanged(final Long... skuIds) {
+        publish(EntityType.SKU, Arrays.asList(skuIds));
+    }
+
+    /**
+     * SKUs are part of their product's representation, so the product is reported as changed as well.
+     */
+    public void productSkusChanged(final Long productId, final Long... skuIds) {
+        skusChanged(skuIds);
+        productsChanged(productId);
+    }
+
+    public void categoriesChanged(final Long... categoryIds) {
+        publish(EntityType.CATEGORY, Arrays.asList(categoryIds));
+    }
+
+    /**
+     * Listeners only ever see committed state: within a transaction the event is held back
+     * until it commits (and dropped on rollback).
+     */
+    public void publish(final EntityType entityType, final Collection<Long> ids) {
+        final CatalogChangeEvent event = new CatalogChangeEvent(this, entityType,
+                ids.stream().filter(Objects::nonNull).collect(toList()));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    applicationEventPublisher.publishEvent(event);
+                }
+            });
+        } else {
+            applicationEventPublisher.publishEvent(event);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package pl.touk.widerest.api.catalog;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.broadleafcommerce.core.catalog.domain.SkuImpl;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.catalog.CatalogChangeEvent.EntityType;
+import pl.touk.widerest.api.common.CatalogUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the number of visible products, SKUs and categories, separately for anonymous and privileged callers.
+ *
+ * Writes made through the API invalidate the affected counters (see {@link CatalogChangePublisher}) and
+ * the next read recounts them with a single COUNT query. All counters are also recounted periodically,
+ * which picks up changes made behind the API's back and products becoming (in)active as time passes.
+ */
+@Slf4j
+@Service("wdCatalogCounterService")
+public class CatalogCounterService implements ApplicationListener<CatalogChangeEvent> {
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private final Map<CounterKey, Long> counters = new ConcurrentHashMap<>();
+
+    private final Map<EntityType, AtomicLong> generations = new EnumMap<>(EntityType.class);
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+
+        for (EntityType entityType : EntityType.values()) {
+            generations.put(entityType, new AtomicLong());
+        }
+    }
+
+    public long countProducts() {
+        return get(EntityType.PRODUCT, CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_PRODUCT).test(null));
+    }
+
+    public long countSkus() {
+        return get(EntityType.SKU, CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_PRODUCT).test(null));
+    }
+
+    public long countCategories() {
+        return get(EntityType.CATEGORY, CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_CATEGORY).test(null));
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        switch (event.getEntityType()) {
+            case PRODUCT:
+            case SKU:
+                /* Product visibility depends on its default SKU and SKU visibility on its product */
+                invalidate(EntityType.PRODUCT);
+                invalidate(EntityType.SKU);
+                break;
+            case CATEGORY:
+                invalidate(EntityType.CATEGORY);
+                break;
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${widerest.catalog.counters.reconcileInterval:300000}",
+            fixedDelayString = "${widerest.catalog.counters.reconcileInterval:300000}"
+    )
+    public void reconcile() {
+        for (EntityType entityType : EntityType.values()) {
+            for (boolean privileged : new boolean[] { false, true }) {
+                final long generation = generations.get(entityType).get();
+                final long count = readOnlyTransaction.execute(status -> count(entityType, privileged));
+                store(new CounterKey(entityType, privileged), generation, count);
+            }
+        }
+        log.debug("Catalog counters reconciled: {}", counters);
+    }
+
+    private long get(final EntityType entityType, final boolean privileged) {
+        final CounterKey key = new CounterKey(entityType, privileged);
+        final Long cached = counters.get(key);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final long generation = generations.get(entityType).get();
+        final long count = count(entityType, privileged);
+        store(key, generation, count);
+        return count;
+    }
+
+    /* A count started before an invalidation must not overwrite it */
+    private synchronized void store(final CounterKey key, final long generation, final long count) {
+        if (generations.get(key.entityType).get() == generation) {
+            counters.put(key, count);
+        }
+    }
+
+    private synchronized void invalidate(final EntityType entityType) {
+        generations.get(entityType).incrementAndGet();
+        counters.keySet().removeIf(key -> key.entityType == entityType);
+    }
+
+    private long count(final EntityType entityType, final boolean privileged) {
+        switch (entityType) {
+            case PRODUCT:
+                return countVisibleProducts(privileged);
+            case SKU:
+                /* Every visible product has its default SKU plus the additional ones */
+                return countVisibleProducts(privileged) + countAdditionalSkusOfVisibleProducts(privileged);
+            case CATEGORY:
+                return countVisibleCategories(privileged);
+            default:
+                throw new IllegalArgumentException(entityType.name());
+        }
+    }
+
+    private long countVisibleProducts(final boolean privileged) {
+        return countQuery((builder, criteria) -> {
+            final Root<ProductImpl> product = criteria.from(ProductImpl.class);
+            criteria.select(builder.count(product));
+            criteria.where(CatalogPredicates.isProductVisible(builder, product, privileged));
+        });
+    }
+
+    private long countAdditionalSkusOfVisibleProducts(final boolean privileged) {
+        return countQuery((builder, criteria) -> {
+            final Root<SkuImpl> sku = criteria.from(SkuImpl.class);
+            criteria.select(builder.count(sku));
+            criteria.where(CatalogPredicates.isProductVisible(builder, sku.join("product"), privileged));
+        });
+    }
+
+    private long countVisibleCategories(final boolean privileged) {
+        return countQuery((builder, criteria) -> {
+            final Root<CategoryImpl> category = criteria.from(CategoryImpl.class);
+            criteria.select(builder.count(category));
+            criteria.where(CatalogPredicates.isCategoryVisible(builder, category, privileged));
+        });
+    }
+
+    private long countQuery(final CountQueryBuilder queryBuilder) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+        queryBuilder.build(builder, criteria);
+        return em.createQuery(criteria).getSingleResult();
+    }
+
+    @FunctionalInterface
+    private interface CountQueryBuilder {
+        void build(CriteriaBuilder builder, CriteriaQuery<Long> criteria);
+    }
+
+    @Value
+    private static class CounterKey {
+        EntityType entityType;
+        boolean privileged;
+    }
+}
@@ -0,0 +1,297 @@
+package pl.touk.widerest.api.catalog;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang.StringUtils;
+import org.broadleafcommerce.common.util.DateUtil;
+import org.broadleafcommerce.core.catalog.domain.CategoryAttributeImpl;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.broadleafcommerce.core.catalog.domain.CategoryMediaXrefImpl;
+import org.broadleafcommerce.core.catalog.domain.CategoryProductXrefImpl;
+import org.broadleafcommerce.core.catalog.domain.CategoryXrefImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductAttributeImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductOptionXrefImpl;
+import org.broadleafcommerce.core.catalog.domain.SkuAttributeImpl;
+import org.broadleafcommerce.core.catalog.domain.SkuImpl;
+import org.broadleafcommerce.core.catalog.domain.SkuMediaXrefImpl;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import pl.touk.widerest.api.common.CatalogUtils;
+import pl.touk.widerest.api.common.PreconditionFailedException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Strong ETags of product, SKU and category representations.
+ *
+ * Broadleaf catalog entities carry neither a version nor an update timestamp, so the state part of a tag hashes
+ * the persisted columns the representation is made of (the entity, its SKUs, attributes, media and category
+ * relations), read with a few projection queries and without loading or converting anything. Tags are therefore
+ * the same on every node, survive restarts and follow changes made behind the API's back. Whether an entity is
+ * currently active is hashed as well, as it changes with time rather than with the data.
+ *
+ * The variant part identifies the representation (link flag and visibility class).
+ * Embedded representations also contain data of other resources (e.g. fulfillment prices), so they are not tagged.
+ */
+@Service("wdCatalogETagService")
+public class CatalogETagService {
+
+    private static final char VARIANT_SEPARATOR = '-';
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Transactional
+    public Optional<String> forProduct(final long productId, final boolean embed, final boolean link) {
+        if (embed) {
+            return Optional.empty();
+        }
+
+        return productState(productId)
+                .map(hasher -> eTag(hasher, link, CatalogPredicates.PERMISSION_READ_PRODUCT));
+    }
+
+    @Transactional
+    public Optional<String> forSku(final long productId, final long skuId, final boolean embed, final boolean link) {
+        if (embed) {
+            return Optional.empty();
+        }
+
+        return productState(productId)
+                .map(hasher -> hasher.putLong(skuId))
+                .map(hasher -> eTag(hasher, link, CatalogPredicates.PERMISSION_READ_PRODUCT));
+    }
+
+    @Transactional
+    public Optional<String> forCategory(final long categoryId, final boolean embed, final boolean link) {
+        if (embed) {
+            return Optional.empty();
+        }
+
+        return categoryState(categoryId)
+                .map(hasher -> eTag(hasher, link, CatalogPredicates.PERMISSION_READ_CATEGORY));
+    }
+
+    /**
+     * Rejects a modification unless the {@code If-Match} header (if any) was issued for the current state
+     * of the entity, no matter which of its representations it was.
+     */
+    public void checkIfMatch(final String ifMatch, final Optional<String> currentETag) throws PreconditionFailedException {
+        final boolean matches = ifMatch == null || currentETag
+                .filter(eTag -> parse(ifMatch).stream()
+                        .anyMatch(candidate -> "*".equals(candidate) || Objects.equals(statePart(eTag), statePart(candidate))))
+                .isPresent();
+
+        if (!matches) {
+            throw new PreconditionFailedException("Resource has been modified (If-Match: " + ifMatch + ")");
+        }
+    }
+
+    /**
+     * {@code If-None-Match} semantics: any of the listed tags (or {@code *}) matches the current representation.
+     */
+    public static boolean matchesAny(final String ifNoneMatch, final String eTag) {
+        return eTag != null && parse(ifNoneMatch).stream()
+                .anyMatch(candidate -> "*".equals(candidate) || eTag.equals(candidate));
+    }
+
+    private Optional<Hasher> productState(final long productId) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher().putLong(productId);
+
+        final boolean exists = putRows(hasher, ProductImpl.class,
+                (builder, product) -> builder.equal(product.get("id"), productId),
+                product -> Arrays.asList(
+                        product.get("url"),
+                        product.get("manufacturer"),
+                        product.get("model"),
+                        product.get("archiveStatus").get("archived")
+                ));
+
+        if (!exists) {
+            return Optional.empty();
+        }
+
+        putRows(hasher, SkuImpl.class,
+                (builder, sku) -> ofProduct(builder, sku, productId),
+                sku -> {
+                    final Join<?, ?> defaultProduct = sku.join("defaultProduct", JoinType.LEFT);
+                    return Arrays.asList(
+                            sku.get("id"),
+                            defaultProduct.get("id"),
+                            sku.get("name"),
+                            sku.get("description"),
+                            sku.get("longDescription"),
+                            sku.get("retailPrice"),
+                            sku.get("salePrice"),
+                            sku.join("currency", JoinType.LEFT).get("currencyCode"),
+                            sku.get("taxCode"),
+                            sku.get("activeStartDate"),
+                            sku.get("activeEndDate"),
+                            sku.get("quantityAvailable"),
+                            sku.get("inventoryType")
+                    );
+                });
+
+        putRows(hasher, SkuAttributeImpl.class,
+                (builder, attribute) -> ofProduct(builder, attribute.join("sku"), productId),
+                attribute -> Arrays.asList(attribute.get("sku").get("id"), attribute.get("name"), attribute.get("value")));
+
+        putRows(hasher, SkuMediaXrefImpl.class,
+                (builder, xref) -> ofProduct(builder, xref.join("sku"), productId),
+                xref -> mediaColumns(xref, xref.get("sku").get("id")));
+
+        putRows(hasher, ProductAttributeImpl.class,
+                (builder, attribute) -> builder.equal(attribute.get("product").get("id"), productId),
+                attribute -> Arrays.asList(attribute.get("name"), attribute.get("value")));
+
+        putRows(hasher, ProductOptionXrefImpl.class,
+                (builder, xref) -> builder.equal(xref.get("product").get("id"), productId),
+                xref -> Arrays.asList(xref.get("productOption").get("id"), xref.get("productOption").get("attributeName")));
+
+        /* Product representations include category names and links to the visible ones */
+        putRows(hasher, CategoryProductXrefImpl.class,
+                (builder, xref) -> builder.equal(xref.get("product").get("id"), productId),
+                xref -> {
+                    final Join<?, ?> category = xref.join("category");
+                    return Arrays.asList(
+                            category.get("id"),
+                            category.get("name"),
+                            category.get("activeStartDate"),
+                            category.get("activeEndDate"),
+                            category.get("archiveStatus").get("archived")
+                    );
+                });
+
+        return Optional.of(hasher);
+    }
+
+    private Optional<Hasher> categoryState(final long categoryId) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher().putLong(categoryId);
+
+        final boolean exists = putRows(hasher, CategoryImpl.class,
+                (builder, category) -> builder.equal(category.get("id"), categoryId),
+                category -> Arrays.asList(
+                        category.get("name"),
+                        category.get("description"),
+                        category.get("longDescription"),
+                        category.get("url"),
+                        category.get("inventoryType"),
+                        category.get("activeStartDate"),
+                        category.get("activeEndDate"),
+                        category.get("archiveStatus").get("archived")
+                ));
+
+        if (!exists) {
+            return Optional.empty();
+        }
+
+        putRows(hasher, CategoryAttributeImpl.class,
+                (builder, attribute) -> builder.equal(attribute.get("category").get("id"), categoryId),
+                attribute -> Arrays.asList(attribute.get("name"), attribute.get("value")));
+
+        putRows(hasher, CategoryMediaXrefImpl.class,
+                (builder, xref) -> builder.equal(xref.get("category").get("id"), categoryId),
+                xref -> mediaColumns(xref, xref.get("category").get("id")));
+
+        /* Links to parent categories and subcategories */
+        putRows(hasher, CategoryXrefImpl.class,
+                (builder, xref) -> builder.or(
+                        builder.equal(xref.get("category").get("id"), categoryId),
+                        builder.equal(xref.get("subCategory").get("id"), categoryId)
+                ),
+                xref -> Arrays.asList(xref.get("category").get("id"), xref.get("subCategory").get("id"), xref.get("displayOrder")));
+
+        return Optional.of(hasher);
+    }
+
+    private static Predicate ofProduct(final CriteriaBuilder builder, final From<?, ?> sku, final long productId) {
+        return builder.or(
+                builder.equal(sku.join("defaultProduct", JoinType.LEFT).get("id"), productId),
+                builder.equal(sku.join("product", JoinType.LEFT).get("id"), productId)
+        );
+    }
+
+    private static List<Selection<?>> mediaColumns(final Root<?> xref, final Selection<?> ownerId) {
+        final Join<?, ?> media = xref.join("media", JoinType.LEFT);
+        return Arrays.asList(ownerId, xref.get("key"), media.get("id"), media.get("url"), media.get("title"),
+                media.get("altText"), media.get("tags"));
+    }
+
+    /**
+     * Hashes the selected columns of the matching rows, in a stable order, along with whether the dates
+     * among them (activity ranges) cover the current moment.
+     *
+     * @return whether any row matched
+     */
+    private <T> boolean putRows(final Hasher hasher, final Class<T> entityClass,
+                                final BiFunction<CriteriaBuilder, Root<T>, Predicate> filter,
+                                final Function<Root<T>, List<? extends Selection<?>>> columns) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        final Root<T> root = criteria.from(entityClass);
+        criteria.multiselect(columns.apply(root).toArray(new Selection<?>[0]));
+        criteria.where(filter.apply(builder, root));
+
+        final List<String> rows = em.createQuery(criteria).getResultList().stream()
+                .map(CatalogETagService::toRow)
+                .sorted()
+                .collect(toList());
+
+        hasher.putString(entityClass.getSimpleName(), StandardCharsets.UTF_8).putInt(rows.size());
+        rows.forEach(row -> hasher.putString(row, StandardCharsets.UTF_8));
+
+        return !rows.isEmpty();
+    }
+
+    private static String toRow(final Tuple tuple) {
+        final List<Object> values = Arrays.asList(tuple.toArray());
+        final List<Date> dates = values.stream()
+                .filter(Date.class::isInstance).map(Date.class::cast)
+                .collect(toList());
+
+        final String row = values.stream()
+                .map(value -> value instanceof Date ? String.valueOf(((Date) value).getTime()) : String.valueOf(value))
+                .collect(joining("\u0000"));
+
+        return dates.size() == 2 ? row + "\u0000" + DateUtil.isActive(dates.get(0), dates.get(1), true) : row;
+    }
+
+    private static String eTag(final Hasher stateHasher, final boolean link, final String readPermission) {
+        final boolean privileged = CatalogUtils.isUserAthorizedFor(readPermission).test(null);
+        return "\"" + stateHasher.hash() + VARIANT_SEPARATOR + (link ? "l" : "") + (privileged ? "p" : "") + "\"";
+    }
+
+    private static List<String> parse(final String header) {
+        return Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(StringUtils.defaultString(header)).stream()
+                .map(tag -> StringUtils.removeStart(tag, "W/"))
+                .collect(toList());
+    }
+
+    private static String statePart(final String eTag) {
+        return StringUtils.substringBefore(StringUtils.remove(eTag, '"'), String.valueOf(VARIANT_SEPARATOR));
+    }
+}
@@ -0,0 +1,53 @@
+package pl.touk.widerest.api.catalog;
+
+import lombok.experimental.UtilityClass;
+import org.broadleafcommerce.common.time.SystemTime;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.util.Date;
+
+/**
+ * Criteria API counterparts of {@link pl.touk.widerest.api.common.CatalogUtils#shouldProductBeVisible}
+ * and {@link pl.touk.widerest.api.common.CatalogUtils#shouldCategoryBeVisible}, so that visibility
+ * can be evaluated by the database instead of on hydrated entities.
+ */
+@UtilityClass
+public class CatalogPredicates {
+
+    public static final String PERMISSION_READ_PRODUCT = "PERMISSION_READ_PRODUCT";
+    public static final String PERMISSION_READ_CATEGORY = "PERMISSION_READ_CATEGORY";
+
+    /**
+     * @param privileged whether the caller may see inactive (but not archived) products
+     */
+    public static Predicate isProductVisible(final CriteriaBuilder builder, final Path<?> product, final boolean privileged) {
+        return privileged
+                ? isNotArchived(builder, product)
+                : builder.and(isActive(builder, product.get("defaultSku")), isNotArchived(builder, product));
+    }
+
+    public static Predicate isCategoryVisible(final CriteriaBuilder builder, final Path<?> category, final boolean privileged) {
+        return privileged
+                ? isNotArchived(builder, category)
+                : builder.and(isActive(builder, category), isNotArchived(builder, category));
+    }
+
+    public static Predicate isNotArchived(final CriteriaBuilder builder, final Path<?> entity) {
+        final Path<Character> archived = entity.get("archiveStatus").get("archived");
+        return builder.or(builder.isNull(archived), builder.notEqual(archived, 'Y'));
+    }
+
+    /* Mirrors DateUtil.isActive(activeStartDate, activeEndDate, true) */
+    public static Predicate isActive(final CriteriaBuilder builder, final Path<?> entity) {
+        final Date now = SystemTime.asDate(true);
+        final Path<Date> activeStartDate = entity.get("activeStartDate");
+        final Path<Date> activeEndDate = entity.get("activeEndDate");
+
+        return builder.and(
+                builder.lessThanOrEqualTo(activeStartDate, now),
+                builder.or(builder.isNull(activeEndDate), builder.greaterThanOrEqualTo(activeEndDate, now))
+        );
+    }
+}
@@ -0,0 +1,279 @@
+package pl.touk.widerest.api.catalog;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves product and category URLs to their ids without going to the database.
+ *
+ * Both URL forms Broadleaf resolves are indexed: the full URL and the URL key, matched against the last segment
+ * of the requested URL (as {@code CatalogService.findProductByURI} does), the full URL taking precedence.
+ * The URLs of all non-archived products and categories are loaded at startup, so the index is complete and
+ * authoritative: a URL it does not know is not there. Changes committed through the API are queued and applied
+ * in the background every {@code widerest.catalog.url-index.update-interval} milliseconds, reloading just
+ * the changed entities; a change of all products or categories reloads all of their URLs, and so does every
+ * {@code widerest.catalog.url-index.reload-interval} milliseconds, to pick up changes made outside the API.
+ * Lookups never wait for any of this, so callers should check the URL of what they load. Whether an entity
+ * is active is left to the caller, which loads it anyway.
+ */
+@Slf4j
+@Service("wdCatalogUrlIndex")
+public class CatalogUrlIndex implements ApplicationListener<CatalogChangeEvent>, SmartInitializingSingleton {
+
+    /* Keeps IN (...) lists well below the limits of the databases we run on */
+    private static final int CHUNK_SIZE = 500;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private final UrlMap productUrls = new UrlMap(ProductImpl.class);
+
+    private final UrlMap categoryUrls = new UrlMap(CategoryImpl.class);
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        refresh();
+        log.info("Catalog URL index built with {} product and {} category URLs", productUrls.size(), categoryUrls.size());
+    }
+
+    @Scheduled(
+            initialDelayString = "${widerest.catalog.url-index.update-interval:1000}",
+            fixedDelayString = "${widerest.catalog.url-index.update-interval:1000}"
+    )
+    public void refresh() {
+        productUrls.refresh();
+        categoryUrls.refresh();
+    }
+
+    @Scheduled(
+            initialDelayString = "${widerest.catalog.url-index.reload-interval:600000}",
+            fixedDelayString = "${widerest.catalog.url-index.reload-interval:600000}"
+    )
+    public void requestReload() {
+        productUrls.queue(Collections.emptyList());
+        categoryUrls.queue(Collections.emptyList());
+    }
+
+    public Optional<Long> findProductId(final String url) {
+        return productUrls.find(url);
+    }
+
+    public Optional<Long> findCategoryId(final String url) {
+        return categoryUrls.find(url);
+    }
+
+    /**
+     * Whether an entity with the given URL and URL key is the one the index resolves {@code url} to.
+     */
+    public static boolean hasUrl(final String url, final String entityUrl, final String entityUrlKey) {
+        return url.equals(entityUrl) || urlKeyOf(url).equals(entityUrlKey);
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        switch (event.getEntityType()) {
+            case PRODUCT:
+                productUrls.queue(event.getIds());
+                break;
+            case CATEGORY:
+                categoryUrls.queue(event.getIds());
+                break;
+            default:
+                /* SKUs have no URLs of their own */
+        }
+    }
+
+    private static String urlKeyOf(final String url) {
+        return url.substring(Math.max(url.lastIndexOf('/'), 0));
+    }
+
+    private class UrlMap {
+
+        private final Class<?> entityClass;
+
+        private volatile Lookup byUrl = new Lookup();
+
+        private volatile Lookup byUrlKey = new Lookup();
+
+        private final AtomicBoolean reloadRequested = new AtomicBoolean(true);
+
+        private final Set<Long> changedIds = ConcurrentHashMap.newKeySet();
+
+        UrlMap(final Class<?> entityClass) {
+            this.entityClass = entityClass;
+        }
+
+        Optional<Long> find(final String url) {
+            if (url == null) {
+                return Optional.empty();
+            }
+            final Optional<Long> id = byUrl.find(url);
+            return id.isPresent() ? id : byUrlKey.find(urlKeyOf(url));
+        }
+
+        int size() {
+            return byUrl.size();
+        }
+
+        void queue(final Collection<Long> ids) {
+            if (ids.isEmpty()) {
+                reloadRequested.set(true);
+            } else {
+                changedIds.addAll(ids);
+            }
+        }
+
+        synchronized void refresh() {
+            if (reloadRequested.getAndSet(false)) {
+                changedIds.clear();
+                final List<Tuple> rows;
+                try {
+                    rows = readOnlyTransaction.execute(status -> load(Optional.empty()));
+                } catch (RuntimeException e) {
+                    /* Retried by the next update; lookups keep using the old maps meanwhile */
+                    reloadRequested.set(true);
+                    throw e;
+                }
+
+                /* Lookups keep using the old maps until the new ones are complete */
+                final Lookup newByUrl = new Lookup();
+                final Lookup newByUrlKey = new Lookup();
+                for (Tuple row : rows) {
+                    newByUrl.put(row.get(0, Long.class), row.get(1, String.class));
+                    newByUrlKey.put(row.get(0, Long.class), row.get(2, String.class));
+                }
+                byUrl = newByUrl;
+                byUrlKey = newByUrlKey;
+                return;
+            }
+
+            final List<Long> ids = drain(changedIds);
+
+            for (List<Long> chunk : Lists.partition(ids, CHUNK_SIZE)) {
+                final List<Tuple> rows;
+                try {
+                    rows = readOnlyTransaction.execute(status -> load(Optional.of(chunk)));
+                } catch (RuntimeException e) {
+                    changedIds.addAll(ids);
+                    throw e;
+                }
+
+                /* Entities that are not loaded any more have been archived, deleted or lost their URLs */
+                final Set<Long> missingIds = new HashSet<>(chunk);
+                for (Tuple row : rows) {
+                    final long id = row.get(0, Long.class);
+                    byUrl.remove(id);
+                    byUrl.put(id, row.get(1, String.class));
+                    byUrlKey.remove(id);
+                    byUrlKey.put(id, row.get(2, String.class));
+                    missingIds.remove(id);
+                }
+                missingIds.forEach(id -> {
+                    byUrl.remove(id);
+                    byUrlKey.remove(id);
+                });
+            }
+        }
+
+        private List<Tuple> load(final Optional<List<Long>> ids) {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+            final Root<?> entity = criteria.from(entityClass);
+            criteria.multiselect(entity.get("id"), entity.get("url"), entity.get("urlKey"));
+
+            final List<Predicate> predicates = new ArrayList<>();
+            predicates.add(CatalogPredicates.isNotArchived(builder, entity));
+            predicates.add(builder.or(builder.isNotNull(entity.get("url")), builder.isNotNull(entity.get("urlKey"))));
+            ids.ifPresent(chunk -> predicates.add(entity.get("id").in(chunk)));
+            criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+
+            return em.createQuery(criteria).getResultList();
+        }
+    }
+
+    /**
+     * Ids by one of the URL forms.
+     */
+    private static class Lookup {
+
+        /* Broadleaf does not enforce unique URLs; the entity with the lowest id wins, as with the default ordering */
+        private final Map<String, NavigableSet<Long>> idsByKey = new ConcurrentHashMap<>();
+
+        private final Map<Long, String> keysById = new ConcurrentHashMap<>();
+
+        Optional<Long> find(final String key) {
+            return Optional.ofNullable(idsByKey.get(key))
+                    .flatMap(ids -> ids.stream().findFirst());
+        }
+
+        int size() {
+            return keysById.size();
+        }
+
+        void put(final long id, final String key) {
+            if (key != null) {
+                keysById.put(id, key);
+                idsByKey.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>()).add(id);
+            }
+        }
+
+        void remove(final long id) {
+            Optional.ofNullable(keysById.remove(id)).ifPresent(key ->
+                    idsByKey.computeIfPresent(key, (k, ids) -> {
+                        ids.remove(id);
+                        return ids.isEmpty() ? null : ids;
+                    })
+            );
+        }
+    }
+
+    private static List<Long> drain(final Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Long> drained = new ArrayList<>(ids);
+        ids.removeAll(drained);
+        return drained;
+    }
+}
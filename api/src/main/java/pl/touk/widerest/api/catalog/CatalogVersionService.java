@@ -0,0 +1,59 @@
+package pl.touk.widerest.api.catalog;
+
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version numbers of catalog entities, bumped by every {@link CatalogChangeEvent}.
+ *
+ * Product versions are kept in a fixed number of stripes, so the registry stays small whatever the size
+ * of the catalog; products sharing a stripe merely change versions together. Category versions are global,
+ * as any category change may affect the representation of others (links, subcategories).
+ * Versions are kept in memory and only bumped by changes made through this node, so they may only tell whether
+ * something cached by this node is still current; they are not to be exposed to clients.
+ */
+@Service("wdCatalogVersionService")
+public class CatalogVersionService implements ApplicationListener<CatalogChangeEvent> {
+
+    private static final int PRODUCT_STRIPES = 4096;
+
+    private final AtomicLongArray productVersions = new AtomicLongArray(PRODUCT_STRIPES);
+
+    private final AtomicLong categoriesVersion = new AtomicLong();
+
+    public long getProductVersion(final long productId) {
+        return productVersions.get(stripe(productId));
+    }
+
+    public long getCategoriesVersion() {
+        return categoriesVersion.get();
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        switch (event.getEntityType()) {
+            case PRODUCT:
+                if (event.getIds().isEmpty()) {
+                    for (int i = 0; i < PRODUCT_STRIPES; i++) {
+                        productVersions.incrementAndGet(i);
+                    }
+                } else {
+                    event.getIds().forEach(productId -> productVersions.incrementAndGet(stripe(productId)));
+                }
+                break;
+            case CATEGORY:
+                categoriesVersion.incrementAndGet();
+                break;
+            case SKU:
+                /* Published along with the owning product's change */
+                break;
+        }
+    }
+
+    private static int stripe(final long productId) {
+        return (int) ((productId ^ (productId >>> 32)) & (PRODUCT_STRIPES - 1));
+    }
+}
@@ -0,0 +1,55 @@
+package pl.touk.widerest.api.categories;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Index;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * Row of the category closure table: the number of distinct paths of the given length
+ * leading from an ancestor category down to its descendant.
+ *
+ * Categories may have several parents, so a pair of categories may be connected by paths
+ * of different lengths, each counted separately. Zero-length (self) paths are implicit and not stored.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@IdClass(CategoryClosure.Key.class)
+@Table(name = "WD_CATEGORY_CLOSURE")
+public class CategoryClosure implements Serializable {
+
+    @Id
+    @Column(name = "ANCESTOR_ID", nullable = false)
+    private Long ancestorId;
+
+    @Id
+    @Column(name = "DESCENDANT_ID", nullable = false)
+    @Index(name = "WD_CATCLOSURE_DESCENDANT_INDEX", columnNames = { "DESCENDANT_ID" })
+    private Long descendantId;
+
+    @Id
+    @Column(name = "DISTANCE", nullable = false)
+    @Index(name = "WD_CATCLOSURE_DISTANCE_INDEX", columnNames = { "DISTANCE" })
+    private Integer distance;
+
+    @Column(name = "PATH_COUNT", nullable = false)
+    private Long pathCount;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long ancestorId;
+        private Long descendantId;
+        private Integer distance;
+    }
+}
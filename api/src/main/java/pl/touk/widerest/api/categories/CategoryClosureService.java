@@ -0,0 +1,269 @@
+package pl.touk.widerest.api.categories;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Maintains the {@link CategoryClosure} table and answers hierarchy queries with it.
+ *
+ * The table is updated incrementally, in the same transaction as the relation it reflects
+ * (see {@link #addRelation} and {@link #removeRelation}); relations closing a cycle are rejected.
+ * If it is empty at startup, it is built from the existing category relations.
+ */
+@Slf4j
+@Service("wdCategoryClosureService")
+public class CategoryClosureService implements ApplicationListener<ContextRefreshedEvent> {
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    @Resource(name = "wdCategoryTreeService")
+    protected CategoryTreeService categoryTreeService;
+
+    private final AtomicBoolean initialized = new AtomicBoolean();
+
+    /**
+     * Ids of the categories at the given depth below the top level ones (level 0), in any order.
+     * A category reachable by paths of different lengths is at several levels.
+     */
+    public List<Long> findCategoryIdsAtLevel(final int level) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+
+        if (level == 0) {
+            final Root<CategoryImpl> category = criteria.from(CategoryImpl.class);
+            criteria.select(category.<Long>get("id"));
+            criteria.where(builder.not(builder.exists(ancestorsOf(builder, criteria, category.get("id")))));
+        } else {
+            final Root<CategoryClosure> closure = criteria.from(CategoryClosure.class);
+            criteria.select(closure.<Long>get("descendantId")).distinct(true);
+            criteria.where(
+                    builder.equal(closure.get("distance"), level),
+                    builder.not(builder.exists(ancestorsOf(builder, criteria, closure.get("ancestorId"))))
+            );
+        }
+
+        return em.createQuery(criteria).getResultList();
+    }
+
+    /**
+     * Ids of all the categories below the given one, at any depth, in any order.
+     */
+    public List<Long> findDescendantIds(final long categoryId) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+        final Root<CategoryClosure> closure = criteria.from(CategoryClosure.class);
+        criteria.select(closure.<Long>get("descendantId")).distinct(true);
+        criteria.where(builder.equal(closure.get("ancestorId"), categoryId));
+        return em.createQuery(criteria).getResultList();
+    }
+
+    /**
+     * Records a new parent-child relation. Has to be called in the transaction creating it.
+     */
+    public void addRelation(final long parentId, final long childId) {
+        updateRelation(parentId, childId, 1);
+    }
+
+    /**
+     * Forgets a parent-child relation. Has to be called in the transaction removing it.
+     */
+    public void removeRelation(final long parentId, final long childId) {
+        updateRelation(parentId, childId, -1);
+    }
+
+    /**
+     * Rebuilds the whole table from the current category relations,
+     * e.g. after they have been changed behind the API's back.
+     */
+    public void rebuild() {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<CategoryClosure> criteria = builder.createQuery(CategoryClosure.class);
+        criteria.from(CategoryClosure.class);
+        em.createQuery(criteria).getResultList().forEach(em::remove);
+        em.flush();
+
+        final Map<CategoryClosure.Key, Long> paths = countPaths(categoryTreeService.loadTree());
+
+        paths.forEach((key, pathCount) ->
+                em.persist(new CategoryClosure(key.getAncestorId(), key.getDescendantId(), key.getDistance(), pathCount)));
+
+        log.info("Category closure rebuilt with {} entries", paths.size());
+    }
+
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event) {
+        if (!initialized.compareAndSet(false, true)) {
+            return;
+        }
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+            criteria.select(builder.count(criteria.from(CategoryClosure.class)));
+
+            if (em.createQuery(criteria).getSingleResult() == 0) {
+                rebuild();
+            }
+            return null;
+        });
+    }
+
+    private void updateRelation(final long parentId, final long childId, final int sign) {
+        relationChanges(parentId, childId, paths("descendantId", parentId), paths("ancestorId", childId), sign)
+                .forEach(this::adjust);
+    }
+
+    /**
+     * Changes of the path counts caused by adding ({@code sign} 1) or removing ({@code sign} -1) a relation:
+     * every path to the parent, followed by the relation and every path from the child, is affected.
+     *
+     * @param toParent  the stored paths ending at the parent
+     * @param fromChild the stored paths starting at the child
+     * @throws CategoryCycleException if the added relation would close a cycle
+     */
+    static Map<CategoryClosure.Key, Long> relationChanges(final long parentId, final long childId,
+                                                          final List<Segment> toParent, final List<Segment> fromChild,
+                                                          final int sign) {
+        if (sign > 0 && (parentId == childId || fromChild.stream().anyMatch(path -> path.getDescendantId() == parentId))) {
+            throw new CategoryCycleException("Category with ID: " + childId + " is an ancestor of category with ID: " + parentId);
+        }
+
+        final List<Segment> heads = new ArrayList<>(toParent);
+        heads.add(new Segment(parentId, parentId, 0, 1));
+
+        final List<Segment> tails = new ArrayList<>(fromChild);
+        tails.add(new Segment(childId, childId, 0, 1));
+
+        final Map<CategoryClosure.Key, Long> changes = new HashMap<>();
+        for (Segment head : heads) {
+            for (Segment tail : tails) {
+                changes.merge(new CategoryClosure.Key(head.getAncestorId(), tail.getDescendantId(), head.getDistance() + 1 + tail.getDistance()),
+                        sign * head.getPathCount() * tail.getPathCount(), Long::sum);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Counts the paths between all pairs of categories of the tree, by length.
+     *
+     * Categories are visited children first (in reverse topological order), so the paths from a category are
+     * those from its children extended by one relation, each computed once: the cost is proportional to the size
+     * of the result rather than to the number of paths. Categories on a cycle (possible only through changes
+     * made behind the API's back), and their ancestors, are left out.
+     */
+    static Map<CategoryClosure.Key, Long> countPaths(final CategoryTree tree) {
+        final Map<Long, Integer> pendingChildren = new HashMap<>();
+        final Deque<Long> ready = new ArrayDeque<>();
+        for (Long id : tree.getIds()) {
+            final int childCount = tree.getNode(id).get().getChildIds().size();
+            pendingChildren.put(id, childCount);
+            if (childCount == 0) {
+                ready.add(id);
+            }
+        }
+
+        /* Paths from every visited category: descendant id -> distance -> number of paths */
+        final Map<Long, Map<Long, Map<Integer, Long>>> pathsFrom = new HashMap<>();
+
+        while (!ready.isEmpty()) {
+            final long id = ready.poll();
+            final CategoryTree.Node node = tree.getNode(id).get();
+
+            final Map<Long, Map<Integer, Long>> paths = new HashMap<>();
+            for (Long childId : node.getChildIds()) {
+                paths.computeIfAbsent(childId, key -> new HashMap<>()).merge(1, 1L, Long::sum);
+                pathsFrom.get(childId).forEach((descendantId, counts) -> counts.forEach((distance, count) ->
+                        paths.computeIfAbsent(descendantId, key -> new HashMap<>()).merge(distance + 1, count, Long::sum)));
+            }
+            pathsFrom.put(id, paths);
+
+            for (Long parentId : node.getParentIds()) {
+                if (pendingChildren.merge(parentId, -1, Integer::sum) == 0) {
+                    ready.add(parentId);
+                }
+            }
+        }
+
+        if (pathsFrom.size() < pendingChildren.size()) {
+            log.warn("{} categories are on or above a cycle of category relations and are left out of the closure",
+                    pendingChildren.size() - pathsFrom.size());
+        }
+
+        final Map<CategoryClosure.Key, Long> result = new HashMap<>();
+        pathsFrom.forEach((ancestorId, paths) -> paths.forEach((descendantId, counts) -> counts.forEach((distance, count) ->
+                result.put(new CategoryClosure.Key(ancestorId, descendantId, distance), count))));
+        return result;
+    }
+
+    private void adjust(final CategoryClosure.Key key, final long delta) {
+        final CategoryClosure closure = em.find(CategoryClosure.class, key);
+
+        if (closure == null) {
+            if (delta > 0) {
+                em.persist(new CategoryClosure(key.getAncestorId(), key.getDescendantId(), key.getDistance(), delta));
+            }
+        } else if (closure.getPathCount() + delta > 0) {
+            closure.setPathCount(closure.getPathCount() + delta);
+        } else {
+            em.remove(closure);
+        }
+    }
+
+    /* Copied out of the managed entities, which are modified while the paths are being combined */
+    private List<Segment> paths(final String endAttribute, final long categoryId) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<CategoryClosure> criteria = builder.createQuery(CategoryClosure.class);
+        final Root<CategoryClosure> closure = criteria.from(CategoryClosure.class);
+        criteria.where(builder.equal(closure.get(endAttribute), categoryId));
+
+        return em.createQuery(criteria).getResultList().stream()
+                .map(row -> new Segment(row.getAncestorId(), row.getDescendantId(), row.getDistance(), row.getPathCount()))
+                .collect(toList());
+    }
+
+    private static Subquery<Long> ancestorsOf(final CriteriaBuilder builder, final CriteriaQuery<?> criteria,
+                                              final Expression<?> categoryId) {
+        final Subquery<Long> ancestors = criteria.subquery(Long.class);
+        final Root<CategoryClosure> closure = ancestors.from(CategoryClosure.class);
+        ancestors.select(closure.<Long>get("ancestorId"));
+        ancestors.where(builder.equal(closure.get("descendantId"), categoryId));
+        return ancestors;
+    }
+
+    @Value
+    static class Segment {
+        long ancestorId;
+        long descendantId;
+        int distance;
+        long pathCount;
+    }
+}
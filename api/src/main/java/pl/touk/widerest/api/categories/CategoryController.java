@@ -17,8 +17,10 @@ import org.broadleafcommerce.core.catalog.domain.Product;
 import org.broadleafcommerce.core.catalog.service.CatalogService;
 import org.hibernate.validator.constraints.NotEmpty;
 import org.hibernate.validator.constraints.URL;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -31,30 +33,43 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import pl.touk.widerest.api.catalog.CatalogChangePublisher;
+import pl.touk.widerest.api.catalog.CatalogCounterService;
+import pl.touk.widerest.api.catalog.CatalogETagService;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.catalog.CatalogUrlIndex;
 import pl.touk.widerest.api.common.CatalogUtils;
+import pl.touk.widerest.api.common.Cursor;
 import pl.touk.widerest.api.common.ResourceNotFoundException;
+import pl.touk.widerest.api.common.StreamingResourcesFactory;
 import pl.touk.widerest.api.products.ProductConverter;
 import pl.touk.widerest.api.products.ProductDto;
+import pl.touk.widerest.api.products.ProductServiceProxy;
+import pl.touk.widerest.api.products.ProductSort;
+import pl.touk.widerest.hal.StreamingResources;
 import pl.touk.widerest.security.oauth2.ResourceServerConfig;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.annotation.Resource;
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
-import java.util.Queue;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
+import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+
 @RestController
 @Validated
 @RequestMapping(value = ResourceServerConfig.API_PATH, produces = { MediaTypes.HAL_JSON_VALUE})
@@ -78,6 +93,33 @@ public class CategoryController {
     @Resource
     protected ProductConverter productConverter;
 
+    @Resource(name = "wdProductService")
+    protected ProductServiceProxy productServiceProxy;
+
+    @Resource
+    protected StreamingResourcesFactory streamingResourcesFactory;
+
+    @Resource(name = "wdCategoryTreeService")
+    protected CategoryTreeService categoryTreeService;
+
+    @Resource(name = "wdCategoryClosureService")
+    protected CategoryClosureService categoryClosureService;
+
+    @Resource(name = "wdCategoryMembershipService")
+    protected CategoryMembershipService categoryMembershipService;
+
+    @Resource(name = "wdCatalogETagService")
+    protected CatalogETagService catalogETagService;
+
+    @Resource(name = "wdCatalogCounterService")
+    protected CatalogCounterService catalogCounterService;
+
+    @Resource(name = "wdCatalogUrlIndex")
+    protected CatalogUrlIndex catalogUrlIndex;
+
+    @Resource
+    protected CatalogChangePublisher catalogChangePublisher;
+
     @Transactional
     @PreAuthorize("permitAll")
     @RequestMapping(value = "/categories", method = RequestMethod.GET)
@@ -92,22 +134,24 @@ public class CategoryController {
     public Resources<CategoryDto> readAllCategories(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @ApiParam(value = "Level in the categories hierarchy tree", defaultValue = "false")
-            @RequestParam(value = "flat", required = false, defaultValue = "false") boolean flat
+            @RequestParam(value = "flat", required = false, defaultValue = "false") boolean flat,
+            @ApiParam(value = "Return only (flat) categories at the given depth, top level categories being at 0")
+            @RequestParam(value = "level", required = false) @Min(0) Integer level
     ) {
 
-        final List<CategoryDto> categoriesToReturn =
-                (flat ? catalogService.findAllCategories() : catalogService.findAllParentCategories()).stream()
-                        .filter(new Predicate<Category>() {
-                            @Override
-                            public boolean test(Category category) {
-                                return category.isActive();
-                            }
-                        })
-                        .filter(category -> flat || category.getAllParentCategoryXrefs().size() == 0)
-                        .map(category -> categoryConverter.createDto(category, !flat, true))
-                        .collect(Collectors.toList());
-
-        return new Resources<>(categoriesToReturn);
+        final CategoryTree tree = categoryTreeService.getTree();
+
+        if (level != null) {
+            final List<Long> categoryIds = categoryClosureService.findCategoryIdsAtLevel(level).stream()
+                    .filter(id -> tree.getNode(id).filter(CategoryTree.Node::isActive).isPresent())
+                    .collect(Collectors.toList());
+
+            return new Resources<>(categoryConverter.createDtos(categoryTreeService.findCategoriesByIds(categoryIds), false, true));
+        }
+
+        final List<Long> categoryIds = flat ? tree.getVisibleIds(false) : tree.getVisibleRootIds(false);
+
+        return new Resources<>(categoryConverter.createDtos(categoryTreeService.findCategoriesByIds(categoryIds), !flat, true));
     }
 
     @Transactional
@@ -132,6 +176,8 @@ public class CategoryController {
 
         final Category createdCategoryEntity = catalogService.saveCategory(categoryConverter.createEntity(categoryDto));
 
+        catalogChangePublisher.categoriesChanged(createdCategoryEntity.getId());
+
         return ResponseEntity.created(ServletUriComponentsBuilder.fromCurrentRequest()
                 .path("/{id}")
                 .buildAndExpand(createdCategoryEntity.getId())
@@ -139,6 +185,21 @@ public class CategoryController {
                 .build();
     }
 
+    @Transactional
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/categories/count", method = RequestMethod.GET)
+    @ApiOperation(
+            value = "Count all categories",
+            notes = "Gets a number of all available categories",
+            response = Long.class
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of categories count")
+    })
+    public Long getAllCategoriesCount() {
+        return catalogCounterService.countCategories();
+    }
+
     @Transactional
     @PreAuthorize("permitAll")
     @RequestMapping(value = "/categories/{categoryId}", method = RequestMethod.GET)
@@ -148,6 +209,7 @@ public class CategoryController {
     )
     @ApiResponses({
             @ApiResponse(code = 200, message = "Successful retrieval of category details", response = CategoryDto.class),
+            @ApiResponse(code = 304, message = "The category has not been modified"),
             @ApiResponse(code = 404, message = "The specified category does not exist or is marked as archived")
     })
     public ResponseEntity<CategoryDto> readOneCategoryById(
@@ -155,15 +217,49 @@ public class CategoryController {
             @ApiParam(value = "ID of a specific category", required = true)
             @PathVariable(value="categoryId") final Long categoryId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
-            @RequestParam(value = "link", defaultValue = "true") Boolean link
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiParam(value = "ETags of the already known representations")
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch
     ) {
+        final Optional<String> eTag = catalogETagService.forCategory(categoryId, embed, link);
+
+        if (eTag.filter(tag -> CatalogETagService.matchesAny(ifNoneMatch, tag)).isPresent()) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag.get()).build();
+        }
 
         final CategoryDto categoryToReturnDto = Optional.ofNullable(catalogService.findCategoryById(categoryId))
                 .filter(((Predicate<Category>) Category::isActive).or(x -> false))
                 .map(category -> categoryConverter.createDto(category, embed, link))
                 .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
 
-        return ResponseEntity.ok(categoryToReturnDto);
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        eTag.ifPresent(response::eTag);
+        return response.body(categoryToReturnDto);
+    }
+
+    @Transactional
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/categories/url", method = RequestMethod.GET, params = "url")
+    @ApiOperation(
+            value = "Get category by URL",
+            notes = "Gets a single category details"
+    )
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Successful retrieval of category details", response = CategoryDto.class),
+            @ApiResponse(code = 404, message = "No available category has the specified URL")
+    })
+    public CategoryDto getCategoryByUrl(
+            @ApiParam @RequestParam(value = "url", required = true) final String url,
+            @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
+            @RequestParam(value = "link", defaultValue = "true") Boolean link
+    ) {
+        return catalogUrlIndex.findCategoryId(url)
+                .map(catalogService::findCategoryById)
+                /* The index may lag behind a recent change */
+                .filter(found -> CatalogUrlIndex.hasUrl(url, found.getUrl(), found.getUrlKey()))
+                .filter(Category::isActive)
+                .map(visible -> categoryConverter.createDto(visible, embed, link))
+                .orElseThrow(() -> new ResourceNotFoundException("Category with URL: " + url + " does not exist"));
     }
 
     @Transactional
@@ -188,6 +284,8 @@ public class CategoryController {
                 })
                 .orElseThrow(() -> new ResourceNotFoundException("Cannot delete category with ID: " + categoryId + ". Category does not exist"));
 
+        catalogChangePublisher.categoriesChanged(categoryId);
+
         return NO_CONTENT;
     }
 
@@ -202,13 +300,18 @@ public class CategoryController {
             @ApiResponse(code = 200, message = "Successful update of the specified category"),
             @ApiResponse(code = 400, message = "Not enough data has been provided"),
             @ApiResponse(code = 404, message = "The specified category does not exist"),
-            @ApiResponse(code = 409, message = "Category with that name already exists")
+            @ApiResponse(code = 409, message = "Category with that name already exists"),
+            @ApiResponse(code = 412, message = "The category has been modified in the meantime")
     })
     public ResponseEntity<?> updateOneCategory(
             @ApiParam(value = "ID of a specific category", required = true)
                 @PathVariable(value = "categoryId") Long categoryId,
             @ApiParam(value = "(Full) Description of an updated category", required = true)
-                @Valid @RequestBody final CategoryDto categoryDto) {
+                @Valid @RequestBody final CategoryDto categoryDto,
+            @ApiParam(value = "ETag of the category the update is based on")
+                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+        catalogETagService.checkIfMatch(ifMatch, catalogETagService.forCategory(categoryId, false, false));
 
         Optional.ofNullable(catalogService.findCategoryById(categoryId))
                 .filter(CatalogUtils.shouldCategoryBeVisible)
@@ -216,6 +319,8 @@ public class CategoryController {
                 .map(catalogService::saveCategory)
                 .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
 
+        catalogChangePublisher.categoriesChanged(categoryId);
+
         return OK;
     }
 
@@ -248,12 +353,75 @@ public class CategoryController {
                 .filter(CatalogUtils.shouldCategoryBeVisible)
                 .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
 
-        List<CategoryDto> subcategoriesDtos = catalogService.findAllSubCategories(category, limit != null ? limit : 0, offset != null ? offset : 0).stream()
-                .filter(CatalogUtils.shouldCategoryBeVisible)
-                .map(subcategory -> categoryConverter.createDto(subcategory, embed, link))
+        final List<Long> subcategoryIds = categoryTreeService.getTree()
+                .getVisibleChildIds(category.getId(), categoryTreeService.isPrivileged()).stream()
+                .skip(offset != null ? offset : 0)
+                .limit(limit != null && limit > 0 ? limit : Long.MAX_VALUE)
+                .collect(Collectors.toList());
+
+        return new Resources<>(categoryConverter.createDtos(categoryTreeService.findCategoriesByIds(subcategoryIds), embed, link));
+    }
+
+    @Transactional
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/categories/{categoryId}/path", method = RequestMethod.GET)
+    @ApiOperation(
+            value = "Get the path to a category",
+            notes = "Gets the categories from a top level one down to the specified category (breadcrumbs). " +
+                    "A category with several parents is reached through the first one"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    code = 200, message = "Successful retrieval of the category path",
+                    response = CategoryDto.class, responseContainer = "List"),
+            @ApiResponse(code = 404, message = "The specified category (or one of its ancestors) does not exist")
+    })
+    public Resources<CategoryDto> readCategoryPath(
+            @ApiParam(value = "ID of a specific category", required = true)
+            @PathVariable(value = "categoryId") final Long categoryId,
+            @RequestParam(value = "link", defaultValue = "true") Boolean link
+    ) {
+        final CategoryTree tree = categoryTreeService.getTree();
+        final boolean privileged = categoryTreeService.isPrivileged();
+
+        final List<Long> path = tree.getNode(categoryId)
+                .map(CategoryTree.Node::getPath)
+                .filter(ids -> ids.stream().allMatch(id -> tree.getNode(id).get().isVisible(privileged)))
+                .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
+
+        return new Resources<>(categoryConverter.createDtos(categoryTreeService.findCategoriesByIds(path), false, link));
+    }
+
+    @Transactional
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/categories/{categoryId}/descendants", method = RequestMethod.GET)
+    @ApiOperation(
+            value = "List all descendants of a category",
+            notes = "Gets a flat list of all available categories below a given one, at any depth"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    code = 200, message = "Successful retrieval of the category's descendants",
+                    response = CategoryDto.class, responseContainer = "List"),
+            @ApiResponse(code = 404, message = "The specified category does not exist")
+    })
+    public Resources<CategoryDto> readCategoryDescendants(
+            @ApiParam(value = "ID of a specific category", required = true)
+            @PathVariable(value = "categoryId") final Long categoryId,
+            @RequestParam(value = "link", defaultValue = "true") Boolean link
+    ) {
+        final CategoryTree tree = categoryTreeService.getTree();
+        final boolean privileged = categoryTreeService.isPrivileged();
+
+        tree.getNode(categoryId)
+                .filter(node -> node.isVisible(privileged))
+                .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
+
+        final List<Long> descendantIds = categoryClosureService.findDescendantIds(categoryId).stream()
+                .filter(id -> tree.getNode(id).filter(node -> node.isVisible(privileged)).isPresent())
                 .collect(Collectors.toList());
 
-        return new Resources(subcategoriesDtos);
+        return new Resources<>(categoryConverter.createDtos(categoryTreeService.findCategoriesByIds(descendantIds), false, link));
     }
 
     @Transactional
@@ -267,7 +435,7 @@ public class CategoryController {
             @ApiResponse(code = 201, message = "A new subcategory has been successfully created"),
             @ApiResponse(code = 400, message = "Not enough data has been provided (missing category link)"),
             @ApiResponse(code = 404, message = "The specified category does not exist"),
-            @ApiResponse(code = 409, message = "Category is already a subcategory of a specified category")
+            @ApiResponse(code = 409, message = "Category is already a subcategory of a specified category or is its ancestor")
     })
     public ResponseEntity<?> addSubcategoryToParent(
             @ApiParam(value = "ID of a specific category", required = true)
@@ -297,8 +465,10 @@ public class CategoryController {
         parentChildCategoryXref.setSubCategory(hrefCategory);
 
         if(!parentCategory.getAllChildCategoryXrefs().contains(parentChildCategoryXref)) {
+            categoryClosureService.addRelation(categoryId, hrefCategoryId);
             parentCategory.getAllChildCategoryXrefs().add(parentChildCategoryXref);
             catalogService.saveCategory(parentCategory);
+            catalogChangePublisher.categoriesChanged(categoryId, hrefCategoryId);
             return CREATED;
         } else {
             return CONFLICT;
@@ -347,6 +517,9 @@ public class CategoryController {
                 })
                 .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
 
+        categoryClosureService.removeRelation(categoryId, hrefCategoryId);
+        catalogChangePublisher.categoriesChanged(categoryId, hrefCategoryId);
+
         return NO_CONTENT;
     }
 
@@ -355,26 +528,48 @@ public class CategoryController {
     @RequestMapping(value = "/categories/{categoryId}/products", method = RequestMethod.GET)
     @ApiOperation(
             value = "Get all products in a category",
-            notes = "Gets a list of all products belonging to a specified category",
+            notes = "Gets a page of products belonging to a specified category. Further pages are linked as 'next'",
             response = ProductDto.class,
             responseContainer = "List"
     )
     @ApiResponses({
             @ApiResponse(code = 200, message = "Successful retrieval of all products in a given category", responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid cursor or ordering"),
             @ApiResponse(code = 404, message = "The specified category does not exist")
     })
-    public Resources<ProductDto> readProductsFromCategory(
+    public StreamingResources<ProductDto> readProductsFromCategory(
             @ApiParam(value = "ID of a specific category", required = true)
             @PathVariable(value="categoryId") final Long categoryId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
-            @RequestParam(value = "link", defaultValue = "true") Boolean link
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiParam(value = "Amount of products to be returned")
+            @RequestParam(value = "limit", defaultValue = "100") @Min(1) final Integer limit,
+            @ApiParam(value = "Opaque cursor returned in the 'next' link of the previous page")
+            @RequestParam(value = "cursor", required = false) final String cursor,
+            @ApiParam(value = "Ordering of the products", allowableValues = "DEFAULT, NAME, PRICE, NEWEST")
+            @RequestParam(value = "sort", defaultValue = "DEFAULT") final ProductSort sort
     ) {
+        categoryTreeService.getTree().getNode(categoryId)
+                .filter(node -> node.isVisible(categoryTreeService.isPrivileged()))
+                .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
 
-        return new Resources<>(
-                getProductsFromCategoryId(categoryId).stream()
-                .filter(CatalogUtils.shouldProductBeVisible)
-                .map(product -> productConverter.createDto(product, embed, link))
-                .collect(Collectors.toList())
+        final List<Cursor> positions = productServiceProxy.findProductPositionsInCategory(
+                categoryId, sort, Cursor.decode(cursor), limit,
+                CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_PRODUCT).test(null));
+
+        final List<Link> links = new ArrayList<>();
+        links.add(linkTo(methodOn(getClass()).readProductsFromCategory(categoryId, embed, link, limit, cursor, sort)).withSelfRel());
+
+        if (positions.size() == limit) {
+            final String nextCursor = positions.get(positions.size() - 1).encode();
+            links.add(linkTo(methodOn(getClass()).readProductsFromCategory(categoryId, embed, link, limit, nextCursor, sort)).withRel(Link.REL_NEXT));
+        }
+
+        return streamingResourcesFactory.create(
+                positions.stream().map(Cursor::getId).collect(Collectors.toList()),
+                productServiceProxy::findProductsByIds,
+                products -> productConverter.createDtos(products, embed, link),
+                links
         );
     }
 
@@ -420,6 +615,8 @@ public class CategoryController {
         if(!categoryEntity.getAllProductXrefs().contains(productToAddXref)) {
             categoryEntity.getAllProductXrefs().add(productToAddXref);
             catalogService.saveCategory(categoryEntity);
+            catalogChangePublisher.categoriesChanged(categoryId);
+            catalogChangePublisher.productsChanged(hrefProductId);
             /* TODO: (mst) add URI */
             return CREATED;
         } else {
@@ -472,11 +669,40 @@ public class CategoryController {
                 .map(catalogService::saveCategory)
                 .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
 
+        catalogChangePublisher.categoriesChanged(categoryId);
+        catalogChangePublisher.productsChanged(hrefProductId);
 
         return NO_CONTENT;
 
     }
 
+    @Transactional
+    @PreAuthorize("hasRole('PERMISSION_ALL_CATEGORY')")
+    @RequestMapping(value = "/categories/{categoryId}/products", method = RequestMethod.PATCH)
+    @ApiOperation(
+            value = "Add and remove products of a category in bulk",
+            notes = "Removes and then adds the given products, all in a single transaction. Like the single product " +
+                    "operations, it DOES NOT create or delete products, just their references to the specified category. " +
+                    "Returns the outcome of every item of the change",
+            response = CategoryProductChangeResultDto.class,
+            responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Change applied, outcomes of the items returned"),
+            @ApiResponse(code = 404, message = "The specified category does not exist")
+    })
+    public Resources<CategoryProductChangeResultDto> changeProductsOfCategory(
+            @ApiParam(value = "ID of a specific category", required = true)
+            @PathVariable(value="categoryId") Long categoryId,
+            @ApiParam(value = "Links to the products to be added and removed", required = true)
+            @RequestBody CategoryProductsChangeDto change) {
+
+        categoryTreeService.getTree().getNode(categoryId)
+                .filter(node -> node.isVisible(categoryTreeService.isPrivileged()))
+                .orElseThrow(() -> new ResourceNotFoundException("Category with ID: " + categoryId + " does not exist"));
+
+        return new Resources<>(categoryMembershipService.applyChange(categoryId, change));
+    }
+
     /* ------------------------------- HELPER METHODS ------------------------------- */
 
     private List<Product> getProductsFromCategoryId(final long categoryId) throws ResourceNotFoundException {
@@ -489,57 +715,4 @@ public class CategoryController {
                 .collect(Collectors.toList());
     }
 
-    public static List<Category> getCategoriesAtLevel(final List<Category> parentCategories, final int level) {
-
-        if(level < 0 || parentCategories.size() <= 0) {
-            return Collections.emptyList();
-        }
-
-        if(level == 0) {
-            return parentCategories;
-        }
-
-        final List<Category> levelCategories = new ArrayList<>();
-
-        /* (mst) BFS-type search. We maintain two queues though,
-                 to be able to break easily if we reach the
-                 required level.
-         */
-
-        Queue<Category> activeCategories = new LinkedList<>();
-        Queue<Category> inactiveCategories = new LinkedList<>();
-        int currentDepth;
-
-        for(Category rootCategory : parentCategories) {
-
-            currentDepth = 0;
-
-            activeCategories.add(rootCategory);
-
-            while(!activeCategories.isEmpty()) {
-                while(!activeCategories.isEmpty()) {
-                    final Category c = activeCategories.remove();
-
-                    for (CategoryXref children : c.getAllChildCategoryXrefs()) {
-                        inactiveCategories.add(children.getSubCategory());
-                    }
-                }
-
-                currentDepth++;
-
-                if(currentDepth >= level) {
-                    levelCategories.addAll(inactiveCategories);
-                    activeCategories.clear();
-                } else {
-                    activeCategories.clear();
-                    activeCategories.addAll(inactiveCategories);
-                }
-
-                inactiveCategories.clear();
-            }
-        }
-
-        return levelCategories;
-    }
-
 }
@@ -11,7 +11,6 @@ import org.broadleafcommerce.core.catalog.domain.CategoryXref;
 import org.broadleafcommerce.core.catalog.service.CatalogService;
 import org.broadleafcommerce.core.inventory.service.type.InventoryType;
 import org.springframework.hateoas.Link;
-import org.springframework.hateoas.mvc.ControllerLinkBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 import pl.touk.widerest.api.Converter;
@@ -20,6 +19,7 @@ import pl.touk.widerest.api.common.MediaConverter;
 import pl.touk.widerest.api.orders.fulfillments.FulfillmentOptionsMapConverter;
 import pl.touk.widerest.api.orders.fulfillments.FulfilmentServiceProxy;
 import pl.touk.widerest.hal.EmbeddedResource;
+import pl.touk.widerest.hal.LinkTemplate;
 
 import javax.annotation.Resource;
 import java.time.Instant;
@@ -28,19 +28,20 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
-import static pl.touk.widerest.api.common.CatalogUtils.shouldCategoryBeVisible;
 import static pl.touk.widerest.api.common.CatalogUtils.valueExtractor;
 
 @Component
 public class CategoryConverter implements Converter<Category, CategoryDto> {
 
+    private static final LinkTemplate CATEGORY_LINK = LinkTemplate.of(CategoryController.class, "readOneCategoryById");
+    private static final LinkTemplate PRODUCTS_LINK = LinkTemplate.of(CategoryController.class, "readProductsFromCategory");
+
     @Resource
     protected MediaConverter mediaConverter;
 
@@ -53,9 +54,35 @@ public class CategoryConverter implements Converter<Category, CategoryDto> {
     @Resource
     protected FulfillmentOptionsMapConverter fulfillmentOptionsMapConverter;
 
+    @Resource(name = "wdCategoryTreeService")
+    protected CategoryTreeService categoryTreeService;
+
     @Override
     public CategoryDto createDto(final Category entity, final boolean embed, final boolean link) {
+        return createDtos(Collections.singletonList(entity), embed, link).get(0);
+    }
 
+    /**
+     * Converts the given categories, taking their hierarchy from the {@link CategoryTree} snapshot.
+     * With {@code embed}, all the visible subcategories (at any depth) are loaded up front with a single query.
+     */
+    public List<CategoryDto> createDtos(final List<Category> entities, final boolean embed, final boolean link) {
+        final CategoryTree tree = categoryTreeService.getTree();
+        final boolean privileged = categoryTreeService.isPrivileged();
+
+        final Map<Long, Category> subcategories = embed
+                ? categoryTreeService.findCategoriesByIds(tree.getVisibleSubtreeIds(
+                        entities.stream().map(Category::getId).collect(toList()), privileged)).stream()
+                        .collect(toMap(Category::getId, Function.identity()))
+                : Collections.emptyMap();
+
+        return entities.stream()
+                .map(entity -> createDto(entity, embed, link, tree, privileged, subcategories))
+                .collect(toList());
+    }
+
+    private CategoryDto createDto(final Category entity, final boolean embed, final boolean link,
+                                  final CategoryTree tree, final boolean privileged, final Map<Long, Category> subcategories) {
         final CategoryDto dto = CategoryDto.builder()
                 .name(entity.getName())
                 .description(entity.getDescription())
@@ -77,35 +104,34 @@ public class CategoryConverter implements Converter<Category, CategoryDto> {
                 .url(entity.getUrl())
                 .build();
 
-        dto.add(ControllerLinkBuilder.linkTo(methodOn(CategoryController.class).readOneCategoryById(null, entity.getId(), null, null)).withSelfRel());
+        dto.add(CATEGORY_LINK.withSelfRel(entity.getId()));
 
         if (link) {
 
-            dto.add(linkTo(methodOn(CategoryController.class).readProductsFromCategory(entity.getId(), null, null)).withRel("products"));
+            dto.add(PRODUCTS_LINK.withRel("products", entity.getId()));
 
-            final List<Link> subcategoriesLinks = Optional.ofNullable(entity.getAllChildCategoryXrefs())
-                    .orElse(Collections.emptyList()).stream()
-                    .map(CategoryXref::getSubCategory)
-                    .map(x -> linkTo(methodOn(CategoryController.class).readOneCategoryById(null, x.getId(), null, null)).withRel("subcategories"))
+            final List<Link> subcategoriesLinks = tree.getNode(entity.getId())
+                    .map(CategoryTree.Node::getChildIds)
+                    .orElseGet(() -> relatedIds(entity.getAllChildCategoryXrefs(), CategoryXref::getSubCategory)).stream()
+                    .map(id -> CATEGORY_LINK.withRel("subcategories", id))
                     .collect(toList());
 
             dto.add(subcategoriesLinks);
 
-            final List<Link> parentCategoriesLinks = Optional.ofNullable(entity.getAllParentCategoryXrefs())
-                    .orElse(Collections.emptyList()).stream()
-                    .map(CategoryXref::getCategory)
-                    .map(x -> linkTo(methodOn(CategoryController.class).readOneCategoryById(null, x.getId(), null, null)).withRel("parentcategories"))
+            final List<Link> parentCategoriesLinks = tree.getNode(entity.getId())
+                    .map(CategoryTree.Node::getParentIds)
+                    .orElseGet(() -> relatedIds(entity.getAllParentCategoryXrefs(), CategoryXref::getCategory)).stream()
+                    .map(id -> CATEGORY_LINK.withRel("parentcategories", id))
                     .collect(toList());
 
             dto.add(parentCategoriesLinks);
         }
 
         if (embed) {
-            final List<CategoryDto> subcategoryDtos = Optional.ofNullable(entity.getAllChildCategoryXrefs())
-                    .orElse(Collections.emptyList()).stream()
-                    .map(CategoryXref::getSubCategory)
-                    .filter(shouldCategoryBeVisible)
-                    .map(subcategory -> createDto(subcategory, true, link))
+            final List<CategoryDto> subcategoryDtos = tree.getVisibleChildIds(entity.getId(), privileged).stream()
+                    .map(subcategories::get)
+                    .filter(Objects::nonNull)
+                    .map(subcategory -> createDto(subcategory, true, link, tree, privileged, subcategories))
                     .collect(toList());
 
             if (!CollectionUtils.isEmpty(subcategoryDtos)) {
@@ -190,6 +216,13 @@ public class CategoryConverter implements Converter<Category, CategoryDto> {
         return categoryEntity;
     }
 
+    private static List<Long> relatedIds(final List<CategoryXref> xrefs, final Function<CategoryXref, Category> related) {
+        return Optional.ofNullable(xrefs).orElse(Collections.emptyList()).stream()
+                .map(related)
+                .map(Category::getId)
+                .collect(toList());
+    }
+
     private Function<Map<String, CategoryAttribute>, Map<String, String>> toCategoryAttributesMapDto = categoryAttributesMap ->
             categoryAttributesMap.entrySet().stream().collect(toMap(Map.Entry::getKey, e -> e.getValue().toString()));
 
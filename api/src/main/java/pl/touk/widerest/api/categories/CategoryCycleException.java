@@ -0,0 +1,20 @@
+package pl.touk.widerest.api.categories;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.CONFLICT)
+public class CategoryCycleException extends RuntimeException {
+
+    public CategoryCycleException() {
+
+    }
+
+    public CategoryCycleException(String message) {
+        super(message);
+    }
+
+    public CategoryCycleException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
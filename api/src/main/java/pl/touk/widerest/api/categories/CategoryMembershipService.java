@@ -0,0 +1,243 @@
+package pl.touk.widerest.api.categories;
+
+import com.google.common.collect.Lists;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.broadleafcommerce.core.catalog.domain.CategoryProductXref;
+import org.broadleafcommerce.core.catalog.domain.CategoryProductXrefImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pl.touk.widerest.api.catalog.CatalogChangePublisher;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.categories.CategoryProductChangeResultDto.Operation;
+import pl.touk.widerest.api.categories.CategoryProductChangeResultDto.Status;
+import pl.touk.widerest.api.common.CatalogUtils;
+
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Adds products to and removes them from a category in bulk.
+ *
+ * Instead of loading and re-saving the whole category for every product, the current memberships of all the
+ * products involved are read with a few set-based queries and only the affected relations are inserted or deleted.
+ * As the relations are changed behind the back of their owning collections, those collections are evicted
+ * from the second-level cache.
+ */
+@Service("wdCategoryMembershipService")
+public class CategoryMembershipService {
+
+    /* Keeps IN (...) lists well below the limits of the databases we run on */
+    private static final int CHUNK_SIZE = 500;
+
+    private static final String CATEGORY_PRODUCTS_ROLE = CategoryImpl.class.getName() + ".allProductXrefs";
+
+    private static final String PRODUCT_CATEGORIES_ROLE = ProductImpl.class.getName() + ".allParentCategoryXrefs";
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource
+    protected CatalogChangePublisher catalogChangePublisher;
+
+    /**
+     * Applies the removals and then the additions, in the order given. Has to be called in a transaction.
+     * A product removed and added back by the same change keeps its relation untouched.
+     *
+     * @return the outcome of every item of the change, removals first
+     */
+    public List<CategoryProductChangeResultDto> applyChange(final long categoryId, final CategoryProductsChangeDto change) {
+        final List<String> hrefsToAdd = Optional.ofNullable(change.getAdd()).orElse(Collections.emptyList());
+        final List<String> hrefsToRemove = Optional.ofNullable(change.getRemove()).orElse(Collections.emptyList());
+
+        final List<Optional<Long>> idsToAdd = hrefsToAdd.stream().map(CategoryMembershipService::parseId).collect(toList());
+        final List<Optional<Long>> idsToRemove = hrefsToRemove.stream().map(CategoryMembershipService::parseId).collect(toList());
+
+        final Set<Long> requestedIds = new HashSet<>();
+        idsToAdd.forEach(id -> id.ifPresent(requestedIds::add));
+        idsToRemove.forEach(id -> id.ifPresent(requestedIds::add));
+
+        final Set<Long> memberIds = findMemberIds(categoryId, requestedIds);
+        final Set<Long> addableIds = findVisibleProductIds(idsToAdd);
+
+        final List<CategoryProductChangeResultDto> results = new ArrayList<>(hrefsToAdd.size() + hrefsToRemove.size());
+        final Set<Long> removedIds = new LinkedHashSet<>();
+        final Set<Long> addedIds = new LinkedHashSet<>();
+
+        for (int i = 0; i < hrefsToRemove.size(); i++) {
+            final Status status = idsToRemove.get(i)
+                    .map(id -> {
+                        if (!memberIds.remove(id)) {
+                            return Status.NOT_PRESENT;
+                        }
+                        removedIds.add(id);
+                        return Status.REMOVED;
+                    })
+                    .orElse(Status.INVALID_HREF);
+            results.add(new CategoryProductChangeResultDto(hrefsToRemove.get(i), Operation.REMOVE, status));
+        }
+
+        for (int i = 0; i < hrefsToAdd.size(); i++) {
+            final Status status = idsToAdd.get(i)
+                    .map(id -> {
+                        if (!addableIds.contains(id)) {
+                            return Status.NOT_FOUND;
+                        } else if (!memberIds.add(id)) {
+                            return Status.ALREADY_PRESENT;
+                        } else if (!removedIds.remove(id)) {
+                            addedIds.add(id);
+                        }
+                        return Status.ADDED;
+                    })
+                    .orElse(Status.INVALID_HREF);
+            results.add(new CategoryProductChangeResultDto(hrefsToAdd.get(i), Operation.ADD, status));
+        }
+
+        deleteRelations(categoryId, removedIds);
+        insertRelations(categoryId, addedIds);
+
+        if (!removedIds.isEmpty() || !addedIds.isEmpty()) {
+            final List<Long> changedIds = new ArrayList<>(removedIds);
+            changedIds.addAll(addedIds);
+            evictRelations(categoryId, changedIds);
+            catalogChangePublisher.categoriesChanged(categoryId);
+            catalogChangePublisher.productsChanged(changedIds.toArray(new Long[changedIds.size()]));
+        }
+
+        return results;
+    }
+
+    private Set<Long> findMemberIds(final long categoryId, final Collection<Long> productIds) {
+        final Set<Long> memberIds = new HashSet<>();
+
+        for (List<Long> chunk : Lists.partition(new ArrayList<>(productIds), CHUNK_SIZE)) {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+            final Root<CategoryProductXrefImpl> xref = criteria.from(CategoryProductXrefImpl.class);
+            criteria.select(xref.get("product").<Long>get("id"));
+            criteria.where(
+                    builder.equal(xref.get("category").get("id"), categoryId),
+                    xref.get("product").get("id").in(chunk)
+            );
+            memberIds.addAll(em.createQuery(criteria).getResultList());
+        }
+
+        return memberIds;
+    }
+
+    private Set<Long> findVisibleProductIds(final List<Optional<Long>> ids) {
+        final List<Long> productIds = new ArrayList<>();
+        ids.forEach(id -> id.ifPresent(productIds::add));
+
+        final boolean privileged = CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_PRODUCT).test(null);
+        final Set<Long> visibleIds = new HashSet<>();
+
+        for (List<Long> chunk : Lists.partition(productIds, CHUNK_SIZE)) {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+            final Root<ProductImpl> product = criteria.from(ProductImpl.class);
+            criteria.select(product.<Long>get("id"));
+            criteria.where(
+                    product.get("id").in(chunk),
+                    CatalogPredicates.isProductVisible(builder, product, privileged)
+            );
+            visibleIds.addAll(em.createQuery(criteria).getResultList());
+        }
+
+        return visibleIds;
+    }
+
+    private void deleteRelations(final long categoryId, final Collection<Long> productIds) {
+        for (List<Long> chunk : Lists.partition(new ArrayList<>(productIds), CHUNK_SIZE)) {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<CategoryProductXrefImpl> criteria = builder.createQuery(CategoryProductXrefImpl.class);
+            final Root<CategoryProductXrefImpl> xref = criteria.from(CategoryProductXrefImpl.class);
+            criteria.where(
+                    builder.equal(xref.get("category").get("id"), categoryId),
+                    xref.get("product").get("id").in(chunk)
+            );
+            em.createQuery(criteria).getResultList().forEach(em::remove);
+        }
+        em.flush();
+    }
+
+    /* New relations go to the end of the category, in the order they were given */
+    private void insertRelations(final long categoryId, final Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<BigDecimal> criteria = builder.createQuery(BigDecimal.class);
+        final Root<CategoryProductXrefImpl> xref = criteria.from(CategoryProductXrefImpl.class);
+        criteria.select(builder.max(xref.<BigDecimal>get("displayOrder")));
+        criteria.where(builder.equal(xref.get("category").get("id"), categoryId));
+
+        BigDecimal displayOrder = Optional.ofNullable(em.createQuery(criteria).getSingleResult()).orElse(BigDecimal.ZERO);
+
+        for (List<Long> chunk : Lists.partition(new ArrayList<>(productIds), CHUNK_SIZE)) {
+            final CategoryImpl category = em.getReference(CategoryImpl.class, categoryId);
+
+            for (Long productId : chunk) {
+                displayOrder = displayOrder.add(BigDecimal.ONE);
+
+                final CategoryProductXref relation = new CategoryProductXrefImpl();
+                relation.setCategory(category);
+                relation.setProduct(em.getReference(ProductImpl.class, productId));
+                relation.setDisplayOrder(displayOrder);
+                em.persist(relation);
+            }
+
+            em.flush();
+        }
+    }
+
+    /**
+     * Evicts the cached collections right away and once more when the transaction completes,
+     * so that a collection cached by a concurrent read in the meantime does not outlive the change.
+     */
+    private void evictRelations(final long categoryId, final Collection<Long> productIds) {
+        final Cache cache = em.unwrap(Session.class).getSessionFactory().getCache();
+        final Runnable eviction = () -> {
+            cache.evictCollection(CATEGORY_PRODUCTS_ROLE, categoryId);
+            productIds.forEach(productId -> cache.evictCollection(PRODUCT_CATEGORIES_ROLE, productId));
+        };
+
+        eviction.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(final int status) {
+                    eviction.run();
+                }
+            });
+        }
+    }
+
+    private static Optional<Long> parseId(final String href) {
+        try {
+            return Optional.of(CatalogUtils.getIdFromUrl(href));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+}
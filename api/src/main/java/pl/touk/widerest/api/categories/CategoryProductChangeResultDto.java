@@ -0,0 +1,34 @@
+package pl.touk.widerest.api.categories;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Category Product Change Result", description = "Outcome of adding or removing a single product within a category products change")
+public class CategoryProductChangeResultDto {
+
+    @ApiModelProperty(position = 0, value = "Link to the product, as given in the change", dataType = "java.lang.String")
+    private String href;
+
+    @ApiModelProperty(position = 1, value = "Requested operation", allowableValues = "ADD, REMOVE")
+    private Operation operation;
+
+    @ApiModelProperty(position = 2, value = "Outcome of the operation",
+            allowableValues = "ADDED, ALREADY_PRESENT, REMOVED, NOT_PRESENT, NOT_FOUND, INVALID_HREF")
+    private Status status;
+
+    public enum Operation {
+        ADD, REMOVE
+    }
+
+    public enum Status {
+        ADDED, ALREADY_PRESENT, REMOVED, NOT_PRESENT, NOT_FOUND, INVALID_HREF
+    }
+}
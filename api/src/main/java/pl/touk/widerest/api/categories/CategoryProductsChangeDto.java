@@ -0,0 +1,24 @@
+package pl.touk.widerest.api.categories;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Category Products Change", description = "Products to be added to and removed from a category at once")
+public class CategoryProductsChangeDto {
+
+    @ApiModelProperty(position = 0, value = "Links to the products to be added to the category")
+    private List<String> add;
+
+    @ApiModelProperty(position = 1, value = "Links to the products to be removed from the category")
+    private List<String> remove;
+}
@@ -0,0 +1,185 @@
+package pl.touk.widerest.api.categories;
+
+import lombok.Getter;
+import org.broadleafcommerce.common.util.DateUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Immutable snapshot of the category hierarchy: every category with its parents, children (in display order),
+ * depth and materialized ancestor path.
+ *
+ * Activity depends on the current time, so nodes keep their activity window and visibility is evaluated on read.
+ * Categories may have several parents; depth and path follow the first one (lowest display order).
+ */
+public class CategoryTree {
+
+    private final Map<Long, Node> nodes;
+
+    @Getter
+    private final List<Long> rootIds;
+
+    private CategoryTree(final Map<Long, Node> nodes, final List<Long> rootIds) {
+        this.nodes = nodes;
+        this.rootIds = rootIds;
+    }
+
+    public Optional<Node> getNode(final long categoryId) {
+        return Optional.ofNullable(nodes.get(categoryId));
+    }
+
+    public List<Long> getVisibleRootIds(final boolean privileged) {
+        return rootIds.stream()
+                .filter(rootId -> nodes.get(rootId).isVisible(privileged))
+                .collect(toList());
+    }
+
+    public List<Long> getVisibleChildIds(final long categoryId, final boolean privileged) {
+        return getNode(categoryId).map(Node::getChildIds).orElse(Collections.emptyList()).stream()
+                .filter(childId -> nodes.get(childId).isVisible(privileged))
+                .collect(toList());
+    }
+
+    /**
+     * Ids of the given categories and all their descendants reachable through visible categories only.
+     */
+    public List<Long> getVisibleSubtreeIds(final List<Long> categoryIds, final boolean privileged) {
+        final Set<Long> visited = new LinkedHashSet<>();
+        final Deque<Long> toVisit = new ArrayDeque<>(categoryIds);
+
+        while (!toVisit.isEmpty()) {
+            final Long categoryId = toVisit.poll();
+            if (visited.add(categoryId)) {
+                toVisit.addAll(getVisibleChildIds(categoryId, privileged));
+            }
+        }
+
+        return new ArrayList<>(visited);
+    }
+
+    public List<Long> getIds() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    public List<Long> getVisibleIds(final boolean privileged) {
+        return nodes.values().stream()
+                .filter(node -> node.isVisible(privileged))
+                .map(Node::getId)
+                .collect(toList());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Getter
+    public static class Node {
+        private final long id;
+        private final Date activeStartDate;
+        private final Date activeEndDate;
+        private final boolean archived;
+        private final List<Long> parentIds;
+        private final List<Long> childIds;
+        /** Ids from the root down to this category, inclusive */
+        private final List<Long> path;
+
+        private Node(final long id, final Date activeStartDate, final Date activeEndDate, final boolean archived,
+                     final List<Long> parentIds, final List<Long> childIds, final List<Long> path) {
+            this.id = id;
+            this.activeStartDate = activeStartDate;
+            this.activeEndDate = activeEndDate;
+            this.archived = archived;
+            this.parentIds = parentIds;
+            this.childIds = childIds;
+            this.path = path;
+        }
+
+        public int getDepth() {
+            return path.size() - 1;
+        }
+
+        /** Same as {@link org.broadleafcommerce.core.catalog.domain.Category#isActive()} */
+        public boolean isActive() {
+            return !archived && DateUtil.isActive(activeStartDate, activeEndDate, true);
+        }
+
+        /** Same as {@link pl.touk.widerest.api.common.CatalogUtils#shouldCategoryBeVisible} */
+        public boolean isVisible(final boolean privileged) {
+            return isActive() || (privileged && !archived);
+        }
+    }
+
+    public static class Builder {
+        private final Map<Long, Node> categories = new LinkedHashMap<>();
+        private final Map<Long, List<Long>> parents = new HashMap<>();
+        private final Map<Long, List<Long>> children = new HashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder category(final long id, final Date activeStartDate, final Date activeEndDate, final boolean archived) {
+            categories.put(id, new Node(id, activeStartDate, activeEndDate, archived, null, null, null));
+            return this;
+        }
+
+        /** Relations have to be added in display order */
+        public Builder relation(final long parentId, final long childId) {
+            children.computeIfAbsent(parentId, id -> new ArrayList<>()).add(childId);
+            parents.computeIfAbsent(childId, id -> new ArrayList<>()).add(parentId);
+            return this;
+        }
+
+        public CategoryTree build() {
+            final Map<Long, Node> nodes = new LinkedHashMap<>();
+            categories.values().forEach(category -> nodes.put(category.getId(), new Node(
+                    category.getId(),
+                    category.getActiveStartDate(),
+                    category.getActiveEndDate(),
+                    category.isArchived(),
+                    knownOnly(parents.get(category.getId())),
+                    knownOnly(children.get(category.getId())),
+                    path(category.getId())
+            )));
+
+            final List<Long> rootIds = nodes.values().stream()
+                    .filter(node -> node.getParentIds().isEmpty())
+                    .map(Node::getId)
+                    .collect(toList());
+
+            return new CategoryTree(Collections.unmodifiableMap(nodes), Collections.unmodifiableList(rootIds));
+        }
+
+        private List<Long> knownOnly(final List<Long> categoryIds) {
+            return Collections.unmodifiableList(Optional.ofNullable(categoryIds).orElse(Collections.emptyList()).stream()
+                    .filter(categories::containsKey)
+                    .collect(toList()));
+        }
+
+        private List<Long> path(final long categoryId) {
+            final LinkedList<Long> path = new LinkedList<>();
+            Optional<Long> current = Optional.of(categoryId);
+
+            /* Stops at a root, or where the first parents form a cycle */
+            while (current.isPresent() && !path.contains(current.get())) {
+                path.addFirst(current.get());
+                current = knownOnly(parents.get(current.get())).stream().findFirst();
+            }
+
+            return Collections.unmodifiableList(new ArrayList<>(path));
+        }
+    }
+}
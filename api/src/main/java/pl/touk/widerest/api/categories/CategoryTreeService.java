@@ -0,0 +1,193 @@
+package pl.touk.widerest.api.categories;
+
+import lombok.extern.slf4j.Slf4j;
+import org.broadleafcommerce.core.catalog.domain.Category;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.broadleafcommerce.core.catalog.domain.CategoryXrefImpl;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.catalog.CatalogChangeEvent;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.common.CatalogUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Serves the category hierarchy from an in-memory {@link CategoryTree} snapshot.
+ *
+ * The snapshot is built at startup with two queries (categories and their relations) and replaced as a whole.
+ * Reads never build it: a category write made through the API rebuilds it once committed, in the writing thread,
+ * and reads keep getting the previous snapshot until the new one is complete. A rebuild that fails is retried
+ * in the background every {@code widerest.categories.tree.update-interval} milliseconds.
+ */
+@Slf4j
+@Service("wdCategoryTreeService")
+public class CategoryTreeService implements ApplicationListener<CatalogChangeEvent>, SmartInitializingSingleton {
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(-1, CategoryTree.builder().build()));
+
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        /* Rebuilds also run after the commit of a write, whose transaction is still bound to the thread */
+        readOnlyTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        refresh();
+    }
+
+    public CategoryTree getTree() {
+        return snapshot.get().tree;
+    }
+
+    /**
+     * Builds a new tree in the current transaction, for callers that have to see the relations
+     * as they are rather than as of the last snapshot.
+     */
+    public CategoryTree loadTree() {
+        return load();
+    }
+
+    public boolean isPrivileged() {
+        return CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_CATEGORY).test(null);
+    }
+
+    /**
+     * Loads the given categories with a single query, in the order of the ids.
+     */
+    public List<Category> findCategoriesByIds(final Collection<Long> categoryIds) {
+        if (categoryIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Category> criteria = builder.createQuery(Category.class);
+        final Root<CategoryImpl> category = criteria.from(CategoryImpl.class);
+        criteria.select(category);
+        criteria.where(category.get("id").in(categoryIds));
+
+        final Map<Long, Category> categories = em.createQuery(criteria).getResultList().stream()
+                .collect(toMap(Category::getId, Function.identity()));
+
+        return categoryIds.stream()
+                .map(categories::get)
+                .filter(Objects::nonNull)
+                .collect(toList());
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        if (event.getEntityType() == CatalogChangeEvent.EntityType.CATEGORY) {
+            generation.incrementAndGet();
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                /* The write has been committed anyway; the snapshot gets rebuilt by the next scheduled refresh */
+                log.warn("Could not rebuild the category tree", e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot if any category write has been committed since the current one was built.
+     */
+    @Scheduled(
+            initialDelayString = "${widerest.categories.tree.update-interval:1000}",
+            fixedDelayString = "${widerest.categories.tree.update-interval:1000}"
+    )
+    public synchronized void refresh() {
+        final long buildGeneration = generation.get();
+
+        if (snapshot.get().generation == buildGeneration) {
+            return;
+        }
+
+        final CategoryTree tree = readOnlyTransaction.execute(status -> load());
+
+        /* A write committed while loading leaves the snapshot stale, to be rebuilt after that write */
+        snapshot.set(new Snapshot(buildGeneration, tree));
+    }
+
+    private CategoryTree load() {
+        final CategoryTree.Builder treeBuilder = CategoryTree.builder();
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+
+        final CriteriaQuery<Tuple> categoriesCriteria = builder.createTupleQuery();
+        final Root<CategoryImpl> category = categoriesCriteria.from(CategoryImpl.class);
+        categoriesCriteria.multiselect(
+                category.get("id"),
+                category.get("activeStartDate"),
+                category.get("activeEndDate"),
+                category.get("archiveStatus").get("archived")
+        );
+        categoriesCriteria.orderBy(builder.asc(category.get("id")));
+
+        em.createQuery(categoriesCriteria).getResultList()
+                .forEach(row -> treeBuilder.category(
+                        row.get(0, Long.class),
+                        row.get(1, Date.class),
+                        row.get(2, Date.class),
+                        Objects.equals(row.get(3), 'Y')
+                ));
+
+        final CriteriaQuery<Tuple> relationsCriteria = builder.createTupleQuery();
+        final Root<CategoryXrefImpl> xref = relationsCriteria.from(CategoryXrefImpl.class);
+        relationsCriteria.multiselect(
+                xref.get("category").get("id"),
+                xref.get("subCategory").get("id")
+        );
+        relationsCriteria.orderBy(builder.asc(xref.get("displayOrder")), builder.asc(xref.get("id")));
+
+        em.createQuery(relationsCriteria).getResultList()
+                .forEach(row -> treeBuilder.relation(row.get(0, Long.class), row.get(1, Long.class)));
+
+        return treeBuilder.build();
+    }
+
+    private static class Snapshot {
+        private final long generation;
+        private final CategoryTree tree;
+
+        private Snapshot(final long generation, final CategoryTree tree) {
+            this.generation = generation;
+            this.tree = tree;
+        }
+    }
+}
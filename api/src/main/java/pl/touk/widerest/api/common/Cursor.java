@@ -0,0 +1,69 @@
+package pl.touk.widerest.api.common;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Opaque keyset pagination token. Carries the id of the last returned entity and, optionally,
+ * the value of the secondary sort key it was ordered by, so the next page can be fetched with
+ * a seek ({@code WHERE (key, id) > (?, ?)}) instead of an ever growing offset.
+ */
+@Getter
+@EqualsAndHashCode
+public class Cursor {
+
+    private static final char SEPARATOR = ':';
+
+    private final long id;
+
+    private final String key;
+
+    private Cursor(final long id, final String key) {
+        this.id = id;
+        this.key = key;
+    }
+
+    public static Cursor of(final long id) {
+        return new Cursor(id, null);
+    }
+
+    public static Cursor of(final long id, final String key) {
+        return new Cursor(id, key);
+    }
+
+    public Optional<String> getKey() {
+        return Optional.ofNullable(key);
+    }
+
+    public String encode() {
+        final String plain = key != null ? id + String.valueOf(SEPARATOR) + key : String.valueOf(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Optional<Cursor> decode(final String token) {
+        if (StringUtils.isBlank(token)) {
+            return Optional.empty();
+        }
+
+        try {
+            final String plain = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            final int separatorIndex = plain.indexOf(SEPARATOR);
+
+            return Optional.of(separatorIndex < 0
+                    ? new Cursor(Long.parseLong(plain), null)
+                    : new Cursor(Long.parseLong(plain.substring(0, separatorIndex)), plain.substring(separatorIndex + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Invalid cursor: " + token, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
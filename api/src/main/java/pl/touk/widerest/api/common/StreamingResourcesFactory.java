@@ -0,0 +1,77 @@
+package pl.touk.widerest.api.common;
+
+import com.google.common.collect.Lists;
+import org.springframework.hateoas.Link;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.products.skus.InventoryResolver;
+import pl.touk.widerest.hal.StreamingResources;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Builds {@link StreamingResources} which load and convert entities chunk by chunk while the response is being written.
+ *
+ * Controllers only work out the ids to return (and the links). Entities are read in a read-only transaction
+ * during serialization, in chunks of {@value #CHUNK_SIZE}. The persistence context and the resolved inventory
+ * are cleared after each chunk, so neither the entities (along with everything loaded for their conversion)
+ * nor the DTOs of the whole collection are ever held at once.
+ */
+@Component
+public class StreamingResourcesFactory {
+
+    private static final int CHUNK_SIZE = 50;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource
+    protected InventoryResolver inventoryResolver;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * @param loader    reads the entities with given ids, preserving their order
+     * @param converter converts (and possibly filters out) a chunk of loaded entities
+     */
+    public <E, D> StreamingResources<D> create(final List<Long> ids,
+                                               final Function<List<Long>, List<E>> loader,
+                                               final Function<List<E>, List<D>> converter,
+                                               final Iterable<Link> links) {
+        return new StreamingResources<>(
+                sink -> readOnlyTransaction.execute(status -> {
+                    for (List<Long> chunk : Lists.partition(ids, CHUNK_SIZE)) {
+                        final List<E> entities = loader.apply(chunk);
+                        converter.apply(entities).forEach(sink);
+                        em.clear();
+                        inventoryResolver.forget();
+                    }
+                    return null;
+                }),
+                links
+        );
+    }
+
+    public <E, D> StreamingResources<D> create(final List<Long> ids,
+                                               final Function<List<Long>, List<E>> loader,
+                                               final Function<List<E>, List<D>> converter,
+                                               final Link... links) {
+        return create(ids, loader, converter, Arrays.asList(links));
+    }
+}
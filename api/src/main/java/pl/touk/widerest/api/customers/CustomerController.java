@@ -19,7 +19,6 @@ import org.broadleafcommerce.profile.core.service.CustomerService;
 import org.broadleafcommerce.profile.core.service.CustomerUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.hateoas.MediaTypes;
-import org.springframework.hateoas.Resources;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -40,7 +39,9 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import pl.touk.widerest.api.common.ResourceNotFoundException;
+import pl.touk.widerest.api.common.StreamingResourcesFactory;
 import pl.touk.widerest.api.products.ProductDto;
+import pl.touk.widerest.hal.StreamingResources;
 import pl.touk.widerest.security.authentication.AnonymousUserDetailsService;
 import pl.touk.widerest.security.authentication.SiteAuthenticationToken;
 import pl.touk.widerest.security.oauth2.ResourceServerConfig;
@@ -59,7 +60,6 @@ import java.util.stream.Collectors;
 
 import static com.jasongoodwin.monads.Try.ofFailable;
 import static java.lang.Long.parseLong;
-import static java.util.Collections.emptyList;
 import static java.util.Objects.isNull;
 import static java.util.Optional.ofNullable;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
@@ -98,6 +98,9 @@ public class CustomerController {
     @Resource
     private CustomerConverter customerConverter;
 
+    @Resource
+    private StreamingResourcesFactory streamingResourcesFactory;
+
 
     @Transactional
     @PreAuthorize("hasRole('PERMISSION_ALL_CUSTOMER')")
@@ -112,25 +115,23 @@ public class CustomerController {
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of customers list", response = CustomerDto.class, responseContainer = "List")
     })
-    public Resources<CustomerDto> readAllCustomers(
+    public StreamingResources<CustomerDto> readAllCustomers(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
             @RequestParam(value = "link", defaultValue = "true") Boolean link
     ) {
-        final List<CustomerDto> allCustomers = Match.of(userDetails)
-                .whenType(AdminUserDetails.class).then(() -> customerServiceProxy.getAllCustomers().stream()
-                        .map(customer -> customerConverter.createDto(customer, embed, link))
-                        .collect(Collectors.toList()))
-                .whenType(CustomerUserDetails.class).then(() -> Optional.ofNullable(customerServiceProxy.getCustomerById(((CustomerUserDetails) userDetails).getId()))
-                        //.map(id -> customerEntityToDto.apply(id))
-                        .map(id -> customerConverter.createDto(id, embed, link))
-                        .map(Collections::singletonList)
-                        .orElse(emptyList()))
+        final List<Long> customerIds = Match.of(userDetails)
+                .whenType(AdminUserDetails.class).then(() -> customerServiceProxy.getAllCustomerIds())
+                .whenType(CustomerUserDetails.class).then(() -> Collections.singletonList(((CustomerUserDetails) userDetails).getId()))
                 .otherwise(Collections::emptyList)
                 .get();
 
-        return new Resources<>(
-                allCustomers,
+        return streamingResourcesFactory.create(
+                customerIds,
+                customerServiceProxy::getCustomersByIds,
+                customers -> customers.stream()
+                        .map(customer -> customerConverter.createDto(customer, embed, link))
+                        .collect(Collectors.toList()),
                 linkTo(methodOn(getClass()).readAllCustomers(null, null, null)).withSelfRel()
         );
     }
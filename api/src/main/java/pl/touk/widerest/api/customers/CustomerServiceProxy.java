@@ -11,7 +11,12 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service("wdCustomerService")
 public class CustomerServiceProxy {
@@ -31,6 +36,38 @@ public class CustomerServiceProxy {
         return query.getResultList();
     }
 
+    @PostAuthorize("hasRole('PERMISSION_ALL_CUSTOMER')")
+    public List<Long> getAllCustomerIds() {
+        final CriteriaBuilder builder = this.em.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+        final Root<CustomerImpl> customer = criteria.from(CustomerImpl.class);
+        criteria.select(customer.<Long>get("id"));
+        criteria.orderBy(builder.asc(customer.get("id")));
+        return this.em.createQuery(criteria).getResultList();
+    }
+
+    /**
+     * Reads customers with given ids, in the order of the ids. Missing ones are skipped.
+     */
+    public List<Customer> getCustomersByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final CriteriaBuilder builder = this.em.getCriteriaBuilder();
+        final CriteriaQuery<Customer> criteria = builder.createQuery(Customer.class);
+        final Root<CustomerImpl> customer = criteria.from(CustomerImpl.class);
+        criteria.select(customer).where(customer.get("id").in(ids));
+
+        final Map<Long, Customer> customersById = this.em.createQuery(criteria).getResultList().stream()
+                .collect(Collectors.toMap(Customer::getId, Function.identity()));
+
+        return ids.stream()
+                .map(customersById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
     public Customer getCustomerById(Long id) {
         return this.em.find(CustomerImpl.class, id);
     }
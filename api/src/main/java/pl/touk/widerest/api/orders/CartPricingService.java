@@ -0,0 +1,60 @@
+package pl.touk.widerest.api.orders;
+
+import org.broadleafcommerce.core.order.domain.Order;
+import org.broadleafcommerce.core.order.domain.OrderAttribute;
+import org.broadleafcommerce.core.order.domain.OrderAttributeImpl;
+import org.broadleafcommerce.core.order.service.OrderService;
+import org.broadleafcommerce.core.pricing.service.exception.PricingException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+
+/**
+ * Decides when carts get repriced after their items change.
+ *
+ * By default every change reprices the cart right away. With {@code widerest.orders.deferred-pricing} enabled,
+ * changes only mark the cart as stale (with an order attribute, so that the mark outlives the request) and
+ * the cart is repriced once, by the next read that needs its totals.
+ */
+@Service("wdCartPricingService")
+public class CartPricingService {
+
+    public static final String PRICING_STALE_ATTRIBUTE_NAME = "pricing-stale";
+
+    @Resource(name = "blOrderService")
+    protected OrderService orderService;
+
+    @Value("${widerest.orders.deferred-pricing:false}")
+    protected boolean deferredPricing;
+
+    /**
+     * Saves a cart whose items have just changed, pricing it unless pricing is deferred.
+     */
+    public Order saveChanged(final Order cart) throws PricingException {
+        if (!deferredPricing) {
+            return orderService.save(cart, true);
+        }
+
+        if (!cart.getOrderAttributes().containsKey(PRICING_STALE_ATTRIBUTE_NAME)) {
+            final OrderAttribute staleAttribute = new OrderAttributeImpl();
+            staleAttribute.setName(PRICING_STALE_ATTRIBUTE_NAME);
+            staleAttribute.setValue(Boolean.TRUE.toString());
+            staleAttribute.setOrder(cart);
+            cart.getOrderAttributes().put(PRICING_STALE_ATTRIBUTE_NAME, staleAttribute);
+        }
+        return orderService.save(cart, false);
+    }
+
+    /**
+     * Reprices the cart if any of its changes has not been priced yet.
+     *
+     * @return the priced cart
+     */
+    public Order priced(final Order cart) throws PricingException {
+        if (cart == null || cart.getOrderAttributes().remove(PRICING_STALE_ATTRIBUTE_NAME) == null) {
+            return cart;
+        }
+        return orderService.save(cart, true);
+    }
+}
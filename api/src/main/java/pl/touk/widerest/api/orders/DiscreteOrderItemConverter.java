@@ -13,6 +13,7 @@ import pl.touk.widerest.api.orders.fulfillments.FulfillmentController;
 import pl.touk.widerest.api.orders.fulfillments.FulfillmentConverter;
 import pl.touk.widerest.api.products.ProductController;
 import pl.touk.widerest.hal.EmbeddedResource;
+import pl.touk.widerest.hal.LinkTemplate;
 
 import javax.annotation.Resource;
 import java.math.BigDecimal;
@@ -21,14 +22,16 @@ import java.util.Map;
 import java.util.Optional;
 
 import static java.util.stream.Collectors.toMap;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 
 @Component
 public class DiscreteOrderItemConverter implements Converter<DiscreteOrderItem, DiscreteOrderItemDto> {
 
     public static final String FULFILLMENT_REL = "fulfillment";
 
+    private static final LinkTemplate ITEM_LINK = LinkTemplate.of(OrderController.class, "getOneItemFromOrder");
+    private static final LinkTemplate FULFILLMENT_LINK = LinkTemplate.of(FulfillmentController.class, "getOrderFulfillmentById");
+    private static final LinkTemplate PRODUCT_LINK = LinkTemplate.of(ProductController.class, "readOneProductById");
+
     @Resource
     protected ObjectMapper objectMapper;
 
@@ -50,9 +53,7 @@ public class DiscreteOrderItemConverter implements Converter<DiscreteOrderItem,
                 .retailPrice(discreteOrderItem.getRetailPrice())
                 .quantity(discreteOrderItem.getQuantity())
                 .productName(discreteOrderItem.getName())
-                .productHref(linkTo(methodOn(ProductController.class)
-                        .readOneProductById(productId, null, null)).toUri().toASCIIString()
-                )
+                .productHref(PRODUCT_LINK.expand(productId))
                 .description(sku.getDescription())
                 .price(Optional.ofNullable(discreteOrderItem.getTotalPrice()).orElse(errCode).getAmount())
                 .attributes(
@@ -66,14 +67,14 @@ public class DiscreteOrderItemConverter implements Converter<DiscreteOrderItem,
                 )
                 .build();
 
-        orderItemDto.add(linkTo(methodOn(OrderController.class).getOneItemFromOrder(null, discreteOrderItem.getOrder().getId(), discreteOrderItem.getId(), null, null)).withSelfRel());
+        orderItemDto.add(ITEM_LINK.withSelfRel(discreteOrderItem.getOrder().getId(), discreteOrderItem.getId()));
 
         Optional<FulfillmentGroup> fullfillmentGroup = findFullfillmentGroup(discreteOrderItem);
 
         if (link) {
-            orderItemDto.add(linkTo(methodOn(ProductController.class).readOneProductById(productId, null, null)).withRel("product"));
+            orderItemDto.add(PRODUCT_LINK.withRel("product", productId));
             fullfillmentGroup.ifPresent(fulfillmentGroup -> {
-                orderItemDto.add(linkTo(methodOn(FulfillmentController.class).getOrderFulfillmentById(null, discreteOrderItem.getOrder().getId(), fulfillmentGroup.getId(), null, null)).withRel(FULFILLMENT_REL));
+                orderItemDto.add(FULFILLMENT_LINK.withRel(FULFILLMENT_REL, discreteOrderItem.getOrder().getId(), fulfillmentGroup.getId()));
             });
         }
 
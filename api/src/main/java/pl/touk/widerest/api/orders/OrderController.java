@@ -49,8 +49,11 @@ import org.broadleafcommerce.profile.core.service.CustomerService;
 import org.broadleafcommerce.profile.core.service.CustomerUserDetails;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -62,6 +65,7 @@ import org.springframework.security.web.bind.annotation.AuthenticationPrincipal;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -72,10 +76,12 @@ import org.springframework.web.util.UriComponentsBuilder;
 import pl.touk.widerest.api.RequestUtils;
 import pl.touk.widerest.api.common.AddressConverter;
 import pl.touk.widerest.api.common.CatalogUtils;
+import pl.touk.widerest.api.common.Cursor;
 import pl.touk.widerest.api.common.ResourceNotFoundException;
 import pl.touk.widerest.api.orders.fulfillments.FulfillmentConverter;
 import pl.touk.widerest.api.orders.fulfillments.FulfilmentServiceProxy;
 import pl.touk.widerest.api.orders.payments.PaymentDto;
+import pl.touk.widerest.hal.LinkTemplate;
 import pl.touk.widerest.security.authentication.AnonymousUserDetailsService;
 import pl.touk.widerest.security.oauth2.ResourceServerConfig;
 import springfox.documentation.annotations.ApiIgnore;
@@ -85,16 +91,21 @@ import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 
@@ -108,6 +119,10 @@ import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 @Slf4j
 public class OrderController {
 
+    private static final int MAX_ORDERS_PAGE_SIZE = 1000;
+
+    private static final LinkTemplate ITEM_LINK = LinkTemplate.of(OrderController.class, "getOneItemFromOrder");
+
     @Resource(name = "blOrderService")
     protected OrderService orderService;
 
@@ -131,6 +146,12 @@ public class OrderController {
     @Resource(name = "wdOrderValidationService")
     private OrderValidationService orderValidationService;
 
+    @Resource(name = "wdCartPricingService")
+    protected CartPricingService cartPricingService;
+
+    @Resource(name = "wdOrderETagService")
+    protected OrderETagService orderETagService;
+
     @Resource(name = "blPaymentGatewayConfigurationServiceProvider")
     private PaymentGatewayConfigurationServiceProvider paymentGatewayConfigurationServiceProvider;
 
@@ -178,26 +199,60 @@ public class OrderController {
     @RequestMapping(method = RequestMethod.GET)
     @ApiOperation(
             value = "List all orders",
-            notes = "Gets a list of all orders belonging to a currently authorized customer",
+            notes = "Gets a page of orders, newest first. Customers get their own orders only, back office users " +
+                    "may list all of them. Further pages are linked as 'next'",
             response = OrderDto.class,
             responseContainer = "List")
     @ApiResponses(value = {
-            @ApiResponse(code = 200, message = "Successful retrieval of orders list", responseContainer = "List")
+            @ApiResponse(code = 200, message = "Successful retrieval of orders list", responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid cursor")
     })
     public Resources<OrderDto> getOrders(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
-            @ApiParam(value = "Status to be used to filter orders")
             @RequestParam(value = "link", defaultValue = "true") Boolean link,
-            @RequestParam(value = "status", required = false) String status
-    ) {
+            @ApiParam(value = "Status to be used to filter orders")
+            @RequestParam(value = "status", required = false) String status,
+            @ApiParam(value = "Earliest creation date (ISO 8601) of the orders")
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @ApiParam(value = "Latest creation date (ISO 8601) of the orders")
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+            @ApiParam(value = "ID of the customer the orders belong to")
+            @RequestParam(value = "customerId", required = false) Long customerId,
+            @ApiParam(value = "Channel the orders have been created in")
+            @RequestParam(value = "channel", required = false) String channel,
+            @ApiParam(value = "Amount of orders to be returned (at most " + MAX_ORDERS_PAGE_SIZE + ")")
+            @RequestParam(value = "limit", defaultValue = "100") Integer limit,
+            @ApiParam(value = "Opaque cursor returned in the 'next' link of the previous page")
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) throws PricingException {
+        final int pageSize = Math.max(1, Math.min(limit, MAX_ORDERS_PAGE_SIZE));
+        final OrderFilter filter = OrderFilter.builder()
+                .status(status)
+                .createdFrom(from)
+                .createdTo(to)
+                .customerId(customerId)
+                .channel(channel)
+                .build();
+
+        final List<Order> orders = new ArrayList<>();
+        for (Order order : orderServiceProxy.findOrders(userDetails, filter, Cursor.decode(cursor), pageSize)) {
+            /* Listed totals must be as up to date as those of a single order */
+            orders.add(cartPricingService.priced(order));
+        }
+
+        final List<Link> links = new ArrayList<>();
+        links.add(linkTo(methodOn(getClass()).getOrders(null, null, status, from, to, customerId, channel, limit, cursor)).withSelfRel());
+
+        if (orders.size() == pageSize) {
+            final String nextCursor = Cursor.of(orders.get(orders.size() - 1).getId()).encode();
+            links.add(linkTo(methodOn(getClass()).getOrders(null, null, status, from, to, customerId, channel, limit, nextCursor)).withRel(Link.REL_NEXT));
+        }
 
         return new Resources<>(
-                orderServiceProxy.getOrdersByCustomer(userDetails).stream()
+                orders.stream()
                         .map(order -> orderConverter.createDto(order, false, link))
-                        .filter(x -> status == null || x.getStatus().equals(status))
                         .collect(toList()),
-
-                linkTo(methodOn(getClass()).getOrders(null, null, status)).withSelfRel()
+                links
         );
     }
 
@@ -213,15 +268,20 @@ public class OrderController {
             @ApiResponse(code = 200, message = "Successful retrieval of order details", response = OrderDto.class),
             @ApiResponse(code = 404, message = "The specified order does not exist")
     })
-    public OrderDto getOrderById(
+    public ResponseEntity<OrderDto> getOrderById(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @ApiParam(value = "ID of a specific order", required = true)
             @PathVariable(value = "id") Long orderId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
             @RequestParam(value = "link", defaultValue = "true") Boolean link
-    ) {
+    ) throws PricingException {
+
+        final Order order = cartPricingService.priced(
+                orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new));
 
-        return orderConverter.createDto(orderServiceProxy.getProperCart(userDetails, orderId).orElse(null), embed, link);
+        return ResponseEntity.ok()
+                .eTag(orderETagService.forOrder(order))
+                .body(orderConverter.createDto(order, embed, link));
         //return DtoConverters.orderEntityToDto.apply(orderServiceProxy.getProperCart(userDetails, orderId).orElse(null));
     }
 
@@ -252,7 +312,7 @@ public class OrderController {
         String channel = RequestUtils.getRequestChannel();
         if (StringUtils.isNotEmpty(channel)) {
             OrderAttribute channelAttribute = new OrderAttributeImpl();
-            channelAttribute.setName("channel");
+            channelAttribute.setName(OrderServiceProxy.CHANNEL_ATTRIBUTE_NAME);
             channelAttribute.setValue(channel);
             channelAttribute.setOrder(cart);
             cart.getOrderAttributes().put(channelAttribute.getName(), channelAttribute);
@@ -279,15 +339,21 @@ public class OrderController {
             response = Void.class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful removal of the specified order"),
-            @ApiResponse(code = 404, message = "The specified order does not exist")
+            @ApiResponse(code = 404, message = "The specified order does not exist"),
+            @ApiResponse(code = 412, message = "The order has been modified in the meantime")
     })
     public void deleteOrderForCustomer(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @ApiParam(value = "ID of a specific order", required = true)
-            @PathVariable(value = "orderId") Long orderId) {
+            @PathVariable(value = "orderId") Long orderId,
+            @ApiParam(value = "ETag of the order the modification is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+
+        final Order order = orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new);
+        orderETagService.checkIfMatch(order, ifMatch);
 
         //orderService.cancelOrder(orders.get(0));
-        orderService.deleteOrder(orderServiceProxy.getProperCart(userDetails, orderId).orElse(null));
+        orderService.deleteOrder(order);
     }
 
     /* POST /orders/{orderId}/items */
@@ -301,17 +367,20 @@ public class OrderController {
     @ApiResponses(value = {
             @ApiResponse(code = 201, message = "Specified product successfully added"),
             @ApiResponse(code = 404, message = "The specified order does not exist"),
-            @ApiResponse(code = 409, message = "Only one option: skuID or productBundleId can be selected at once")
-
+            @ApiResponse(code = 409, message = "Only one option: skuID or productBundleId can be selected at once"),
+            @ApiResponse(code = 412, message = "The order has been modified in the meantime")
     })
     public ResponseEntity<?> addProductToOrderByProductOptions(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @ApiParam(value = "ID of a specific order", required = true)
             @PathVariable(value = "orderId") Long orderId,
             @ApiParam(value = "Description of a new order item", required = true)
-            @RequestBody OrderItemDto orderItemDto) throws PricingException, AddToCartException {
+            @RequestBody OrderItemDto orderItemDto,
+            @ApiParam(value = "ETag of the order the modification is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws PricingException, AddToCartException {
 
         Order cart = orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new);
+        orderETagService.checkIfMatch(cart, ifMatch);
 
         long hrefProductId;
 
@@ -327,9 +396,8 @@ public class OrderController {
 
         final List<DiscreteOrderItem> currentDiscreteItems = cart.getDiscreteOrderItems();
 
-        orderService.addItem(cart.getId(), orderItemRequestDTO, true);
-        cart.calculateSubTotal();
-        cart = orderService.save(cart, false);
+        cart = orderService.addItem(cart.getId(), orderItemRequestDTO, false);
+        cart = cartPricingService.saveChanged(cart);
 
         // (mst) Figure out added item's ID
         DiscreteOrderItem addedDiscreteOrderItem = null;
@@ -355,12 +423,83 @@ public class OrderController {
                             .path("/{id}")
                             .buildAndExpand(addedDiscreteOrderItem.getId())
                             .toUri()
-            ).body(discreteOrderItemConverter.createDto(addedDiscreteOrderItem, false, true));
+            ).eTag(orderETagService.forOrder(cart)).body(discreteOrderItemConverter.createDto(addedDiscreteOrderItem, false, true));
         } else {
-            return ResponseEntity.ok().build();
+            return ResponseEntity.ok().eTag(orderETagService.forOrder(cart)).build();
         }
     }
 
+    /* POST /orders/{orderId}/items/batch */
+    @Transactional(rollbackFor = { PricingException.class, AddToCartException.class })
+    @PreAuthorize("hasAnyRole('PERMISSION_ALL_ORDER', 'ROLE_USER')")
+    @RequestMapping(value = "/{orderId}/items/batch", method = RequestMethod.POST)
+    @ApiOperation(
+            value = "Add several items",
+            notes = "Adds all the given items to the specified order and prices it once. Either all items are added or " +
+                    "none. Returns links to the added items, or to the items they have been merged into, in the order given",
+            response = ResponseEntity.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Specified products successfully added"),
+            @ApiResponse(code = 400, message = "No items given"),
+            @ApiResponse(code = 404, message = "The specified order does not exist"),
+            @ApiResponse(code = 412, message = "The order has been modified in the meantime")
+    })
+    public ResponseEntity<Resources<?>> addProductsToOrder(
+            @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
+            @ApiParam(value = "ID of a specific order", required = true)
+            @PathVariable(value = "orderId") Long orderId,
+            @ApiParam(value = "Descriptions of the new order items", required = true)
+            @RequestBody List<OrderItemDto> orderItemDtos,
+            @ApiParam(value = "ETag of the order the modification is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws PricingException, AddToCartException {
+
+        if (orderItemDtos.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        Order cart = orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new);
+        orderETagService.checkIfMatch(cart, ifMatch);
+
+        final List<Long> addedItemIds = new ArrayList<>();
+
+        for (OrderItemDto orderItemDto : orderItemDtos) {
+            final OrderItemRequestDTO orderItemRequestDTO = new OrderItemRequestDTO();
+            orderItemRequestDTO.setQuantity(orderItemDto.getQuantity());
+            orderItemRequestDTO.setProductId(CatalogUtils.getIdFromUrl(orderItemDto.getProductHref()));
+
+            if (orderItemDto.getSelectedOptions() != null) {
+                orderItemRequestDTO.getItemAttributes().putAll(removeNullValues(orderItemDto.getSelectedOptions()));
+            }
+
+            final Set<Long> itemIdsBefore = cart.getDiscreteOrderItems().stream()
+                    .map(DiscreteOrderItem::getId)
+                    .collect(toSet());
+
+            /* Pricing is left to the single save below, or deferred */
+            cart = orderService.addItem(cart.getId(), orderItemRequestDTO, false);
+
+            /* A like item is merged into the existing one, whose id is then set on the request */
+            if (orderItemRequestDTO.getOrderItemId() != null) {
+                addedItemIds.add(orderItemRequestDTO.getOrderItemId());
+            } else {
+                cart.getDiscreteOrderItems().stream()
+                        .map(DiscreteOrderItem::getId)
+                        .filter(id -> !itemIdsBefore.contains(id))
+                        .forEach(addedItemIds::add);
+            }
+        }
+
+        cart = cartPricingService.saveChanged(cart);
+
+        final List<Link> addedItemLinks = addedItemIds.stream()
+                .map(itemId -> ITEM_LINK.withRel("item", orderId, itemId))
+                .collect(toList());
+
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .eTag(orderETagService.forOrder(cart))
+                .body(new Resources<>(Collections.emptyList(), addedItemLinks));
+    }
+
     private Map<String,String> removeNullValues(final Map<String, String> selectedOptions) {
         return selectedOptions.entrySet().stream()
                 .filter(entry -> entry.getValue() != null)
@@ -378,15 +517,17 @@ public class OrderController {
     @ApiResponses(value = {
             @ApiResponse(code = 201, message = "Specified product successfully added"),
             @ApiResponse(code = 404, message = "The specified order does not exist"),
-            @ApiResponse(code = 409, message = "Only one option: skuID or productBundleId can be selected at once")
-
+            @ApiResponse(code = 409, message = "Only one option: skuID or productBundleId can be selected at once"),
+            @ApiResponse(code = 412, message = "The order has been modified in the meantime")
     })
     public ResponseEntity<?> addProductToOrder(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @ApiParam(value = "ID of a specific order", required = true)
             @PathVariable(value = "orderId") Long orderId,
             @ApiParam(value = "Description of a new order item", required = true)
-            @RequestBody OrderItemDto orderItemDto) throws PricingException, AddToCartException {
+            @RequestBody OrderItemDto orderItemDto,
+            @ApiParam(value = "ETag of the order the modification is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws PricingException, AddToCartException {
 
 
         boolean isBundleBeingAdded = false;
@@ -398,6 +539,7 @@ public class OrderController {
 
         Order cart = orderServiceProxy.getProperCart(userDetails, orderId)
                 .orElseThrow(ResourceNotFoundException::new);
+        orderETagService.checkIfMatch(cart, ifMatch);
 
         final OrderItemRequestDTO req = new OrderItemRequestDTO();
         req.setQuantity(orderItemDto.getQuantity());
@@ -431,10 +573,8 @@ public class OrderController {
 
         final List<DiscreteOrderItem> currentDiscreteItems = cart.getDiscreteOrderItems();
 
-        orderService.addItem(cart.getId(), req, true);
-        // Possible improvement: calculate subtotal 'lazily' (i.e. just before checking out)
-        cart.calculateSubTotal();
-        cart = orderService.save(cart, false);
+        cart = orderService.addItem(cart.getId(), req, false);
+        cart = cartPricingService.saveChanged(cart);
 
         // (mst) Figure out added item's ID
         long addedItemId;
@@ -468,7 +608,7 @@ public class OrderController {
                 .path("/{id}")
                 .buildAndExpand(addedItemId);
 
-        return ResponseEntity.created(uriComponents.toUri()).build();
+        return ResponseEntity.created(uriComponents.toUri()).eTag(orderETagService.forOrder(cart)).build();
     }
 
     /* GET /orders/items/ */
@@ -490,10 +630,12 @@ public class OrderController {
             @PathVariable(value = "orderId") Long orderId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
             @RequestParam(value = "link", defaultValue = "true") Boolean link
-    ) {
+    ) throws PricingException {
+
+        final Order cart = orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new);
 
         return new Resources<>(
-                orderServiceProxy.getDiscreteOrderItemsFromProperCart(userDetails, orderId).stream()
+                cartPricingService.priced(cart).getDiscreteOrderItems().stream()
                 .map(discreteOrderItem -> discreteOrderItemConverter.createDto(discreteOrderItem, embed, link))
                 .collect(toList())
         );
@@ -513,11 +655,10 @@ public class OrderController {
             @ApiParam(value = "ID of a specific order", required = true)
             @PathVariable(value = "id") Long orderId) {
 
-        final int itemsInOrderCount = orderServiceProxy.getProperCart(userDetails, orderId)
-                .orElseThrow(ResourceNotFoundException::new)
-                .getItemCount();
+        final long itemsInOrderCount = orderServiceProxy.countItems(userDetails, orderId)
+                .orElseThrow(ResourceNotFoundException::new);
 
-        return ResponseEntity.ok(itemsInOrderCount);
+        return ResponseEntity.ok((int) itemsInOrderCount);
     }
 
     @Transactional
@@ -530,11 +671,25 @@ public class OrderController {
     public ResponseEntity<String> getOrdersCount(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails) {
 
-        final String ordersCount = Long.toString(orderServiceProxy.getOrdersByCustomer(userDetails).stream().count());
+        final String ordersCount = Long.toString(orderServiceProxy.countOrders(userDetails));
 
         return ResponseEntity.ok(ordersCount);
     }
 
+    /* GET /orders/count/by-status */
+    @Transactional
+    @PreAuthorize("hasAnyRole('PERMISSION_ALL_ORDER', 'ROLE_USER')")
+    @RequestMapping(value = "/count/by-status", method = RequestMethod.GET)
+    @ApiOperation(
+            value = "Count orders by status",
+            notes = "Gets numbers of orders, keyed by their status. Statuses without orders are left out",
+            response = Map.class)
+    public ResponseEntity<Map<String, Long>> getOrdersCountByStatus(
+            @ApiIgnore @AuthenticationPrincipal UserDetails userDetails) {
+
+        return ResponseEntity.ok(orderServiceProxy.countOrdersByStatus(userDetails));
+    }
+
     /* GET /orders/{orderId}/status */
     @Transactional
     @PreAuthorize("hasAnyRole('PERMISSION_ALL_ORDER', 'ROLE_USER')")
@@ -568,22 +723,26 @@ public class OrderController {
             response = Void.class)
     @ApiResponses(value = {
             @ApiResponse(code = 201, message = "Successful removal of the specified item"),
-            @ApiResponse(code = 404, message = "The specified order does not exist")
+            @ApiResponse(code = 404, message = "The specified order does not exist"),
+            @ApiResponse(code = 412, message = "The order has been modified in the meantime")
     })
     public void removeItemFromOrder(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
             @ApiParam(value = "ID of a specific order", required = true)
             @PathVariable(value = "orderId") Long orderId,
             @ApiParam(value = "ID of a specific item in the order", required = true)
-            @PathVariable(value = "itemId") Long itemId) {
+            @PathVariable(value = "itemId") Long itemId,
+            @ApiParam(value = "ETag of the order the modification is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
 
         final Order cart = orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new);
+        orderETagService.checkIfMatch(cart, ifMatch);
 
         if (cart.getDiscreteOrderItems().stream().filter(x -> Objects.equals(x.getId(), itemId)).count() != 1) {
             throw new ResourceNotFoundException("Cannot find an item with ID: " + itemId);
         }
 
-        Try.of(() -> orderService.save(orderService.removeItem(cart.getId(), itemId, true), true))
+        Try.of(() -> cartPricingService.saveChanged(orderService.removeItem(cart.getId(), itemId, false)))
                 .getOrElseThrow(() -> new ResourceNotFoundException("Error while removing item with ID: " + itemId));
     }
 
@@ -607,8 +766,10 @@ public class OrderController {
             @PathVariable(value = "itemId") Long itemId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
             @RequestParam(value = "link", defaultValue = "true") Boolean link
-    ) {
-        return orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new)
+    ) throws PricingException {
+        final Order cart = orderServiceProxy.getProperCart(userDetails, orderId).orElseThrow(ResourceNotFoundException::new);
+
+        return cartPricingService.priced(cart)
                 .getDiscreteOrderItems().stream()
                 .filter(x -> Objects.equals(x.getId(), itemId)).findAny()
                 .map(discreteOrderItem -> discreteOrderItemConverter.createDto(discreteOrderItem, embed, link))
@@ -626,7 +787,8 @@ public class OrderController {
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Quantity number successfully updated"),
             @ApiResponse(code = 404, message = "The specified order or item does not exist"),
-            @ApiResponse(code = 409, message = "Wrong quantity value")
+            @ApiResponse(code = 409, message = "Wrong quantity value"),
+            @ApiResponse(code = 412, message = "The order has been modified in the meantime")
     })
     public void updateItemQuantityInOrder(
             @ApiIgnore @AuthenticationPrincipal UserDetails userDetails,
@@ -635,8 +797,10 @@ public class OrderController {
             @ApiParam(value = "ID of a specific item in the order", required = true)
             @PathVariable(value = "itemId") Long itemId,
             @ApiParam(value = "Quantity value", required = true)
-            @RequestBody @Min(0) int quantity) throws RemoveFromCartException, UpdateCartException {
-        orderServiceProxy.updateItemQuantityInOrder(quantity,userDetails,orderId,itemId);
+            @RequestBody @Min(0) int quantity,
+            @ApiParam(value = "ETag of the order the modification is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws RemoveFromCartException, UpdateCartException, PricingException {
+        orderServiceProxy.updateItemQuantityInOrder(quantity,userDetails,orderId,itemId,ifMatch);
     }
 
     @PreAuthorize("hasRole('ROLE_USER')")
@@ -655,16 +819,18 @@ public class OrderController {
             @Valid @RequestBody PaymentDto paymentDto,
             @ApiIgnore @AuthenticationPrincipal CustomerUserDetails customerUserDetails,
             @PathVariable(value = "orderId") Long orderId
-    ) {
+    ) throws PricingException {
 
-        final Order order = Optional.ofNullable(orderService.findOrderById(orderId))
+        final Order unpricedOrder = Optional.ofNullable(orderService.findOrderById(orderId))
                 .filter(OrderController.notYetSubmitted)
                 .orElseThrow(() -> new ResourceNotFoundException());
 
-        if(!order.getCustomer().getId().equals(customerUserDetails.getId())) {
+        if(!unpricedOrder.getCustomer().getId().equals(customerUserDetails.getId())) {
             throw new AccessDeniedException("The ordere does not belong to the customer");
         }
 
+        final Order order = cartPricingService.priced(unpricedOrder);
+
 //        orderValidationService.validateOrderBeforeCheckout(order);
 
         final PaymentRequestDTO paymentRequestDTO =
@@ -4,7 +4,6 @@ import org.broadleafcommerce.common.money.Money;
 import org.broadleafcommerce.core.order.domain.Order;
 import org.broadleafcommerce.core.order.domain.OrderAttribute;
 import org.broadleafcommerce.core.order.service.OrderService;
-import org.springframework.hateoas.mvc.ControllerLinkBuilder;
 import org.springframework.stereotype.Component;
 import pl.touk.widerest.api.Converter;
 import pl.touk.widerest.api.customers.CustomerController;
@@ -13,6 +12,7 @@ import pl.touk.widerest.api.orders.fulfillments.FulfillmentController;
 import pl.touk.widerest.api.orders.fulfillments.FulfillmentConverter;
 import pl.touk.widerest.api.orders.payments.OrderPaymentConverter;
 import pl.touk.widerest.hal.EmbeddedResource;
+import pl.touk.widerest.hal.LinkTemplate;
 
 import javax.annotation.Resource;
 import java.util.Collection;
@@ -24,8 +24,6 @@ import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 
 @Component
 public class OrderConverter implements Converter<Order, OrderDto> {
@@ -35,6 +33,13 @@ public class OrderConverter implements Converter<Order, OrderDto> {
     public static final String REL_STATUS = "status";
     public static final String REL_PAYMENT = "payment";
 
+    private static final LinkTemplate ORDER_LINK = LinkTemplate.of(OrderController.class, "getOrderById");
+    private static final LinkTemplate ITEMS_LINK = LinkTemplate.of(OrderController.class, "getAllItemsInOrder");
+    private static final LinkTemplate STATUS_LINK = LinkTemplate.of(OrderController.class, "getOrderStatusById");
+    private static final LinkTemplate PAYMENT_LINK = LinkTemplate.of(OrderController.class, "initiatePayment");
+    private static final LinkTemplate FULFILLMENTS_LINK = LinkTemplate.of(FulfillmentController.class, "getOrderFulfillments");
+    private static final LinkTemplate CUSTOMER_LINK = LinkTemplate.of(CustomerController.class, "readOneCustomer");
+
     @Resource
     protected OrderPaymentConverter orderPaymentConverter;
 
@@ -62,6 +67,8 @@ public class OrderConverter implements Converter<Order, OrderDto> {
                         Optional.ofNullable(order.getOrderAttributes())
                                 .map(Map::values)
                                 .map(Collection::stream)
+                                /* Bookkeeping of deferred pricing, not an attribute of the order */
+                                .map(stream -> stream.filter(attribute -> !CartPricingService.PRICING_STALE_ATTRIBUTE_NAME.equals(attribute.getName())))
                                 .map(stream -> stream.collect(toMap(OrderAttribute::getName, OrderAttribute::getValue))).orElse(null)
                 )
                 .build();
@@ -92,17 +99,15 @@ public class OrderConverter implements Converter<Order, OrderDto> {
                     .ifPresent(orderDto::add);
         }
 
-        orderDto.add(ControllerLinkBuilder.linkTo(methodOn(OrderController.class).getOrderById(null, order.getId(), null, null)).withSelfRel());
+        orderDto.add(ORDER_LINK.withSelfRel(order.getId()));
 
         if (link) {
-            orderDto.add(linkTo(
-                    methodOn(CustomerController.class).readOneCustomer(null, String.valueOf(order.getCustomer().getId()), null, null)
-            ).withRel("customer"));
-
-            orderDto.add(linkTo(methodOn(OrderController.class).getAllItemsInOrder(null, order.getId(), null, null)).withRel(REL_ITEMS));
-            orderDto.add(linkTo(methodOn(FulfillmentController.class).getOrderFulfillments(null, order.getId(), null, null)).withRel(REL_FULFILLMENTS));
-            orderDto.add(linkTo(methodOn(OrderController.class).getOrderStatusById(null, order.getId())).withRel(REL_STATUS));
-            orderDto.add(linkTo(methodOn(OrderController.class).initiatePayment(null, null, order.getId())).withRel(REL_PAYMENT));
+            orderDto.add(CUSTOMER_LINK.withRel("customer", order.getCustomer().getId()));
+
+            orderDto.add(ITEMS_LINK.withRel(REL_ITEMS, order.getId()));
+            orderDto.add(FULFILLMENTS_LINK.withRel(REL_FULFILLMENTS, order.getId()));
+            orderDto.add(STATUS_LINK.withRel(REL_STATUS, order.getId()));
+            orderDto.add(PAYMENT_LINK.withRel(REL_PAYMENT, order.getId()));
         }
 
         return orderDto;
@@ -0,0 +1,112 @@
+package pl.touk.widerest.api.orders;
+
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang.StringUtils;
+import org.broadleafcommerce.core.order.domain.DiscreteOrderItem;
+import org.broadleafcommerce.core.order.domain.FulfillmentGroup;
+import org.broadleafcommerce.core.order.domain.FulfillmentOption;
+import org.broadleafcommerce.core.order.domain.Order;
+import org.broadleafcommerce.core.order.domain.OrderImpl;
+import org.broadleafcommerce.core.order.domain.OrderAttribute;
+import org.broadleafcommerce.core.order.service.type.OrderStatus;
+import org.broadleafcommerce.profile.core.domain.Address;
+import org.springframework.stereotype.Service;
+import pl.touk.widerest.api.common.PreconditionFailedException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * ETags of carts, for optimistic concurrency of their modifications.
+ *
+ * An ETag hashes what cart modifications change: items (SKU and quantity), order attributes, fulfillment groups
+ * and status. Prices are left out, so that repricing a cart (which may be deferred until it is read, see
+ * {@link CartPricingService}) does not invalidate the tags clients hold. As representations with different
+ * totals may share a tag, the tags are weak.
+ */
+@Service("wdOrderETagService")
+public class OrderETagService {
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    public String forOrder(final Order order) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putLong(order.getId())
+                .putString(String.valueOf(Optional.ofNullable(order.getStatus()).map(OrderStatus::getType).orElse(null)), StandardCharsets.UTF_8);
+
+        order.getDiscreteOrderItems().stream()
+                .sorted(Comparator.comparing(DiscreteOrderItem::getId))
+                .forEach(item -> hasher
+                        .putLong(item.getId())
+                        .putString(String.valueOf(item.getSku().getId()), StandardCharsets.UTF_8)
+                        .putInt(item.getQuantity()));
+
+        order.getOrderAttributes().values().stream()
+                .filter(attribute -> !CartPricingService.PRICING_STALE_ATTRIBUTE_NAME.equals(attribute.getName()))
+                .sorted(Comparator.comparing(OrderAttribute::getName))
+                .forEach(attribute -> hasher
+                        .putString(attribute.getName(), StandardCharsets.UTF_8)
+                        .putString(String.valueOf(attribute.getValue()), StandardCharsets.UTF_8));
+
+        order.getFulfillmentGroups().stream()
+                .sorted(Comparator.comparing(FulfillmentGroup::getId))
+                .forEach(fulfillmentGroup -> hasher
+                        .putLong(fulfillmentGroup.getId())
+                        .putString(String.valueOf(Optional.ofNullable(fulfillmentGroup.getFulfillmentOption())
+                                .map(FulfillmentOption::getId).orElse(null)), StandardCharsets.UTF_8)
+                        .putString(String.valueOf(Optional.ofNullable(fulfillmentGroup.getAddress())
+                                .map(Address::getId).orElse(null)), StandardCharsets.UTF_8));
+
+        return "W/\"" + hasher.hash() + "\"";
+    }
+
+    /**
+     * Rejects a modification of the cart unless the {@code If-Match} header (if any) matches its current state,
+     * and claims the order row for the modification.
+     *
+     * The tag is compared with freshly read state, without locking. Conflicts with modifications committed since
+     * are detected by the claim itself, an update of the order's modification date guarded by the date read:
+     * if it updates no row, another modification got in first.
+     */
+    public void checkIfMatch(final Order cart, final String ifMatch) throws PreconditionFailedException {
+        em.refresh(cart);
+
+        if (ifMatch != null) {
+            final String eTag = StringUtils.removeStart(forOrder(cart), "W/");
+            final boolean matches = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(ifMatch).stream()
+                    .anyMatch(candidate -> "*".equals(candidate) || eTag.equals(StringUtils.removeStart(candidate, "W/")));
+
+            if (!matches) {
+                throw new PreconditionFailedException("Order with ID: " + cart.getId() + " has been modified (If-Match: " + ifMatch + ")");
+            }
+        }
+
+        if (!claim(cart)) {
+            throw new PreconditionFailedException("Order with ID: " + cart.getId() + " has been modified in the meantime");
+        }
+    }
+
+    private boolean claim(final Order cart) {
+        final Date seen = cart.getAuditable().getDateUpdated();
+        /* Strictly later, so that a modification within the same millisecond still fails the guard of others */
+        final Date next = new Date(Math.max(System.currentTimeMillis(), Optional.ofNullable(seen).map(Date::getTime).orElse(0L) + 1));
+
+        final Query update = em.createQuery("UPDATE " + OrderImpl.class.getName() + " o SET o.auditable.dateUpdated = :next " +
+                "WHERE o.id = :id AND " + (seen == null ? "o.auditable.dateUpdated IS NULL" : "o.auditable.dateUpdated = :seen"));
+        update.setParameter("next", next);
+        update.setParameter("id", cart.getId());
+        if (seen != null) {
+            update.setParameter("seen", seen);
+        }
+
+        return update.executeUpdate() > 0;
+    }
+}
@@ -0,0 +1,26 @@
+package pl.touk.widerest.api.orders;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.Date;
+
+/**
+ * Restricts orders listed by {@link OrderServiceProxy#findOrders}. Criteria left {@code null} match any order.
+ */
+@Value
+@Builder
+public class OrderFilter {
+
+    String status;
+
+    /* Creation date range, both ends inclusive */
+    Date createdFrom;
+
+    Date createdTo;
+
+    Long customerId;
+
+    /* Value of the 'channel' attribute the order has been created with */
+    String channel;
+}
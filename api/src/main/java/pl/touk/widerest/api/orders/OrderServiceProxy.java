@@ -2,12 +2,15 @@ package pl.touk.widerest.api.orders;
 
 import javaslang.control.Match;
 import org.broadleafcommerce.core.order.domain.DiscreteOrderItem;
+import org.broadleafcommerce.core.order.domain.DiscreteOrderItemImpl;
 import org.broadleafcommerce.core.order.domain.Order;
+import org.broadleafcommerce.core.order.domain.OrderAttributeImpl;
 import org.broadleafcommerce.core.order.domain.OrderImpl;
 import org.broadleafcommerce.core.order.service.OrderService;
 import org.broadleafcommerce.core.order.service.call.OrderItemRequestDTO;
 import org.broadleafcommerce.core.order.service.exception.RemoveFromCartException;
 import org.broadleafcommerce.core.order.service.exception.UpdateCartException;
+import org.broadleafcommerce.core.pricing.service.exception.PricingException;
 import org.broadleafcommerce.openadmin.server.security.service.AdminUserDetails;
 import org.broadleafcommerce.profile.core.service.CustomerService;
 import org.broadleafcommerce.profile.core.service.CustomerUserDetails;
@@ -15,7 +18,9 @@ import org.springframework.security.access.prepost.PostAuthorize;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import pl.touk.widerest.api.RequestUtils;
 import pl.touk.widerest.api.common.AddressConverter;
+import pl.touk.widerest.api.common.Cursor;
 import pl.touk.widerest.api.common.ResourceNotFoundException;
 import pl.touk.widerest.api.customers.CustomerNotFoundException;
 import pl.touk.widerest.api.orders.fulfillments.FulfilmentServiceProxy;
@@ -23,21 +28,36 @@ import pl.touk.widerest.api.orders.fulfillments.FulfilmentServiceProxy;
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
 import static java.lang.String.format;
+import static java.util.stream.Collectors.toMap;
 
 
 @Service("wdOrderService")
 public class OrderServiceProxy {
 
+    public static final String CHANNEL_ATTRIBUTE_NAME = "channel";
+
+    private static final String MEMO_REQUEST_ATTRIBUTE_NAME = OrderServiceProxy.class.getName() + ".orders";
+
     @Resource(name = "blOrderService")
     private OrderService orderService;
 
@@ -49,6 +69,12 @@ public class OrderServiceProxy {
     @Resource
     private AddressConverter addressConverter;
 
+    @Resource(name = "wdCartPricingService")
+    private CartPricingService cartPricingService;
+
+    @Resource(name = "wdOrderETagService")
+    private OrderETagService orderETagService;
+
     @PersistenceContext(unitName = "blPU")
     protected EntityManager em;
 
@@ -80,13 +106,141 @@ public class OrderServiceProxy {
         return query.getResultList();
     }
 
+    /**
+     * Orders found within a request are memoized, so that checking access to the same order again costs nothing
+     * as long as it is still managed; otherwise it is reloaded by its primary key.
+     */
     @Transactional
     public Optional<Order> getProperCart(UserDetails userDetails, Long orderId) {
+        final Map<Long, Order> memo = getMemo();
+        final Order memoized = memo.get(orderId);
+        if (memoized != null) {
+            return em.contains(memoized) ? Optional.of(memoized) : remember(memo, orderService.findOrderById(orderId));
+        }
 
-        return Match.of(userDetails)
+        return remember(memo, Match.of(userDetails)
                 .whenType(CustomerUserDetails.class).then(d -> getOrderForCustomerById(d, orderId))
                 .whenType(AdminUserDetails.class).then(() -> orderService.findOrderById(orderId))
-                .toJavaOptional();
+                .toJavaOptional()
+                .orElse(null));
+    }
+
+    /**
+     * Reads at most {@code limit} orders matching the filter, newest first, starting right after the one the cursor
+     * points at. Customers only ever see their own orders. Seeks on the primary key, so the cost of a page
+     * does not depend on its depth.
+     */
+    @Transactional
+    public List<Order> findOrders(final UserDetails userDetails, final OrderFilter filter, final Optional<Cursor> cursor,
+                                  final int limit) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Order> criteria = builder.createQuery(Order.class);
+        final Root<OrderImpl> order = criteria.from(OrderImpl.class);
+        criteria.select(order);
+
+        final Optional<Predicate> accessible = accessibleBy(userDetails, builder, order);
+        if (!accessible.isPresent()) {
+            return Collections.emptyList();
+        }
+
+        final List<Predicate> predicates = new ArrayList<>();
+        predicates.add(accessible.get());
+        Optional.ofNullable(filter.getCustomerId())
+                .ifPresent(id -> predicates.add(builder.equal(order.get("customer").<Long>get("id"), id)));
+        Optional.ofNullable(filter.getStatus())
+                .ifPresent(status -> predicates.add(builder.equal(order.<String>get("status"), status)));
+        Optional.ofNullable(filter.getCreatedFrom())
+                .ifPresent(from -> predicates.add(builder.greaterThanOrEqualTo(order.get("auditable").<Date>get("dateCreated"), from)));
+        Optional.ofNullable(filter.getCreatedTo())
+                .ifPresent(to -> predicates.add(builder.lessThanOrEqualTo(order.get("auditable").<Date>get("dateCreated"), to)));
+        Optional.ofNullable(filter.getChannel()).ifPresent(channel -> {
+            final Subquery<Long> attribute = criteria.subquery(Long.class);
+            final Root<OrderAttributeImpl> orderAttribute = attribute.from(OrderAttributeImpl.class);
+            attribute.select(orderAttribute.<Long>get("id"));
+            attribute.where(
+                    builder.equal(orderAttribute.get("order"), order),
+                    builder.equal(orderAttribute.<String>get("name"), CHANNEL_ATTRIBUTE_NAME),
+                    builder.equal(orderAttribute.<String>get("value"), channel)
+            );
+            predicates.add(builder.exists(attribute));
+        });
+        cursor.ifPresent(c -> predicates.add(builder.lessThan(order.<Long>get("id"), c.getId())));
+
+        criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+        criteria.orderBy(builder.desc(order.get("id")));
+
+        return em.createQuery(criteria)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * Counts orders the user may access with a single COUNT query.
+     */
+    @Transactional
+    public long countOrders(final UserDetails userDetails) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+        final Root<OrderImpl> order = criteria.from(OrderImpl.class);
+        criteria.select(builder.count(order));
+
+        return accessibleBy(userDetails, builder, order)
+                .map(accessible -> em.createQuery(criteria.where(accessible)).getSingleResult())
+                .orElse(0L);
+    }
+
+    /**
+     * Counts orders the user may access by their status, with a single grouped COUNT query.
+     */
+    @Transactional
+    public Map<String, Long> countOrdersByStatus(final UserDetails userDetails) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        final Root<OrderImpl> order = criteria.from(OrderImpl.class);
+        criteria.multiselect(order.get("status"), builder.count(order));
+        criteria.groupBy(order.get("status"));
+
+        return accessibleBy(userDetails, builder, order)
+                .map(accessible -> em.createQuery(criteria.where(accessible)).getResultList().stream()
+                        .collect(toMap(row -> row.get(0, String.class), row -> row.get(1, Long.class))))
+                .orElse(Collections.emptyMap());
+    }
+
+    /**
+     * Counts items of an order without loading it, the way {@link Order#getItemCount()} does: sums quantities
+     * of its discrete items, including those bundled, rather than of the bundles themselves.
+     * Empty if the order does not exist or the user may not access it.
+     */
+    @Transactional
+    public Optional<Long> countItems(final UserDetails userDetails, final long orderId) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+
+        final CriteriaQuery<Long> orderCriteria = builder.createQuery(Long.class);
+        final Root<OrderImpl> order = orderCriteria.from(OrderImpl.class);
+        orderCriteria.select(order.<Long>get("id"));
+
+        final boolean accessible = accessibleBy(userDetails, builder, order)
+                .map(predicate -> em.createQuery(orderCriteria.where(predicate, builder.equal(order.<Long>get("id"), orderId)))
+                        .getResultList())
+                .filter(rows -> !rows.isEmpty())
+                .isPresent();
+
+        if (!accessible) {
+            return Optional.empty();
+        }
+
+        final CriteriaQuery<Number> criteria = builder.createQuery(Number.class);
+        final Root<DiscreteOrderItemImpl> item = criteria.from(DiscreteOrderItemImpl.class);
+        /* Items of a bundle belong to the order through the bundle only */
+        final Join<?, ?> itemOrder = item.join("order", JoinType.LEFT);
+        final Join<?, ?> bundleOrder = item.join("bundleOrderItem", JoinType.LEFT).join("order", JoinType.LEFT);
+        criteria.select(builder.sum(item.<Integer>get("quantity")));
+        criteria.where(builder.or(
+                builder.equal(itemOrder.<Long>get("id"), orderId),
+                builder.equal(bundleOrder.<Long>get("id"), orderId)
+        ));
+
+        return Optional.of(Optional.ofNullable(em.createQuery(criteria).getSingleResult()).map(Number::longValue).orElse(0L));
     }
 
     @Transactional
@@ -97,19 +251,24 @@ public class OrderServiceProxy {
     }
 
     public Order getOrderForCustomerById(CustomerUserDetails customerUserDetails, Long orderId) throws OrderNotFoundException {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Order> criteria = builder.createQuery(Order.class);
+        final Root<OrderImpl> order = criteria.from(OrderImpl.class);
+        criteria.select(order);
+        criteria.where(
+                builder.equal(order.<Long>get("id"), orderId),
+                builder.equal(order.get("customer").<Long>get("id"), customerUserDetails.getId())
+        );
 
-        return Optional.ofNullable(getOrdersByCustomer(customerUserDetails))
-                .orElseThrow(() -> new OrderNotFoundException("Cannot find order with ID: " + orderId + " for customer with ID: " + customerUserDetails.getId()))
-                .stream()
-                .filter(x -> x.getId().equals(orderId))
+        return em.createQuery(criteria).getResultList().stream()
                 .findAny()
                 .orElseThrow(() -> new OrderNotFoundException("Cannot find order with ID: " + orderId + " for customer with ID: " + customerUserDetails.getId()));
     }
 
-    @Transactional(rollbackFor = UpdateCartException.class)
+    @Transactional(rollbackFor = { UpdateCartException.class, PricingException.class })
     public void updateItemQuantityInOrder (
-            Integer quantity, UserDetails userDetails, Long orderId, Long itemId)
-                throws UpdateCartException, RemoveFromCartException {
+            Integer quantity, UserDetails userDetails, Long orderId, Long itemId, String ifMatch)
+                throws UpdateCartException, RemoveFromCartException, PricingException {
 
 //        if (quantity <= 0) {
 //            return new ResponseEntity<>(HttpStatus.CONFLICT);
@@ -117,6 +276,7 @@ public class OrderServiceProxy {
 
         final Order cart = getProperCart(userDetails, orderId)
                 .orElseThrow(ResourceNotFoundException::new);
+        orderETagService.checkIfMatch(cart, ifMatch);
 
         if (cart.getDiscreteOrderItems().stream().filter(x -> Objects.equals(x.getId(), itemId)).count() != 1) {
             throw new ResourceNotFoundException("Cannot find an item with ID: " + itemId);
@@ -126,7 +286,26 @@ public class OrderServiceProxy {
         orderItemRequestDto.setQuantity(quantity);
         orderItemRequestDto.setOrderItemId(itemId);
 
-        orderService.updateItemQuantity(orderId, orderItemRequestDto, true);
+        cartPricingService.saveChanged(orderService.updateItemQuantity(orderId, orderItemRequestDto, false));
+    }
+
+    private static Optional<Order> remember(final Map<Long, Order> memo, final Order order) {
+        Optional.ofNullable(order).ifPresent(o -> memo.put(o.getId(), o));
+        return Optional.ofNullable(order);
     }
 
+    private static Map<Long, Order> getMemo() {
+        return RequestUtils.getOrCreateAttribute(MEMO_REQUEST_ATTRIBUTE_NAME, HashMap::new);
+    }
+
+    /* Customers may only access their own orders and back office users any order; nobody else may access orders */
+    private static Optional<Predicate> accessibleBy(final UserDetails userDetails, final CriteriaBuilder builder,
+                                                    final Path<?> order) {
+        if (userDetails instanceof CustomerUserDetails) {
+            return Optional.of(builder.equal(order.get("customer").<Long>get("id"), ((CustomerUserDetails) userDetails).getId()));
+        } else if (userDetails instanceof AdminUserDetails) {
+            return Optional.of(builder.conjunction());
+        }
+        return Optional.empty();
+    }
 }
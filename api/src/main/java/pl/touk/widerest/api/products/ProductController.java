@@ -1,5 +1,6 @@
 package pl.touk.widerest.api.products;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -8,9 +9,7 @@ import io.swagger.annotations.ApiResponses;
 import org.apache.commons.lang.StringUtils;
 import org.broadleafcommerce.common.exception.ServiceException;
 import org.broadleafcommerce.common.media.domain.Media;
-import org.broadleafcommerce.common.security.service.ExploitProtectionService;
 import org.broadleafcommerce.common.service.GenericEntityService;
-import org.broadleafcommerce.common.util.BLCSystemProperty;
 import org.broadleafcommerce.core.catalog.domain.CategoryProductXref;
 import org.broadleafcommerce.core.catalog.domain.Product;
 import org.broadleafcommerce.core.catalog.domain.ProductBundle;
@@ -19,37 +18,65 @@ import org.broadleafcommerce.core.catalog.domain.SkuBundleItem;
 import org.broadleafcommerce.core.catalog.domain.SkuMediaXref;
 import org.broadleafcommerce.core.catalog.domain.SkuMediaXrefImpl;
 import org.broadleafcommerce.core.catalog.service.CatalogService;
-import org.broadleafcommerce.core.search.domain.SearchCriteria;
-import org.broadleafcommerce.core.search.domain.SearchResult;
-import org.broadleafcommerce.core.search.service.SearchService;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import pl.touk.widerest.api.catalog.CatalogChangePublisher;
+import pl.touk.widerest.api.catalog.CatalogCounterService;
+import pl.touk.widerest.api.catalog.CatalogETagService;
+import pl.touk.widerest.api.catalog.CatalogUrlIndex;
 import pl.touk.widerest.api.categories.CategoryConverter;
 import pl.touk.widerest.api.categories.CategoryDto;
 import pl.touk.widerest.api.common.CatalogUtils;
+import pl.touk.widerest.api.common.Cursor;
 import pl.touk.widerest.api.common.MediaConverter;
 import pl.touk.widerest.api.common.MediaDto;
 import pl.touk.widerest.api.common.ResourceNotFoundException;
+import pl.touk.widerest.api.common.StreamingResourcesFactory;
+import pl.touk.widerest.api.products.search.ProductSearchResultDto;
+import pl.touk.widerest.api.products.search.ProductSearchService;
+import pl.touk.widerest.hal.StreamingResources;
 import pl.touk.widerest.security.oauth2.ResourceServerConfig;
+import springfox.documentation.annotations.ApiIgnore;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
 
 import static java.util.stream.Collectors.toList;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
@@ -60,14 +87,17 @@ import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 @Api(value = "products", description = "Product catalog endpoint", produces = MediaTypes.HAL_JSON_VALUE)
 public class ProductController {
 
+    /* Parameters of the search endpoint that are not facet filters */
+    private static final Set<String> SEARCH_PARAMETERS = new HashSet<>(Arrays.asList("q", "pageSize", "page", "sort", "embed", "link"));
+
+    /** Newline delimited JSON: one JSON document per line */
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
     @Resource(name = "blCatalogService")
     protected CatalogService catalogService;
 
-    @Resource(name = "blSearchService")
-    protected SearchService searchService;
-
-    @Resource(name = "blExploitProtectionService")
-    protected ExploitProtectionService exploitProtectionService;
+    @Resource(name = "wdProductSearchService")
+    protected ProductSearchService productSearchService;
 
     @Resource(name = "blGenericEntityService")
     protected GenericEntityService genericEntityService;
@@ -81,6 +111,37 @@ public class ProductController {
     @Resource
     protected MediaConverter mediaConverter;
 
+    @Resource(name = "wdProductService")
+    protected ProductServiceProxy productServiceProxy;
+
+    @Resource
+    protected StreamingResourcesFactory streamingResourcesFactory;
+
+    @Resource
+    protected ProductDtoCache productDtoCache;
+
+    @Resource(name = "wdCatalogETagService")
+    protected CatalogETagService catalogETagService;
+
+    @Resource(name = "wdCatalogCounterService")
+    protected CatalogCounterService catalogCounterService;
+
+    @Resource(name = "wdCatalogUrlIndex")
+    protected CatalogUrlIndex catalogUrlIndex;
+
+    @Resource
+    protected CatalogChangePublisher catalogChangePublisher;
+
+    @Resource(name = "wdProductImportService")
+    protected ProductImportService productImportService;
+
+    @Resource(name = "wdProductExportService")
+    protected ProductExportService productExportService;
+
+    /* The one behind HAL responses, so that records written by hand look exactly the same */
+    @Resource(name = "_halObjectMapper")
+    protected ObjectMapper objectMapper;
+
     /* GET /products */
     @Transactional
     @PreAuthorize("permitAll")
@@ -95,7 +156,7 @@ public class ProductController {
             @ApiResponse(code = 200, message = "Successful retrieval of products list", response = ProductDto.class, responseContainer = "List"),
             @ApiResponse(code = 400, message = "Invalid query text")
     })
-    public ResponseEntity<Resources<ProductDto>> getAllProducts(
+    public ResponseEntity<StreamingResources<ProductDto>> getAllProducts(
             @ApiParam(value = "Amount of products to be returned")
                 @RequestParam(value = "limit", required = false, defaultValue = "100") final Integer limit,
             @ApiParam(value = "Offset which to  start returning products from")
@@ -107,51 +168,116 @@ public class ProductController {
             @ApiParam(value = "Page number to return (applies only to searching)")
                 @RequestParam(value = "page", defaultValue = "1") final Integer page,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
-            @RequestParam(value = "link", defaultValue = "true") Boolean link
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiParam(value = "Opaque cursor returned in the 'next' link of the previous page (takes precedence over offset)")
+                @RequestParam(value = "cursor", required = false) final String cursor
     ) throws ServiceException {
 
-        List<Product> productsToReturn;
+        List<Long> productIdsToReturn;
+        Optional<Link> nextLink = Optional.empty();
 
         if(StringUtils.isNotEmpty(q)) {
+            productIdsToReturn = productSearchService.search(q, page, pageSize, Collections.emptyMap(), null).getProductIds();
+        } else if (limit != null && limit > 0 && (StringUtils.isNotEmpty(cursor) || offset == null || offset == 0)) {
+            productIdsToReturn = productServiceProxy.findProductIdsAfter(Cursor.decode(cursor), limit);
+
+            /* Seek from the last product read, not the last visible one, so that hidden products are not re-read */
+            if (productIdsToReturn.size() == limit) {
+                final String nextCursor = Cursor.of(productIdsToReturn.get(productIdsToReturn.size() - 1)).encode();
+                nextLink = Optional.of(
+                        linkTo(methodOn(getClass()).getAllProducts(limit, null, null, null, null, embed, link, nextCursor)).withRel(Link.REL_NEXT)
+                );
+            }
+        } else {
+            productIdsToReturn = catalogService.findAllProducts(limit != null ? limit : 0, offset != null ? offset : 0).stream()
+                    .map(Product::getId)
+                    .collect(toList());
+        }
 
-            String cleanedUpQuery;
-
-            cleanedUpQuery = StringUtils.trim(q);
-            cleanedUpQuery = exploitProtectionService.cleanString(cleanedUpQuery);
-
-            final SearchCriteria searchCriteria = new SearchCriteria();
-            searchCriteria.setPage((page <= 0) ? 1 : page);
+        final List<Link> links = new ArrayList<>();
+        links.add(linkTo(methodOn(getClass()).getAllProducts(limit, offset, q, pageSize, page, embed, link, cursor)).withSelfRel());
+        nextLink.ifPresent(links::add);
 
-            final int maxAllowedPageSize = BLCSystemProperty.resolveIntSystemProperty("web.maxPageSize");
-            final int defaultPageSize = BLCSystemProperty.resolveIntSystemProperty("web.defaultPageSize");
-            searchCriteria.setPageSize((pageSize <= 0) ? defaultPageSize : Math.min(pageSize, maxAllowedPageSize));
+        return ResponseEntity.ok(
+                streamingResourcesFactory.create(
+                        productIdsToReturn,
+                        productServiceProxy::findProductsByIds,
+                        products -> productConverter.createDtos(
+                                products.stream()
+                                        .filter(CatalogUtils.shouldProductBeVisible)
+                                        .collect(toList()),
+                                embed, link
+                        ),
+                        links
+                )
+        );
+    }
 
-            final Map<String, String[]> searchFilterCriteria = new HashMap<>();
-            /* (nst)
-                 'defaultSku.name' -> 'name'
-             */
-            final String[] nameFilters = { };
-            searchFilterCriteria.put("name", nameFilters);
+    /* GET /products/search */
+    @Transactional
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/search", method = RequestMethod.GET)
+    @ApiOperation(
+            value = "Search products",
+            notes = "Gets a page of products matching the query, together with the total number of matching products " +
+                    "and the facets of the result. Any parameter other than the listed ones is a facet filter: its name " +
+                    "is the facet's name and its values are keys of the facet's options, e.g. price=range[10:20]",
+            response = ProductSearchResultDto.class
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of search results", response = ProductSearchResultDto.class),
+            @ApiResponse(code = 400, message = "Invalid query text")
+    })
+    public ProductSearchResultDto searchProducts(
+            @ApiParam(value = "Search query text", required = true)
+                @RequestParam(value = "q") final String q,
+            @ApiParam(value = "Amount of items per page")
+                @RequestParam(value = "pageSize", defaultValue = "15") final Integer pageSize,
+            @ApiParam(value = "Page number to return")
+                @RequestParam(value = "page", defaultValue = "1") final Integer page,
+            @ApiParam(value = "Sort order, e.g. 'price asc'")
+                @RequestParam(value = "sort", required = false) final String sort,
+            @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiIgnore @RequestParam final MultiValueMap<String, String> parameters
+    ) throws ServiceException {
 
-            searchCriteria.setFilterCriteria(searchFilterCriteria);
+        final Map<String, String[]> filters = new HashMap<>();
+        parameters.forEach((name, values) -> {
+            if (!SEARCH_PARAMETERS.contains(name)) {
+                filters.put(name, values.toArray(new String[values.size()]));
+            }
+        });
 
+        final ProductSearchService.Result searchResult = productSearchService.search(q, page, pageSize, filters, sort);
 
-            final SearchResult searchResult = searchService.findSearchResultsByQuery(cleanedUpQuery, searchCriteria);
-            productsToReturn = Optional.ofNullable(searchResult.getProducts()).orElse(Collections.emptyList());
-        } else {
-            productsToReturn = catalogService.findAllProducts(limit != null ? limit : 0, offset != null ? offset : 0);
-        }
+        final List<Product> products = productServiceProxy.findProductsByIds(searchResult.getProductIds()).stream()
+                .filter(CatalogUtils.shouldProductBeVisible)
+                .collect(toList());
 
-        return ResponseEntity.ok(
-                new Resources<>(
-                        productsToReturn.stream()
-                                .filter(CatalogUtils.shouldProductBeVisible)
-                                .map(product -> productConverter.createDto(product, embed, link))
-                                .collect(toList()),
+        return ProductSearchResultDto.builder()
+                .page(searchResult.getPage())
+                .pageSize(searchResult.getPageSize())
+                .totalResults(searchResult.getTotalResults())
+                .totalPages(searchResult.getTotalPages())
+                .facets(searchResult.getFacets())
+                .products(productConverter.createDtos(products, embed, link))
+                .build();
+    }
 
-                        linkTo(methodOn(getClass()).getAllProducts(limit, offset, q, pageSize, page, null, null)).withSelfRel()
-                )
-        );
+    /* POST /products/search/index */
+    @PreAuthorize("hasRole('PERMISSION_ALL_PRODUCT')")
+    @RequestMapping(value = "/search/index", method = RequestMethod.POST)
+    @ApiOperation(
+            value = "Rebuild the search index",
+            notes = "Rebuilds the search index from the catalog and discards cached search results",
+            response = Void.class)
+    @ApiResponses({
+            @ApiResponse(code = 204, message = "Successful rebuild of the search index")
+    })
+    public ResponseEntity<?> rebuildSearchIndex() throws ServiceException, IOException {
+        productSearchService.rebuildIndex();
+        return ResponseEntity.noContent().build();
     }
 
     @Transactional
@@ -162,17 +288,20 @@ public class ProductController {
             notes = "Gets a single product details",
             response = ProductDto.class)
     @ApiResponses(value = {
-            @ApiResponse(code = 200, message = "Successful retrieval of product", response = ProductDto.class)
+            @ApiResponse(code = 200, message = "Successful retrieval of product", response = ProductDto.class),
+            @ApiResponse(code = 404, message = "No available product has the specified URL")
     })
     public ProductDto getProductByUrl(
             @ApiParam @RequestParam(value = "url", required = true) final String url,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
             @RequestParam(value = "link", defaultValue = "true") Boolean link
     ) {
-
-        return Optional.ofNullable(catalogService.findProductByURI(url))
+        return catalogUrlIndex.findProductId(url)
+                .map(catalogService::findProductById)
+                /* The index may lag behind a recent change */
+                .filter(found -> CatalogUrlIndex.hasUrl(url, found.getUrl(), found.getUrlKey()))
                 .filter(CatalogUtils.shouldProductBeVisible)
-                .map(product -> productConverter.createDto(product, embed, link))
+                .map(visible -> productConverter.createDto(visible, embed, link))
                 .orElseThrow(() -> new ResourceNotFoundException("Product with URL: " + url + " does not exist"));
     }
 
@@ -299,6 +428,8 @@ public class ProductController {
                 productConverter.createEntity(receivedProductDto)
         );
 
+        catalogChangePublisher.productsChanged(product.getId());
+
         return ResponseEntity.created(
                 ServletUriComponentsBuilder.fromCurrentRequest()
                         .path("/{id}")
@@ -308,6 +439,85 @@ public class ProductController {
     }
 
 
+    /* POST /products/import */
+    @PreAuthorize("hasRole('PERMISSION_ALL_PRODUCT')")
+    @RequestMapping(value = "/import", method = RequestMethod.POST, consumes = NDJSON_VALUE, produces = NDJSON_VALUE)
+    @ApiOperation(
+            value = "Import products",
+            notes = "Adds new products described by a newline delimited stream of product records, saving them in batches " +
+                    "as the stream is read. Records that cannot be imported are skipped. Responds with a newline delimited " +
+                    "stream of the skipped records (line number and reason) interleaved with progress counts written " +
+                    "after every batch; the last line holds the final counts",
+            response = ProductImportProgressDto.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Import processed, skipped records and counts returned")
+    })
+    public void importProducts(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        final Writer writer = response.getWriter();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+
+        try {
+            final ProductImportProgressDto result = productImportService.importProducts(
+                    reader,
+                    error -> writeLine(writer, error, false),
+                    progress -> writeLine(writer, progress, true)
+            );
+            writeLine(writer, result, true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* GET /products/export */
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/export", method = RequestMethod.GET, produces = NDJSON_VALUE)
+    @ApiOperation(
+            value = "Export all products",
+            notes = "Streams all available products in the catalog, one product per line, ordered by ID. " +
+                    "The whole catalog is exported in a single response",
+            response = ProductDto.class,
+            responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful export of the products")
+    })
+    public void exportProducts(
+            @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiParam(value = "Whether to compress the response with gzip")
+            @RequestParam(value = "gzip", defaultValue = "false") Boolean gzip,
+            final HttpServletResponse response
+    ) throws IOException {
+        response.setContentType(NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        final OutputStream output = gzip ? new GZIPOutputStream(response.getOutputStream()) : response.getOutputStream();
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            productExportService.exportProducts(embed, link, productDto -> writeLine(writer, productDto, false));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* Progress is flushed right away, so that the client can follow a long import */
+    private void writeLine(final Writer writer, final Object value, final boolean flush) {
+        try {
+            writer.write(objectMapper.writeValueAsString(value));
+            writer.write('\n');
+            if (flush) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /* GET /products/count */
     @Transactional
     @PreAuthorize("permitAll")
@@ -321,9 +531,7 @@ public class ProductController {
             @ApiResponse(code = 200, message = "Successful retrieval of products count")
     })
     public Long getAllProductsCount() {
-        return catalogService.findAllProducts().stream()
-                .filter(CatalogUtils.shouldProductBeVisible)
-                .count();
+        return catalogCounterService.countProducts();
     }
 
     /* GET /products/{id} */
@@ -336,18 +544,29 @@ public class ProductController {
             response = ProductDto.class)
     @ApiResponses({
             @ApiResponse(code = 200, message = "Successful retrieval of product details", response = ProductDto.class),
+            @ApiResponse(code = 304, message = "The product has not been modified"),
             @ApiResponse(code = 404, message = "The specified product does not exist or is marked as archived")
     })
-    public ProductDto readOneProductById(
+    public ResponseEntity<ProductDto> readOneProductById(
             @ApiParam(value = "ID of a specific product", required = true)
             @PathVariable(value = "productId") final Long productId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
-            @RequestParam(value = "link", defaultValue = "true") Boolean link
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiParam(value = "ETags of the already known representations")
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch
     ) {
+        final Optional<String> eTag = catalogETagService.forProduct(productId, embed, link);
 
-        return Optional.of(getProductById(productId))
-                .map(product -> productConverter.createDto(product, embed, link))
-                .get();
+        if (eTag.filter(tag -> CatalogETagService.matchesAny(ifNoneMatch, tag)).isPresent()) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag.get()).build();
+        }
+
+        final ProductDto productDto = productDtoCache.getOrCreate(productId, embed, link,
+                () -> productConverter.createDto(getProductById(productId), embed, link));
+
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        eTag.ifPresent(response::eTag);
+        return response.body(productDto);
     }
 
     /* PUT /products/{id} */
@@ -362,19 +581,25 @@ public class ProductController {
             @ApiResponse(code = 200, message = "Successful update of the specified product"),
             @ApiResponse(code = 400, message = "Not enough data has been provided"),
             @ApiResponse(code = 404, message = "The specified product does not exist"),
-            @ApiResponse(code = 409, message = "Product with that name already exists")
+            @ApiResponse(code = 409, message = "Product with that name already exists"),
+            @ApiResponse(code = 412, message = "The product has been modified in the meantime")
     })
     public void updateOneProduct(
             @ApiParam(value = "ID of a specific category", required = true)
             @PathVariable(value = "productId") final Long productId,
             @ApiParam(value = "(Full) Description of an updated product", required = true)
-                @Valid @RequestBody final ProductDto productDto) {
+                @Valid @RequestBody final ProductDto productDto,
+            @ApiParam(value = "ETag of the product the update is based on")
+                @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+        catalogETagService.checkIfMatch(ifMatch, catalogETagService.forProduct(productId, false, false));
 
         Optional.ofNullable(getProductById(productId))
                 .ifPresent(oldProductEntity -> {
                     final Product newProductEntity = productConverter.createEntity(productDto);
                     newProductEntity.setId(productId);
                     catalogService.saveProduct(newProductEntity);
+                    catalogChangePublisher.productsChanged(productId);
                 });
     }
 
@@ -395,6 +620,7 @@ public class ProductController {
                 @PathVariable(value = "productId") final Long productId) {
 
         Optional.of(getProductById(productId)).ifPresent(catalogService::removeProduct);
+        catalogChangePublisher.productsChanged(productId);
     }
 
     /* ---------------------------- CATEGORIES ENDPOINTS ---------------------------- */
@@ -526,6 +752,7 @@ public class ProductController {
 
         genericEntityService.remove(skuMediaXrefToBeRemoved);
         catalogService.saveSku(productDefaultSku);
+        catalogChangePublisher.productSkusChanged(productId, productDefaultSku.getId());
     }
 
     @Transactional
@@ -564,6 +791,7 @@ public class ProductController {
         productDefaultSku.getSkuMediaXref().put(key, newSkuMediaXref);
 
         catalogService.saveSku(productDefaultSku );
+        catalogChangePublisher.productSkusChanged(productId, productDefaultSku.getId());
     }
 
 
@@ -7,9 +7,7 @@ import org.broadleafcommerce.core.catalog.service.CatalogService;
 import org.broadleafcommerce.core.catalog.service.type.ProductOptionType;
 import org.broadleafcommerce.core.catalog.service.type.ProductOptionValidationStrategyType;
 import org.broadleafcommerce.core.catalog.service.type.ProductType;
-import org.broadleafcommerce.core.inventory.service.InventoryService;
 import org.broadleafcommerce.core.inventory.service.type.InventoryType;
-import org.springframework.hateoas.mvc.ControllerLinkBuilder;
 import org.springframework.stereotype.Component;
 import pl.touk.widerest.api.Converter;
 import pl.touk.widerest.api.DtoConverters;
@@ -20,11 +18,13 @@ import pl.touk.widerest.api.common.MediaDto;
 import pl.touk.widerest.api.common.ResourceNotFoundException;
 import pl.touk.widerest.api.orders.fulfillments.FulfillmentOptionsMapConverter;
 import pl.touk.widerest.api.orders.fulfillments.FulfilmentServiceProxy;
+import pl.touk.widerest.api.products.skus.InventoryResolver;
 import pl.touk.widerest.api.products.skus.SkuController;
 import pl.touk.widerest.api.products.skus.SkuConverter;
 import pl.touk.widerest.api.products.skus.SkuDto;
 import pl.touk.widerest.api.products.skus.SkuProductOptionValueDto;
 import pl.touk.widerest.hal.EmbeddedResource;
+import pl.touk.widerest.hal.LinkTemplate;
 
 import javax.annotation.Resource;
 import java.time.ZoneId;
@@ -34,6 +34,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Currency;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -44,11 +45,14 @@ import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 import static java.util.stream.Stream.empty;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 
 @Component
 public class ProductConverter implements Converter<Product, ProductDto>{
+
+    private static final LinkTemplate PRODUCT_LINK = LinkTemplate.of(ProductController.class, "readOneProductById");
+    private static final LinkTemplate DEFAULT_MEDIAS_LINK = LinkTemplate.of(ProductController.class, "getProductDefaultSkuMedias");
+    private static final LinkTemplate SKU_LINK = LinkTemplate.of(SkuController.class, "getSkuById");
+    private static final LinkTemplate CATEGORY_LINK = LinkTemplate.of(CategoryController.class, "readOneCategoryById");
     
     @Resource
     protected SkuConverter skuConverter;
@@ -60,7 +64,7 @@ public class ProductConverter implements Converter<Product, ProductDto>{
     protected CatalogService catalogService;
 
     @Resource
-    protected InventoryService inventoryService;
+    protected InventoryResolver inventoryResolver;
 
     @Resource
     protected FulfilmentServiceProxy fulfilmentServiceProxy;
@@ -68,6 +72,39 @@ public class ProductConverter implements Converter<Product, ProductDto>{
     @Resource
     protected FulfillmentOptionsMapConverter fulfillmentOptionsMapConverter;
 
+    @Resource(name = "wdProductService")
+    protected ProductServiceProxy productServiceProxy;
+
+    @Resource
+    protected ProductDtoCache productDtoCache;
+
+    /**
+     * Converts a whole page of products, loading the associations {@link #createDto} needs
+     * for all of them up front rather than lazily, product by product.
+     *
+     * Representations already in the {@link ProductDtoCache} are reused, but new ones are not cached,
+     * as the products have been loaded before the conversion started.
+     */
+    public List<ProductDto> createDtos(final List<Product> products, final boolean embed, final boolean link) {
+        final Map<Long, ProductDto> cachedDtos = new HashMap<>();
+        products.forEach(product -> productDtoCache.get(product.getId(), embed, link)
+                .ifPresent(productDto -> cachedDtos.put(product.getId(), productDto)));
+
+        final List<Product> productsToConvert = products.stream()
+                .filter(product -> !cachedDtos.containsKey(product.getId()))
+                .collect(toList());
+
+        productServiceProxy.fetchAssociations(productsToConvert);
+        inventoryResolver.resolve(productsToConvert.stream()
+                .flatMap(product -> product.getAllSkus().stream())
+                .collect(toList()));
+
+        return products.stream()
+                .map(product -> Optional.ofNullable(cachedDtos.get(product.getId()))
+                        .orElseGet(() -> createDto(product, embed, link)))
+                .collect(toList());
+    }
+
     @Override
     public ProductDto createDto(final Product product, final boolean embed, final boolean link) {
         final ProductDto dto = product instanceof ProductBundle ? new ProductBundleDto() : new ProductDto();
@@ -77,11 +114,13 @@ public class ProductConverter implements Converter<Product, ProductDto>{
         /* (mst) This should never be null */
         final Sku productDefaultSku = product.getDefaultSku();
 
+        inventoryResolver.resolve(product.getAllSkus());
+
         dto.setRetailPrice(Optional.ofNullable(productDefaultSku.getRetailPrice()).map(Money::getAmount).orElse(null));
         dto.setSalePrice(Optional.ofNullable(productDefaultSku.getSalePrice()).map(Money::getAmount).orElse(null));
-        dto.setQuantityAvailable(inventoryService.retrieveQuantityAvailable(productDefaultSku));
+        dto.setQuantityAvailable(inventoryResolver.getQuantityAvailable(productDefaultSku));
         dto.setAvailability(Optional.ofNullable(productDefaultSku.getInventoryType()).map(InventoryType::getType).orElse(null));
-        dto.setIsAvailable(inventoryService.isAvailable(productDefaultSku,1));
+        dto.setIsAvailable(inventoryResolver.isAvailable(productDefaultSku));
         dto.setTaxCode(productDefaultSku.getTaxCode());
         dto.setCurrencyCode(
                 Optional.ofNullable(Money.toCurrency(productDefaultSku.getPrice())).map(Currency::toString).orElse(null));
@@ -125,21 +164,19 @@ public class ProductConverter implements Converter<Product, ProductDto>{
             ((ProductBundleDto) dto).setPotentialSavings(productBundle.getPotentialSavings());
         }
 
-        dto.add(ControllerLinkBuilder.linkTo(methodOn(ProductController.class).readOneProductById(product.getId(), null, null)).withSelfRel());
+        dto.add(PRODUCT_LINK.withSelfRel(product.getId()));
 
         if (link) {
 
             if (product.getDefaultSku() != null) {
-                dto.add(linkTo(methodOn(SkuController.class).getSkuById(product.getId(), product.getDefaultSku().getId(), null, null))
-                        .withRel("default-sku"));
+                dto.add(SKU_LINK.withRel("default-sku", product.getId(), product.getDefaultSku().getId()));
             }
 
 		/* skus link does not include default SKU! */
             if (product.getAdditionalSkus() != null && !product.getAdditionalSkus().isEmpty()) {
                 for (Sku additionalSku : product.getAdditionalSkus()) {
                     if (!additionalSku.equals(product.getDefaultSku())) {
-                        dto.add(linkTo(methodOn(SkuController.class).getSkuById(product.getId(), additionalSku.getId(), null, null))
-                                .withRel("skus"));
+                        dto.add(SKU_LINK.withRel("skus", product.getId(), additionalSku.getId()));
 
                         //dto.add(linkTo(methodOn(ProductController.class).getMediaBySkuId(product.getId(), additionalSku.getId())).withRel("medias"));
 
@@ -152,10 +189,10 @@ public class ProductConverter implements Converter<Product, ProductDto>{
                 product.getAllParentCategoryXrefs().stream()
                         .map(CategoryProductXref::getCategory)
                         .filter(CatalogUtils.shouldCategoryBeVisible)
-                        .forEach(x -> dto.add(linkTo(methodOn(CategoryController.class).readOneCategoryById(null, x.getId(), null, null)).withRel("category")));
+                        .forEach(x -> dto.add(CATEGORY_LINK.withRel("category", x.getId())));
             }
 
-            dto.add(linkTo(methodOn(ProductController.class).getProductDefaultSkuMedias(product.getId())).withRel("default-medias"));
+            dto.add(DEFAULT_MEDIAS_LINK.withRel("default-medias", product.getId()));
         }
 
         if (embed) {
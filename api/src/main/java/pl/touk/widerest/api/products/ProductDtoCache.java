@@ -0,0 +1,148 @@
+package pl.touk.widerest.api.products;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import pl.touk.widerest.api.catalog.CatalogChangeEvent;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.catalog.CatalogVersionService;
+import pl.touk.widerest.api.common.CatalogUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of rendered {@link ProductDto}s, one entry per product holding all of its representations
+ * (embed/link flags, visibility class and the base URI the links were built against).
+ *
+ * Every write made through the API evicts the products it touched once committed, and an entry is only
+ * served while the {@link CatalogVersionService versions} it was rendered at are current, so a render racing
+ * with a write is never kept. Data changed behind the API's back (inventory decremented at checkout,
+ * fulfillment prices) is bounded by the time-to-live.
+ *
+ * Cached DTOs are shared between requests and must not be modified.
+ */
+@Component
+public class ProductDtoCache implements ApplicationListener<CatalogChangeEvent> {
+
+    @Value("${widerest.catalog.product-cache.maximum-size:10000}")
+    protected long maximumSize;
+
+    @Value("${widerest.catalog.product-cache.time-to-live:60}")
+    protected long timeToLiveSeconds;
+
+    @Resource(name = "wdCatalogVersionService")
+    protected CatalogVersionService catalogVersionService;
+
+    private Cache<Long, ConcurrentMap<Variant, Entry>> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the cached representation or renders and caches a new one. The product must be loaded
+     * by the {@code renderer} itself: anything loaded before this call might predate the versions captured here.
+     */
+    public ProductDto getOrCreate(final long productId, final boolean embed, final boolean link, final Supplier<ProductDto> renderer) {
+        final Optional<Variant> variant = currentVariant(embed, link);
+
+        if (!variant.isPresent()) {
+            return renderer.get();
+        }
+
+        final Optional<ProductDto> cached = get(productId, variant.get());
+
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        final long productVersion = catalogVersionService.getProductVersion(productId);
+        final long categoriesVersion = catalogVersionService.getCategoriesVersion();
+
+        final ProductDto productDto = renderer.get();
+
+        final ConcurrentMap<Variant, Entry> variants = cache.asMap().computeIfAbsent(productId, id -> new ConcurrentHashMap<>());
+        variants.put(variant.get(), new Entry(productVersion, categoriesVersion, productDto));
+
+        return productDto;
+    }
+
+    /**
+     * Returns the cached representation, if it is still current, without rendering a missing one.
+     */
+    public Optional<ProductDto> get(final long productId, final boolean embed, final boolean link) {
+        return currentVariant(embed, link).flatMap(variant -> get(productId, variant));
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        switch (event.getEntityType()) {
+            case PRODUCT:
+                if (event.getIds().isEmpty()) {
+                    cache.invalidateAll();
+                } else {
+                    cache.invalidateAll(event.getIds());
+                }
+                break;
+            case CATEGORY:
+                /* Products show their category's name and links to the visible ones */
+                cache.invalidateAll();
+                break;
+            case SKU:
+                /* Published along with the owning product's change */
+                break;
+        }
+    }
+
+    private Optional<ProductDto> get(final long productId, final Variant variant) {
+        return Optional.ofNullable(cache.getIfPresent(productId))
+                .map(variants -> variants.get(variant))
+                .filter(entry -> entry.getProductVersion() == catalogVersionService.getProductVersion(productId)
+                        && entry.getCategoriesVersion() == catalogVersionService.getCategoriesVersion())
+                .map(Entry::getProductDto)
+                /* Products expire as time passes, without any write */
+                .filter(productDto -> variant.isPrivileged() || productDto.getValidTo() == null
+                        || productDto.getValidTo().isAfter(ZonedDateTime.now()));
+    }
+
+    private static Optional<Variant> currentVariant(final boolean embed, final boolean link) {
+        /* Links are absolute, so representations can only be shared between requests for the same base URI */
+        return Optional.ofNullable(RequestContextHolder.getRequestAttributes())
+                .map(attributes -> new Variant(
+                        embed,
+                        link,
+                        CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_PRODUCT).test(null),
+                        ServletUriComponentsBuilder.fromCurrentServletMapping().toUriString()
+                ));
+    }
+
+    @lombok.Value
+    private static class Variant {
+        boolean embed;
+        boolean link;
+        boolean privileged;
+        String baseUri;
+    }
+
+    @lombok.Value
+    private static class Entry {
+        long productVersion;
+        long categoriesVersion;
+        ProductDto productDto;
+    }
+}
@@ -0,0 +1,121 @@
+package pl.touk.widerest.api.products;
+
+import org.broadleafcommerce.core.catalog.domain.Product;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.common.CatalogUtils;
+import pl.touk.widerest.api.products.skus.InventoryResolver;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Renders every visible product of the catalog, in a single pass.
+ *
+ * Product ids are read through a forward-only database cursor. Products are loaded and converted in chunks of those
+ * ids (with their associations batch-fetched, as for any listing) and the persistence context is cleared after each
+ * chunk, so memory use does not depend on the size of the catalog.
+ */
+@Service("wdProductExportService")
+public class ProductExportService {
+
+    /* Rows the JDBC driver fetches per round trip while scrolling */
+    private static final int FETCH_SIZE = 1000;
+
+    @Value("${widerest.catalog.export.chunk-size:200}")
+    protected int chunkSize;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    @Resource(name = "wdProductService")
+    protected ProductServiceProxy productServiceProxy;
+
+    @Resource
+    protected ProductConverter productConverter;
+
+    @Resource
+    protected InventoryResolver inventoryResolver;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Hands the products over to the sink in the order of their ids. Has to be called outside of a transaction.
+     *
+     * @return number of products exported
+     */
+    public long exportProducts(final boolean embed, final boolean link, final Consumer<ProductDto> sink) {
+        final boolean privileged = CatalogUtils.isUserAthorizedFor(CatalogPredicates.PERMISSION_READ_PRODUCT).test(null);
+
+        return readOnlyTransaction.execute(status -> {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+            final Root<ProductImpl> product = criteria.from(ProductImpl.class);
+            criteria.select(product.<Long>get("id"));
+            criteria.where(CatalogPredicates.isProductVisible(builder, product, privileged));
+            criteria.orderBy(builder.asc(product.get("id")));
+
+            final ScrollableResults productIds = em.createQuery(criteria).unwrap(Query.class)
+                    .setFetchSize(FETCH_SIZE)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+
+            long exported = 0;
+            try {
+                final List<Long> chunk = new ArrayList<>(chunkSize);
+
+                while (productIds.next()) {
+                    chunk.add(productIds.getLong(0));
+
+                    if (chunk.size() >= chunkSize) {
+                        exported += exportChunk(chunk, embed, link, sink);
+                        chunk.clear();
+                    }
+                }
+
+                if (!chunk.isEmpty()) {
+                    exported += exportChunk(chunk, embed, link, sink);
+                }
+            } finally {
+                productIds.close();
+            }
+
+            return exported;
+        });
+    }
+
+    /* The cursor only holds scalar ids, so the persistence context can be cleared while it is open */
+    private int exportChunk(final List<Long> productIds, final boolean embed, final boolean link, final Consumer<ProductDto> sink) {
+        final List<Product> products = productServiceProxy.findProductsByIds(productIds);
+        productConverter.createDtos(products, embed, link).forEach(sink);
+
+        em.clear();
+        inventoryResolver.forget();
+
+        return products.size();
+    }
+}
@@ -0,0 +1,22 @@
+package pl.touk.widerest.api.products;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Product Import Error", description = "Describes a single record of a product import that could not be imported")
+public class ProductImportErrorDto {
+
+    @ApiModelProperty(position = 0, value = "Number of the line of the import holding the record, starting with 1", dataType = "java.lang.Long")
+    private Long line;
+
+    @ApiModelProperty(position = 1, value = "Reason the record was skipped", dataType = "java.lang.String")
+    private String error;
+}
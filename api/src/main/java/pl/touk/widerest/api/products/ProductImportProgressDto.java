@@ -0,0 +1,28 @@
+package pl.touk.widerest.api.products;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Product Import Progress", description = "Counts of the records of a product import processed so far")
+public class ProductImportProgressDto {
+
+    @ApiModelProperty(position = 0, value = "Number of records read so far", dataType = "java.lang.Long")
+    private Long processed;
+
+    @ApiModelProperty(position = 1, value = "Number of products created so far", dataType = "java.lang.Long")
+    private Long imported;
+
+    @ApiModelProperty(position = 2, value = "Number of records skipped so far", dataType = "java.lang.Long")
+    private Long failed;
+
+    @ApiModelProperty(position = 3, value = "Whether the whole import has been processed", dataType = "java.lang.Boolean")
+    private Boolean completed;
+}
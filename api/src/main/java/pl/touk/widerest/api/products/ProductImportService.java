@@ -0,0 +1,199 @@
+package pl.touk.widerest.api.products;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.broadleafcommerce.core.catalog.domain.Product;
+import org.broadleafcommerce.core.catalog.service.CatalogService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.catalog.CatalogChangePublisher;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Creates products from a stream of newline delimited {@link ProductDto} JSON records.
+ *
+ * Records are read and converted one at a time and saved in batches, each in its own transaction whose persistence
+ * context is flushed (in JDBC batches) and cleared at its end, so memory use does not grow with the size of the import.
+ * A record that cannot be parsed, validated or saved is reported and skipped; it does not abort the import.
+ */
+@Slf4j
+@Service("wdProductImportService")
+public class ProductImportService {
+
+    @Value("${widerest.catalog.import.batch-size:100}")
+    protected int batchSize;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    @Resource(name = "blCatalogService")
+    protected CatalogService catalogService;
+
+    @Resource
+    protected ProductConverter productConverter;
+
+    @Resource
+    protected ObjectMapper objectMapper;
+
+    @Resource
+    protected CatalogChangePublisher catalogChangePublisher;
+
+    /* The one validating @Valid request bodies, so records are held to the same constraints as POST /products */
+    @Resource(name = "mvcValidator")
+    protected Validator validator;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Has to be called outside of a transaction, as every batch commits on its own.
+     *
+     * @param errors   receives every skipped record, as soon as it is known to be skipped
+     * @param progress receives the counts after every batch
+     * @return the final counts
+     */
+    public ProductImportProgressDto importProducts(final BufferedReader reader,
+                                                   final Consumer<ProductImportErrorDto> errors,
+                                                   final Consumer<ProductImportProgressDto> progress) throws IOException {
+        final ObjectReader dtoReader = objectMapper.readerFor(ProductDto.class);
+        final Counts counts = new Counts();
+        final List<Record> batch = new ArrayList<>(batchSize);
+
+        long lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+
+            counts.processed++;
+
+            final ProductDto productDto;
+            try {
+                productDto = dtoReader.readValue(line);
+            } catch (JsonProcessingException e) {
+                fail(counts, errors, lineNumber, "Malformed record: " + e.getOriginalMessage());
+                continue;
+            }
+
+            final Set<ConstraintViolation<ProductDto>> violations = validator.validate(productDto);
+            if (!violations.isEmpty()) {
+                fail(counts, errors, lineNumber, violations.stream().map(ConstraintViolation::getMessage).collect(joining("; ")));
+                continue;
+            }
+
+            batch.add(new Record(lineNumber, productDto));
+
+            if (batch.size() >= batchSize) {
+                saveBatch(batch, counts, errors);
+                batch.clear();
+                progress.accept(counts.toDto(false));
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            saveBatch(batch, counts, errors);
+        }
+
+        log.info("Product import completed: {} records, {} imported, {} failed", counts.processed, counts.imported, counts.failed);
+
+        return counts.toDto(true);
+    }
+
+    /* A failed batch is rolled back as a whole and its records retried one by one, to tell the failing ones apart */
+    private void saveBatch(final List<Record> batch, final Counts counts, final Consumer<ProductImportErrorDto> errors) {
+        try {
+            counts.imported += save(batch);
+        } catch (RuntimeException batchFailure) {
+            if (batch.size() == 1) {
+                fail(counts, errors, batch.get(0).line, describe(batchFailure));
+                return;
+            }
+
+            for (Record record : batch) {
+                try {
+                    counts.imported += save(Collections.singletonList(record));
+                } catch (RuntimeException e) {
+                    fail(counts, errors, record.line, describe(e));
+                }
+            }
+        }
+    }
+
+    private int save(final List<Record> records) {
+        return transactionTemplate.execute(status -> {
+            final List<Long> productIds = new ArrayList<>(records.size());
+
+            for (Record record : records) {
+                final Product product = catalogService.saveProduct(productConverter.createEntity(record.productDto));
+                productIds.add(product.getId());
+            }
+
+            em.flush();
+            em.clear();
+
+            catalogChangePublisher.productsChanged(productIds.toArray(new Long[productIds.size()]));
+            return productIds.size();
+        });
+    }
+
+    private static void fail(final Counts counts, final Consumer<ProductImportErrorDto> errors, final long line, final String error) {
+        counts.failed++;
+        errors.accept(new ProductImportErrorDto(line, error));
+    }
+
+    private static String describe(final RuntimeException e) {
+        return Optional.ofNullable(e.getMessage()).orElse(e.getClass().getSimpleName());
+    }
+
+    private static class Record {
+        private final long line;
+        private final ProductDto productDto;
+
+        private Record(final long line, final ProductDto productDto) {
+            this.line = line;
+            this.productDto = productDto;
+        }
+    }
+
+    private static class Counts {
+        private long processed;
+        private long imported;
+        private long failed;
+
+        private ProductImportProgressDto toDto(final boolean completed) {
+            return new ProductImportProgressDto(processed, imported, failed, completed);
+        }
+    }
+}
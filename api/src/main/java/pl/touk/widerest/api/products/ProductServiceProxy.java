@@ -0,0 +1,222 @@
+package pl.touk.widerest.api.products;
+
+import com.google.common.collect.Lists;
+import org.broadleafcommerce.core.catalog.domain.CategoryProductXrefImpl;
+import org.broadleafcommerce.core.catalog.domain.Product;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.broadleafcommerce.core.catalog.domain.Sku;
+import org.broadleafcommerce.core.catalog.domain.SkuImpl;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.common.Cursor;
+import pl.touk.widerest.api.common.InvalidCursorException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+@Service("wdProductService")
+public class ProductServiceProxy {
+
+    /* Keeps IN (...) lists well below the limits of the databases we run on */
+    private static final int IN_CLAUSE_CHUNK_SIZE = 500;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    /**
+     * Reads ids of at most {@code limit} products ordered by id, starting right after the one
+     * the cursor points at. Seeks on the primary key, so the cost of a page does not depend on its depth.
+     */
+    @Transactional
+    public List<Long> findProductIdsAfter(final Optional<Cursor> cursor, final int limit) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+        final Root<ProductImpl> product = criteria.from(ProductImpl.class);
+        criteria.select(product.<Long>get("id"));
+
+        cursor.ifPresent(c -> criteria.where(builder.greaterThan(product.<Long>get("id"), c.getId())));
+
+        criteria.orderBy(builder.asc(product.get("id")));
+
+        return em.createQuery(criteria)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * Reads positions of at most {@code limit} visible products of a category, in the given order,
+     * starting right after the one the cursor points at. Each position is a cursor to the product
+     * (its id and sort key, absent for products without one), so the last one can be handed out to continue from.
+     *
+     * Both the ordering and the visibility check are evaluated by the database and the page is found with a seek
+     * on {@code (key, id)}, comparing the key's columns as stored, so its cost depends neither on the size
+     * of the category nor on the depth of the page. Products without a key are read last, by a seek on the id alone.
+     */
+    @Transactional
+    public List<Cursor> findProductPositionsInCategory(final long categoryId, final ProductSort sort, final Optional<Cursor> cursor,
+                                                       final int limit, final boolean privileged) {
+        final boolean pastKeyed = cursor.isPresent() && !cursor.get().getKey().isPresent();
+        final List<Cursor> positions = new ArrayList<>();
+
+        if (!pastKeyed) {
+            positions.addAll(findProductPositions(categoryId, sort, true, cursor, limit, privileged));
+        }
+
+        if (positions.size() < limit) {
+            positions.addAll(findProductPositions(categoryId, sort, false, cursor.filter(c -> pastKeyed),
+                    limit - positions.size(), privileged));
+        }
+
+        return positions;
+    }
+
+    private List<Cursor> findProductPositions(final long categoryId, final ProductSort sort, final boolean keyed,
+                                              final Optional<Cursor> cursor, final int limit, final boolean privileged) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        final Root<CategoryProductXrefImpl> xref = criteria.from(CategoryProductXrefImpl.class);
+        final Join<?, ?> product = xref.join("product");
+        final Join<?, ?> defaultSku = product.join("defaultSku", JoinType.LEFT);
+
+        final Path<Long> productId = product.get("id");
+        final Expression<? extends Comparable<?>> key = sort.key(builder, xref, defaultSku);
+
+        criteria.multiselect(productId, key);
+
+        final List<Predicate> predicates = new ArrayList<>();
+        predicates.add(builder.equal(xref.get("category").get("id"), categoryId));
+        predicates.add(CatalogPredicates.isProductVisible(builder, product, privileged));
+
+        if (keyed) {
+            predicates.add(sort.hasKey(builder, xref, defaultSku));
+            cursor.ifPresent(c -> {
+                final Comparable<?> lastKey = sort.parseKey(c.getKey().get());
+                predicates.add(builder.or(
+                        sort.beyond(builder, xref, defaultSku, lastKey),
+                        builder.and(sort.at(builder, xref, defaultSku, lastKey), beyond(builder, productId, c.getId(), sort.isDescending()))
+                ));
+            });
+            criteria.orderBy(order(builder, key, sort.isDescending()), order(builder, productId, sort.isDescending()));
+        } else {
+            predicates.add(builder.not(sort.hasKey(builder, xref, defaultSku)));
+            cursor.ifPresent(c -> predicates.add(beyond(builder, productId, c.getId(), sort.isDescending())));
+            criteria.orderBy(order(builder, productId, sort.isDescending()));
+        }
+
+        criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+
+        return em.createQuery(criteria)
+                .setMaxResults(limit)
+                .getResultList().stream()
+                .map(row -> Cursor.of(row.get(0, Long.class), keyed ? sort.format(row.get(1)) : null))
+                .collect(toList());
+    }
+
+    /**
+     * Reads products with given ids, in the order of the ids. Missing ones are skipped.
+     */
+    @Transactional
+    public List<Product> findProductsByIds(final List<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Product> criteria = builder.createQuery(Product.class);
+        final Root<ProductImpl> product = criteria.from(ProductImpl.class);
+        /* The default SKU is needed right away to tell whether the product is visible */
+        product.fetch("defaultSku", JoinType.LEFT);
+        criteria.select(product).where(product.get("id").in(productIds));
+
+        final Map<Long, Product> productsById = em.createQuery(criteria).getResultList().stream()
+                .collect(toMap(Product::getId, Function.identity(), (first, second) -> first));
+
+        return productIds.stream()
+                .map(productsById::get)
+                .filter(Objects::nonNull)
+                .collect(toList());
+    }
+
+    /**
+     * Initializes, for all given products at once, every association {@link ProductConverter#createDto} walks through.
+     * Issues one query per association (per chunk of products) no matter how many products there are,
+     * instead of several lazy loads for each of them.
+     */
+    @Transactional
+    public void fetchAssociations(final Collection<Product> products) {
+        final List<Long> productIds = products.stream()
+                .map(Product::getId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(toList());
+
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        fetch(ProductImpl.class, productIds, "defaultSku");
+        fetch(ProductImpl.class, productIds, "additionalSkus");
+        fetch(ProductImpl.class, productIds, "productAttributes");
+        fetch(ProductImpl.class, productIds, "productOptions", "productOption");
+        fetch(ProductImpl.class, productIds, "allParentCategoryXrefs", "category");
+
+        final List<Long> skuIds = products.stream()
+                .flatMap(product -> product.getAllSkus().stream())
+                .map(Sku::getId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(toList());
+
+        fetch(SkuImpl.class, skuIds, "skuMediaXref", "media");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Predicate beyond(final CriteriaBuilder builder, final Expression key, final Comparable value, final boolean descending) {
+        return descending ? builder.lessThan(key, value) : builder.greaterThan(key, value);
+    }
+
+    private static Order order(final CriteriaBuilder builder, final Expression<?> key, final boolean descending) {
+        return descending ? builder.desc(key) : builder.asc(key);
+    }
+
+    /* Loaded entities are already managed, so fetching them again merely initializes the given association */
+    private void fetch(final Class<?> entityClass, final List<Long> ids, final String association, final String... nestedAssociations) {
+        for (List<Long> chunk : Lists.partition(ids, IN_CLAUSE_CHUNK_SIZE)) {
+            final CriteriaBuilder builder = em.getCriteriaBuilder();
+            final CriteriaQuery<Object> criteria = builder.createQuery();
+            final Root<?> root = criteria.from(entityClass);
+
+            Fetch<?, ?> fetch = root.fetch(association, JoinType.LEFT);
+            for (String nestedAssociation : nestedAssociations) {
+                fetch = fetch.fetch(nestedAssociation, JoinType.LEFT);
+            }
+
+            criteria.select(root).distinct(true).where(root.get("id").in(chunk));
+
+            em.createQuery(criteria).getResultList();
+        }
+    }
+}
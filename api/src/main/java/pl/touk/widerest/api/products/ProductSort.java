@@ -0,0 +1,160 @@
+package pl.touk.widerest.api.products;
+
+import pl.touk.widerest.api.common.InvalidCursorException;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Orderings of product listings that can be evaluated, and seeked on, by the database.
+ *
+ * Every ordering has a single key, compared as stored so that the seek can use the key's columns as they are;
+ * ties are broken by product id in the same direction. Products without a key (null) follow all the others,
+ * ordered by id alone.
+ */
+public enum ProductSort {
+
+    /** Display order within the category */
+    DEFAULT(false) {
+        @Override
+        public Expression<BigDecimal> key(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku) {
+            return xref.get("displayOrder");
+        }
+
+        @Override
+        protected Comparable<?> parse(final String key) {
+            return new BigDecimal(key);
+        }
+    },
+
+    NAME(false) {
+        @Override
+        public Expression<String> key(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku) {
+            return defaultSku.get("name");
+        }
+
+        @Override
+        protected Comparable<?> parse(final String key) {
+            return key;
+        }
+    },
+
+    /** Sale price where there is one, retail price otherwise */
+    PRICE(false) {
+        @Override
+        public Expression<BigDecimal> key(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku) {
+            return builder.coalesce(defaultSku.<BigDecimal>get("salePrice"), defaultSku.<BigDecimal>get("retailPrice"));
+        }
+
+        /* Spelled out per column, so that neither is hidden behind the coalesce */
+        @Override
+        public Predicate hasKey(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku) {
+            return builder.or(builder.isNotNull(defaultSku.get("salePrice")), builder.isNotNull(defaultSku.get("retailPrice")));
+        }
+
+        @Override
+        public Predicate beyond(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku, final Comparable<?> key) {
+            return builder.or(
+                    builder.and(builder.isNotNull(defaultSku.get("salePrice")), beyondValue(builder, defaultSku.get("salePrice"), key, isDescending())),
+                    builder.and(builder.isNull(defaultSku.get("salePrice")), beyondValue(builder, defaultSku.get("retailPrice"), key, isDescending()))
+            );
+        }
+
+        @Override
+        public Predicate at(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku, final Comparable<?> key) {
+            return builder.or(
+                    builder.equal(defaultSku.get("salePrice"), key),
+                    builder.and(builder.isNull(defaultSku.get("salePrice")), builder.equal(defaultSku.get("retailPrice"), key))
+            );
+        }
+
+        @Override
+        protected Comparable<?> parse(final String key) {
+            return new BigDecimal(key);
+        }
+    },
+
+    /** Most recently activated first */
+    NEWEST(true) {
+        @Override
+        public Expression<Date> key(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku) {
+            return defaultSku.get("activeStartDate");
+        }
+
+        /* Timestamps are kept to the nanosecond, as stored, for ties to be told apart from near misses */
+        @Override
+        protected Comparable<?> parse(final String key) {
+            return Timestamp.from(Instant.parse(key));
+        }
+
+        @Override
+        public String format(final Object key) {
+            return ((Date) key).toInstant().toString();
+        }
+    };
+
+    private final boolean descending;
+
+    ProductSort(final boolean descending) {
+        this.descending = descending;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @param xref the category-product relation (only meaningful when listing a category)
+     */
+    public abstract Expression<? extends Comparable<?>> key(CriteriaBuilder builder, Path<?> xref, Path<?> defaultSku);
+
+    public Predicate hasKey(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku) {
+        return builder.isNotNull(key(builder, xref, defaultSku));
+    }
+
+    /**
+     * Products whose key comes after the given one in this ordering.
+     */
+    public Predicate beyond(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku, final Comparable<?> key) {
+        return beyondValue(builder, key(builder, xref, defaultSku), key, descending);
+    }
+
+    /**
+     * Products whose key equals the given one.
+     */
+    public Predicate at(final CriteriaBuilder builder, final Path<?> xref, final Path<?> defaultSku, final Comparable<?> key) {
+        return builder.equal(key(builder, xref, defaultSku), key);
+    }
+
+    protected abstract Comparable<?> parse(String key);
+
+    /**
+     * Reads a key written by {@link #format} back.
+     */
+    public Comparable<?> parseKey(final String key) throws InvalidCursorException {
+        try {
+            return parse(key);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new InvalidCursorException("Cursor does not match the '" + name() + "' ordering", e);
+        }
+    }
+
+    /**
+     * Writes a non-null key value read from the database, to be stored in a cursor.
+     */
+    public String format(final Object key) {
+        return key instanceof BigDecimal ? ((BigDecimal) key).toPlainString() : String.valueOf(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Predicate beyondValue(final CriteriaBuilder builder, final Expression key, final Comparable value, final boolean descending) {
+        return descending ? builder.lessThan(key, value) : builder.greaterThan(key, value);
+    }
+}
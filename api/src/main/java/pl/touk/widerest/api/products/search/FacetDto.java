@@ -12,6 +12,8 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 public class FacetDto {
+    /* Name of the search parameter filtering on this facet */
+    private String name;
     private Boolean active;
     private String label;
     private List<FacetValueDto> facetOptions;
@@ -12,6 +12,8 @@ import java.math.BigDecimal;
 @NoArgsConstructor
 @AllArgsConstructor
 public class FacetValueDto {
+    /* Value of the facet's search parameter selecting this option */
+    private String key;
     private String value;
     private BigDecimal minValue;
     private BigDecimal maxValue;
@@ -0,0 +1,192 @@
+package pl.touk.widerest.api.products.search;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.broadleafcommerce.common.exception.ServiceException;
+import org.broadleafcommerce.common.security.service.ExploitProtectionService;
+import org.broadleafcommerce.common.util.BLCSystemProperty;
+import org.broadleafcommerce.core.catalog.domain.Product;
+import org.broadleafcommerce.core.search.domain.SearchCriteria;
+import org.broadleafcommerce.core.search.domain.SearchResult;
+import org.broadleafcommerce.core.search.service.DatabaseSearchServiceImpl;
+import org.broadleafcommerce.core.search.service.SearchService;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+import pl.touk.widerest.api.DtoConverters;
+import pl.touk.widerest.api.catalog.CatalogChangeEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Runs full text product searches, translating the API's paging, sorting and facet filter parameters
+ * into a {@link SearchCriteria}.
+ *
+ * Results (product ids, totals and facets) are kept in a bounded cache keyed on the normalized query and criteria,
+ * so repeated searches skip the search service altogether. An index-backed search service only changes its results
+ * when the index is rebuilt, which has to go through {@link #rebuildIndex} (or be followed by {@link #invalidate}).
+ * The database-backed one reads the catalog directly, so with it committed product and category writes
+ * flush the cache as well. SKU changes (inventory, mostly) never do: searches only return product ids.
+ */
+@Service("wdProductSearchService")
+public class ProductSearchService implements ApplicationListener<CatalogChangeEvent> {
+
+    @Value("${widerest.catalog.search-cache.maximum-size:1000}")
+    protected long maximumSize;
+
+    @Value("${widerest.catalog.search-cache.time-to-live:300}")
+    protected long timeToLiveSeconds;
+
+    @Resource(name = "blSearchService")
+    protected SearchService searchService;
+
+    @Resource(name = "blExploitProtectionService")
+    protected ExploitProtectionService exploitProtectionService;
+
+    private Cache<Key, Result> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private boolean readsCatalog;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+                .build();
+        readsCatalog = DatabaseSearchServiceImpl.class.isAssignableFrom(AopUtils.getTargetClass(searchService));
+    }
+
+    /**
+     * @param filters values to filter on, keyed by the field of a facet (e.g. {@code price}, with values such as
+     *                {@code range[10:20]}); several values of a field are alternatives
+     */
+    public Result search(final String query, final Integer page, final Integer pageSize,
+                         final Map<String, String[]> filters, final String sort) throws ServiceException {
+        final SearchCriteria searchCriteria = buildSearchCriteria(page, pageSize, filters, sort);
+        final Key key = new Key(normalize(query), searchCriteria);
+
+        final Result cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long searchGeneration = generation.get();
+
+        final String cleanedUpQuery = exploitProtectionService.cleanString(StringUtils.trim(query));
+        final Result result = new Result(searchService.findSearchResultsByQuery(cleanedUpQuery, searchCriteria));
+
+        /* A write committed while searching might not be reflected in the result */
+        if (searchGeneration == generation.get()) {
+            cache.put(key, result);
+        }
+
+        return result;
+    }
+
+    public SearchCriteria buildSearchCriteria(final Integer page, final Integer pageSize,
+                                              final Map<String, String[]> filters, final String sort) {
+        final SearchCriteria searchCriteria = new SearchCriteria();
+        searchCriteria.setPage((page == null || page <= 0) ? 1 : page);
+
+        final int maxAllowedPageSize = BLCSystemProperty.resolveIntSystemProperty("web.maxPageSize");
+        final int defaultPageSize = BLCSystemProperty.resolveIntSystemProperty("web.defaultPageSize");
+        searchCriteria.setPageSize((pageSize == null || pageSize <= 0) ? defaultPageSize : Math.min(pageSize, maxAllowedPageSize));
+
+        searchCriteria.setFilterCriteria(new HashMap<>(Optional.ofNullable(filters).orElse(Collections.emptyMap())));
+
+        if (StringUtils.isNotBlank(sort)) {
+            searchCriteria.setSortQuery(sort.trim());
+        }
+
+        return searchCriteria;
+    }
+
+    /**
+     * Rebuilds the search index from the catalog and discards the results cached so far.
+     */
+    public void rebuildIndex() throws ServiceException, IOException {
+        searchService.rebuildIndex();
+        invalidate();
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        if (readsCatalog && event.getEntityType() != CatalogChangeEvent.EntityType.SKU) {
+            invalidate();
+        }
+    }
+
+    /* Case and runs of whitespace do not change what a query matches */
+    private static String normalize(final String query) {
+        return StringUtils.join(StringUtils.split(StringUtils.lowerCase(StringUtils.defaultString(query))), ' ');
+    }
+
+    /**
+     * Search result, shared between requests: it must not be modified.
+     */
+    @lombok.Value
+    public static class Result {
+        int page;
+        int pageSize;
+        int totalResults;
+        int totalPages;
+        List<FacetDto> facets;
+        List<Long> productIds;
+
+        private Result(final SearchResult searchResult) {
+            this.page = Optional.ofNullable(searchResult.getPage()).orElse(1);
+            this.pageSize = Optional.ofNullable(searchResult.getPageSize()).orElse(0);
+            this.totalResults = Optional.ofNullable(searchResult.getTotalResults()).orElse(0);
+            this.totalPages = Optional.ofNullable(searchResult.getTotalPages()).orElse(0);
+            this.facets = Collections.unmodifiableList(Optional.ofNullable(searchResult.getFacets()).orElse(Collections.emptyList()).stream()
+                    .map(DtoConverters.searchFacetDTOFacetToDto)
+                    .collect(toList()));
+            this.productIds = Collections.unmodifiableList(Optional.ofNullable(searchResult.getProducts()).orElse(Collections.emptyList()).stream()
+                    .map(Product::getId)
+                    .collect(toList()));
+        }
+    }
+
+    /* Filter values are compared as sets: their order does not matter */
+    @lombok.Value
+    private static class Key {
+        String query;
+        int page;
+        int pageSize;
+        String sort;
+        SortedMap<String, List<String>> filters;
+
+        private Key(final String query, final SearchCriteria searchCriteria) {
+            this.query = query;
+            this.page = searchCriteria.getPage();
+            this.pageSize = searchCriteria.getPageSize();
+            this.sort = searchCriteria.getSortQuery();
+            this.filters = new TreeMap<>();
+            searchCriteria.getFilterCriteria().forEach((name, values) ->
+                    filters.put(name, Arrays.stream(values).distinct().sorted().collect(toList())));
+        }
+    }
+}
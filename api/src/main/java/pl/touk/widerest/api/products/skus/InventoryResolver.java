@@ -0,0 +1,106 @@
+package pl.touk.widerest.api.products.skus;
+
+import org.broadleafcommerce.core.catalog.domain.Sku;
+import org.broadleafcommerce.core.inventory.service.InventoryService;
+import org.springframework.stereotype.Component;
+import pl.touk.widerest.api.RequestUtils;
+
+import javax.annotation.Resource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Resolves quantity and availability of SKUs in bulk and memoizes the results for the rest of the request,
+ * so that converting a product with many variants costs a single inventory lookup.
+ *
+ * There is no request to keep the results in when called from a background thread; such callers have to run
+ * their work through {@link #withMemo}, or every SKU is looked up on its own.
+ */
+@Component
+public class InventoryResolver {
+
+    private static final String MEMO_REQUEST_ATTRIBUTE_NAME = InventoryResolver.class.getName() + ".quantities";
+
+    @Resource
+    protected InventoryService inventoryService;
+
+    private final ThreadLocal<Map<Long, Integer>> scopedMemo = new ThreadLocal<>();
+
+    /**
+     * Runs the given work with quantities memoized until it completes, whether or not there is a request.
+     */
+    public <T> T withMemo(final Supplier<T> work) {
+        final Map<Long, Integer> enclosingMemo = scopedMemo.get();
+        scopedMemo.set(new HashMap<>());
+        try {
+            return work.get();
+        } finally {
+            if (enclosingMemo != null) {
+                scopedMemo.set(enclosingMemo);
+            } else {
+                scopedMemo.remove();
+            }
+        }
+    }
+
+    /**
+     * Fetches (in one call) quantities of all given SKUs that have not been resolved within this request yet.
+     */
+    public void resolve(final Collection<Sku> skus) {
+        resolve(skus, getMemo());
+    }
+
+    private void resolve(final Collection<Sku> skus, final Map<Long, Integer> memo) {
+        final List<Sku> unresolvedSkus = skus.stream()
+                .filter(Objects::nonNull)
+                .filter(sku -> sku.getId() != null && !memo.containsKey(sku.getId()))
+                .distinct()
+                .collect(toList());
+
+        if (!unresolvedSkus.isEmpty()) {
+            final Map<Sku, Integer> quantities = inventoryService.retrieveQuantitiesAvailable(unresolvedSkus);
+            unresolvedSkus.forEach(sku -> memo.put(sku.getId(), quantities.get(sku)));
+        }
+    }
+
+    /**
+     * @return quantity available, or {@code null} when the SKU's inventory is not tracked (always available)
+     */
+    public Integer getQuantityAvailable(final Sku sku) {
+        if (sku.getId() == null) {
+            return inventoryService.retrieveQuantityAvailable(sku);
+        }
+
+        final Map<Long, Integer> memo = getMemo();
+        if (!memo.containsKey(sku.getId())) {
+            resolve(Collections.singletonList(sku), memo);
+        }
+        return memo.get(sku.getId());
+    }
+
+    /* Same rule InventoryService#isAvailable(sku, 1) applies to the quantity it retrieves */
+    public boolean isAvailable(final Sku sku) {
+        final Integer quantityAvailable = getQuantityAvailable(sku);
+        return quantityAvailable == null || quantityAvailable >= 1;
+    }
+
+    /**
+     * Drops the quantities resolved so far, so that a request walking through the whole catalog does not hold them all.
+     */
+    public void forget() {
+        getMemo().clear();
+    }
+
+    private Map<Long, Integer> getMemo() {
+        return Optional.ofNullable(scopedMemo.get())
+                .orElseGet(() -> RequestUtils.getOrCreateAttribute(MEMO_REQUEST_ATTRIBUTE_NAME, HashMap::new));
+    }
+}
@@ -15,16 +15,22 @@ import org.broadleafcommerce.core.catalog.service.CatalogService;
 import org.broadleafcommerce.core.inventory.service.type.InventoryType;
 import org.springframework.hateoas.MediaTypes;
 import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import pl.touk.widerest.api.catalog.CatalogChangePublisher;
+import pl.touk.widerest.api.catalog.CatalogCounterService;
+import pl.touk.widerest.api.catalog.CatalogETagService;
 import pl.touk.widerest.api.common.CatalogUtils;
 import pl.touk.widerest.api.common.MediaConverter;
 import pl.touk.widerest.api.common.MediaDto;
@@ -69,6 +75,21 @@ public class SkuController {
     @Resource
     protected MediaConverter mediaConverter;
 
+    @Resource
+    protected InventoryResolver inventoryResolver;
+
+    @Resource(name = "wdSkuInventoryService")
+    protected SkuInventoryService skuInventoryService;
+
+    @Resource(name = "wdCatalogETagService")
+    protected CatalogETagService catalogETagService;
+
+    @Resource(name = "wdCatalogCounterService")
+    protected CatalogCounterService catalogCounterService;
+
+    @Resource
+    protected CatalogChangePublisher catalogChangePublisher;
+
     /* GET /products/{id}/skus */
     @Transactional
     @PreAuthorize("permitAll")
@@ -89,8 +110,11 @@ public class SkuController {
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
             @RequestParam(value = "link", defaultValue = "true") Boolean link
     ) {
+        final List<Sku> skus = productController.getProductById(productId).getAllSkus();
+        inventoryResolver.resolve(skus);
+
         return new Resources<>(
-                productController.getProductById(productId).getAllSkus().stream()
+                skus.stream()
                         .map(sku -> skuConverter.createDto(sku, embed, link))
                         .collect(toList()),
 
@@ -158,6 +182,8 @@ public class SkuController {
         product.setAdditionalSkus(allProductsSkus);
         catalogService.saveProduct(product);
 
+        catalogChangePublisher.productSkusChanged(productId, newSkuEntity.getId());
+
         return ResponseEntity.created(
                 ServletUriComponentsBuilder.fromCurrentRequest()
                         .path("/products/{productId}/skus/{skuId}")
@@ -177,24 +203,50 @@ public class SkuController {
     )
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of SKU details"),
+            @ApiResponse(code = 304, message = "The SKU has not been modified"),
             @ApiResponse(code = 404, message = "The specified SKU or product does not exist")
     })
-    public SkuDto getSkuById(
+    public ResponseEntity<SkuDto> getSkuById(
             @ApiParam(value = "ID of a specific product", required = true)
             @PathVariable(value = "productId") final Long productId,
             @ApiParam(value = "ID of a specific SKU", required = true)
             @PathVariable(value = "skuId") final Long skuId,
             @RequestParam(value = "embed", defaultValue = "false") Boolean embed,
-            @RequestParam(value = "link", defaultValue = "true") Boolean link
+            @RequestParam(value = "link", defaultValue = "true") Boolean link,
+            @ApiParam(value = "ETags of the already known representations")
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch
     ) {
+        final Optional<String> eTag = catalogETagService.forSku(productId, skuId, embed, link);
+
+        if (eTag.filter(tag -> CatalogETagService.matchesAny(ifNoneMatch, tag)).isPresent()) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag.get()).build();
+        }
+
+        final SkuDto skuDto = skuConverter.createDto(getSkuByIdForProductById(productId, skuId), embed, link);
 
-        return Optional.of(getSkuByIdForProductById(productId, skuId))
-                .map(skuEntity -> skuConverter.createDto(skuEntity, embed, link))
-                .get();
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        eTag.ifPresent(response::eTag);
+        return response.body(skuDto);
     }
 
 
 
+    /* GET /products/skus/count */
+    @Transactional
+    @PreAuthorize("permitAll")
+    @RequestMapping(value = "/skus/count", method = RequestMethod.GET)
+    @ApiOperation(
+            value = "Count all SKUs",
+            notes = "Gets a number of all SKUs of available products",
+            response = Long.class
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of SKUs count")
+    })
+    public Long getAllSkusCount() {
+        return catalogCounterService.countSkus();
+    }
+
     //    /* GET /skus/count */
 //    @Transactional
 //    @PreAuthorize("permitAll")
@@ -222,6 +274,26 @@ public class SkuController {
 //        return ResponseEntity.ok(skusCount);
 //    }
 
+    /* PATCH /products/skus/inventory */
+    @PreAuthorize("hasRole('PERMISSION_ALL_PRODUCT')")
+    @RequestMapping(value = "/skus/inventory", method = RequestMethod.PATCH)
+    @ApiOperation(
+            value = "Update quantities and availabilities of many SKUs",
+            notes = "Sets quantities and availabilities of all the given SKUs at once. SKUs are updated in chunks, " +
+                    "each committed on its own; SKUs of a chunk that could not be saved are reported as failed. " +
+                    "Entries lacking a SKU ID, having a negative quantity or an unknown availability are skipped",
+            response = SkuInventoryUpdateResultDto.class
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "SKUs updated, counts and skipped entries returned")
+    })
+    public SkuInventoryUpdateResultDto updateSkusInventory(
+            @ApiParam(value = "Stock levels of the SKUs", required = true)
+            @RequestBody final List<SkuInventoryDto> inventories
+    ) {
+        return skuInventoryService.updateInventory(inventories);
+    }
+
     /* GET /products/{productId}/skus/{skuId}/quantity */
     @Transactional
     @PreAuthorize("permitAll")
@@ -274,6 +346,8 @@ public class SkuController {
                     return e;
                 })
                 .map(catalogService::saveSku);
+
+        catalogChangePublisher.productSkusChanged(productId, skuId);
     }
 
     /* PUT /products/{productId}/skus/{skuId}/availability */
@@ -305,6 +379,8 @@ public class SkuController {
                     return e;
                 })
                 .map(catalogService::saveSku);
+
+        catalogChangePublisher.productSkusChanged(productId, skuId);
     }
 
     /* GET /products/{productId}/skus/{skuId}/availability */
@@ -363,6 +439,7 @@ public class SkuController {
         };
 
         catalogService.saveProduct(product);
+        catalogChangePublisher.productSkusChanged(productId, skuId);
     }
 
 
@@ -378,7 +455,8 @@ public class SkuController {
             @ApiResponse(code = 200, message = "Successful update of the specified SKU"),
             @ApiResponse(code = 400, message = "Not enough data has been provided"),
             @ApiResponse(code = 404, message = "The specified product or SKU does not exist"),
-            @ApiResponse(code = 409, message = "SKU with that name already exists")
+            @ApiResponse(code = 409, message = "SKU with that name already exists"),
+            @ApiResponse(code = 412, message = "The SKU has been modified in the meantime")
     })
     public void updateOneSkuByProductId(
             @ApiParam(value = "ID of a specific product", required = true)
@@ -386,12 +464,18 @@ public class SkuController {
             @ApiParam(value = "ID of a specific SKU", required = true)
             @PathVariable(value = "skuId") final Long skuId,
             @ApiParam(value = "(Full) Description of an updated SKU", required = true)
-            @Valid @RequestBody final SkuDto skuDto) {
+            @Valid @RequestBody final SkuDto skuDto,
+            @ApiParam(value = "ETag of the SKU the update is based on")
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+        catalogETagService.checkIfMatch(ifMatch, catalogETagService.forSku(productId, skuId, false, false));
 
         Optional.of(getSkuByIdForProductById(productId, skuId))
                 .map(e -> skuConverter.updateEntity(e, skuDto))
                 .map(catalogService::saveSku);
 
+        catalogChangePublisher.productSkusChanged(productId, skuId);
+
     }
 
     /* ---------------------------- MEDIA ENDPOINTS ---------------------------- */
@@ -499,6 +583,7 @@ public class SkuController {
 
         catalogService.saveSku(skuEntity);
         genericEntityService.remove(skuMediaXrefToBeRemoved);
+        catalogChangePublisher.productSkusChanged(productId, skuId);
     }
 
     /* PUT /{productId}/skus/{skuId}/media/{key} */
@@ -539,6 +624,7 @@ public class SkuController {
         sku.getSkuMediaXref().put(key, newSkuMediaXref);
 
         catalogService.saveSku(sku);
+        catalogChangePublisher.productSkusChanged(productId, skuId);
     }
 
 /* ---------------------------- MEDIA ENDPOINTS ---------------------------- */
@@ -13,14 +13,13 @@ import org.broadleafcommerce.core.catalog.domain.SkuMediaXref;
 import org.broadleafcommerce.core.catalog.domain.SkuMediaXrefImpl;
 import org.broadleafcommerce.core.catalog.domain.SkuProductOptionValueXref;
 import org.broadleafcommerce.core.catalog.service.CatalogService;
-import org.broadleafcommerce.core.inventory.service.InventoryService;
 import org.broadleafcommerce.core.inventory.service.type.InventoryType;
-import org.springframework.hateoas.mvc.ControllerLinkBuilder;
 import org.springframework.stereotype.Component;
 import pl.touk.widerest.api.Converter;
 import pl.touk.widerest.api.DtoConverters;
 import pl.touk.widerest.api.common.MediaConverter;
 import pl.touk.widerest.api.products.ProductController;
+import pl.touk.widerest.hal.LinkTemplate;
 
 import javax.annotation.Resource;
 import java.time.ZoneId;
@@ -33,18 +32,22 @@ import java.util.Optional;
 
 import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
-import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
 
 @Component
 @Slf4j
 public class SkuConverter implements Converter<Sku, SkuDto>{
 
+    private static final LinkTemplate SKU_LINK = LinkTemplate.of(SkuController.class, "getSkuById");
+    private static final LinkTemplate MEDIA_LINK = LinkTemplate.of(SkuController.class, "getMediaBySkuId");
+    private static final LinkTemplate AVAILABILITY_LINK = LinkTemplate.of(SkuController.class, "getSkuByIdAvailability");
+    private static final LinkTemplate QUANTITY_LINK = LinkTemplate.of(SkuController.class, "getSkuByIdQuantity");
+    private static final LinkTemplate PRODUCT_LINK = LinkTemplate.of(ProductController.class, "readOneProductById");
+
     @Resource(name="blCurrencyService")
     protected BroadleafCurrencyService blCurrencyService;
 
     @Resource
-    protected InventoryService inventoryService;
+    protected InventoryResolver inventoryResolver;
 
     @Resource
     protected MediaConverter mediaConverter;
@@ -62,9 +65,9 @@ public class SkuConverter implements Converter<Sku, SkuDto>{
                 .description(sku.getDescription())
                 .salePrice(Optional.ofNullable(sku.getSalePrice()).map(Money::getAmount).orElse(null))
                 .retailPrice(Optional.ofNullable(sku.getRetailPrice()).map(Money::getAmount).orElse(null))
-                .quantityAvailable(inventoryService.retrieveQuantityAvailable(sku))
+                .quantityAvailable(inventoryResolver.getQuantityAvailable(sku))
                 .availability(Optional.ofNullable(sku.getInventoryType()).map(InventoryType::getType).orElse(null))
-                .isAvailable(inventoryService.isAvailable(sku,1))
+                .isAvailable(inventoryResolver.isAvailable(sku))
                 .taxCode(sku.getTaxCode())
                 .validFrom(Optional.ofNullable(sku.getActiveStartDate()).map(Date::toInstant).map(instant -> instant.atZone(ZoneId.systemDefault())).orElse(null))
                 .validTo(Optional.ofNullable(sku.getActiveEndDate()).map(Date::toInstant).map(instant -> instant.atZone(ZoneId.systemDefault())).orElse(null))
@@ -82,23 +85,19 @@ public class SkuConverter implements Converter<Sku, SkuDto>{
                 )
                 .build();
 
-        dto.add(ControllerLinkBuilder.linkTo(methodOn(SkuController.class).getSkuById(sku.getProduct().getId(), sku.getId(), null, null))
-                .withSelfRel());
+        dto.add(SKU_LINK.withSelfRel(sku.getProduct().getId(), sku.getId()));
 
         if (link) {
 
-            dto.add(linkTo(methodOn(ProductController.class).readOneProductById(sku.getProduct().getId(), null, null))
-                    .withRel("product"));
+            dto.add(PRODUCT_LINK.withRel("product", sku.getProduct().getId()));
 
-            dto.add(linkTo(methodOn(SkuController.class).getMediaBySkuId(sku.getProduct().getId(), sku.getId()))
-                    .withRel("media"));
+            dto.add(MEDIA_LINK.withRel("media", sku.getProduct().getId(), sku.getId()));
 
-            dto.add(linkTo(methodOn(SkuController.class).getSkuByIdAvailability(sku.getProduct().getId(), sku.getId()))
-                    .withRel("availability"));
+            dto.add(AVAILABILITY_LINK.withRel("availability", sku.getProduct().getId(), sku.getId()));
 
             //dto.add((linkTo(methodOn(ProductController.class).getSkusCountByProductId(sku.getProduct().getId())).withRel("count")));
 
-            dto.add((linkTo(methodOn(SkuController.class).getSkuByIdQuantity(sku.getProduct().getId(), sku.getId())).withRel("quantity")));
+            dto.add(QUANTITY_LINK.withRel("quantity", sku.getProduct().getId(), sku.getId()));
         }
 
         return dto;
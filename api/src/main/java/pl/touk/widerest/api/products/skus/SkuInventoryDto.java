@@ -0,0 +1,26 @@
+package pl.touk.widerest.api.products.skus;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Sku Inventory", description = "Stock level of a single SKU")
+public class SkuInventoryDto {
+
+    @ApiModelProperty(position = 0, value = "ID of the SKU", required = true, dataType = "java.lang.Long")
+    private Long skuId;
+
+    @ApiModelProperty(position = 1, value = "Available quantity of the SKU. Left unchanged when not given", dataType = "java.lang.Integer")
+    private Integer quantity;
+
+    @ApiModelProperty(position = 2, value = "SKU's availability. Left unchanged when not given", dataType = "java.lang.String",
+            allowableValues = "ALWAYS_AVAILABLE, UNAVAILABLE, CHECK_QUANTITY")
+    private String availability;
+}
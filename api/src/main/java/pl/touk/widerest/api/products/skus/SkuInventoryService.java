@@ -0,0 +1,168 @@
+package pl.touk.widerest.api.products.skus;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.broadleafcommerce.core.catalog.domain.Sku;
+import org.broadleafcommerce.core.catalog.domain.SkuImpl;
+import org.broadleafcommerce.core.inventory.service.type.InventoryType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.catalog.CatalogChangePublisher;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Applies stock levels of many SKUs at once.
+ *
+ * SKUs are processed in chunks, each in its own transaction: a chunk is loaded with a single query, and only the SKUs
+ * whose quantity or availability actually differ get dirty, so the flush at the end of the chunk sends just their
+ * UPDATEs, in JDBC batches. Only the changed SKUs (and their products) are reported as changed, so only their cache
+ * entries are evicted. A chunk that fails is rolled back and reported, and the remaining ones are still processed.
+ */
+@Slf4j
+@Service("wdSkuInventoryService")
+public class SkuInventoryService {
+
+    @Value("${widerest.catalog.inventory.chunk-size:1000}")
+    protected int chunkSize;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    @Resource
+    protected CatalogChangePublisher catalogChangePublisher;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Has to be called outside of a transaction, as every chunk commits on its own.
+     * When a SKU is given more than once, its last entry wins.
+     */
+    public SkuInventoryUpdateResultDto updateInventory(final List<SkuInventoryDto> inventories) {
+        final SkuInventoryUpdateResultDto result = emptyResult();
+        final Map<Long, SkuInventoryDto> inventoriesBySkuId = new LinkedHashMap<>();
+
+        for (int i = 0; i < inventories.size(); i++) {
+            final SkuInventoryDto inventory = inventories.get(i);
+
+            if (inventory == null || inventory.getSkuId() == null
+                    || (inventory.getQuantity() != null && inventory.getQuantity() < 0)
+                    || (inventory.getAvailability() != null && InventoryType.getInstance(inventory.getAvailability()) == null)) {
+                result.getInvalid().add(i);
+            } else {
+                inventoriesBySkuId.put(inventory.getSkuId(), inventory);
+            }
+        }
+
+        for (List<Long> chunk : Lists.partition(new ArrayList<>(inventoriesBySkuId.keySet()), chunkSize)) {
+            try {
+                /* Counted only once committed */
+                final SkuInventoryUpdateResultDto chunkResult = transactionTemplate.execute(status -> updateChunk(chunk, inventoriesBySkuId));
+                result.setUpdated(result.getUpdated() + chunkResult.getUpdated());
+                result.setUnchanged(result.getUnchanged() + chunkResult.getUnchanged());
+                result.getNotFound().addAll(chunkResult.getNotFound());
+            } catch (RuntimeException e) {
+                log.error("SKU inventory update of {} SKUs, starting with ID: {}, failed", chunk.size(), chunk.get(0), e);
+                result.getFailed().addAll(chunk);
+            }
+        }
+
+        log.info("SKU inventory updated: {} changed, {} unchanged, {} not found, {} invalid, {} failed",
+                result.getUpdated(), result.getUnchanged(), result.getNotFound().size(), result.getInvalid().size(),
+                result.getFailed().size());
+
+        return result;
+    }
+
+    private SkuInventoryUpdateResultDto updateChunk(final List<Long> skuIds, final Map<Long, SkuInventoryDto> inventoriesBySkuId) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        final Root<SkuImpl> sku = criteria.from(SkuImpl.class);
+        final Join<?, ?> defaultProduct = sku.join("defaultProduct", JoinType.LEFT);
+        final Join<?, ?> additionalProduct = sku.join("product", JoinType.LEFT);
+        criteria.multiselect(sku, defaultProduct.get("id"), additionalProduct.get("id"));
+        criteria.where(sku.get("id").in(skuIds));
+
+        final Set<Long> foundSkuIds = new HashSet<>();
+        final List<Long> changedSkuIds = new ArrayList<>();
+        final Set<Long> changedProductIds = new HashSet<>();
+
+        for (Tuple row : em.createQuery(criteria).getResultList()) {
+            final Sku entity = row.get(0, Sku.class);
+            foundSkuIds.add(entity.getId());
+
+            if (apply(entity, inventoriesBySkuId.get(entity.getId()))) {
+                changedSkuIds.add(entity.getId());
+                /* A SKU is either the default one of its product or an additional one */
+                Optional.ofNullable(Optional.ofNullable(row.get(1, Long.class)).orElse(row.get(2, Long.class)))
+                        .ifPresent(changedProductIds::add);
+            }
+        }
+
+        em.flush();
+        em.clear();
+
+        final SkuInventoryUpdateResultDto result = emptyResult();
+        skuIds.stream().filter(id -> !foundSkuIds.contains(id)).forEach(result.getNotFound()::add);
+        result.setUpdated((long) changedSkuIds.size());
+        result.setUnchanged((long) (foundSkuIds.size() - changedSkuIds.size()));
+
+        if (!changedSkuIds.isEmpty()) {
+            catalogChangePublisher.skusChanged(changedSkuIds.toArray(new Long[changedSkuIds.size()]));
+            catalogChangePublisher.productsChanged(changedProductIds.toArray(new Long[changedProductIds.size()]));
+        }
+
+        return result;
+    }
+
+    private static SkuInventoryUpdateResultDto emptyResult() {
+        return new SkuInventoryUpdateResultDto(0L, 0L, new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    /* Leaves the entity clean, and thus out of the flush, when nothing differs */
+    private static boolean apply(final Sku sku, final SkuInventoryDto inventory) {
+        boolean changed = false;
+
+        if (inventory.getQuantity() != null && !Objects.equals(sku.getQuantityAvailable(), inventory.getQuantity())) {
+            sku.setQuantityAvailable(inventory.getQuantity());
+            changed = true;
+        }
+
+        if (inventory.getAvailability() != null) {
+            final InventoryType inventoryType = InventoryType.getInstance(inventory.getAvailability());
+            if (!Objects.equals(sku.getInventoryType(), inventoryType)) {
+                sku.setInventoryType(inventoryType);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+}
@@ -0,0 +1,33 @@
+package pl.touk.widerest.api.products.skus;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Sku Inventory Update Result", description = "Outcome of a bulk SKU inventory update")
+public class SkuInventoryUpdateResultDto {
+
+    @ApiModelProperty(position = 0, value = "Number of SKUs whose quantity or availability has changed", dataType = "java.lang.Long")
+    private Long updated;
+
+    @ApiModelProperty(position = 1, value = "Number of SKUs already having the given quantity and availability", dataType = "java.lang.Long")
+    private Long unchanged;
+
+    @ApiModelProperty(position = 2, value = "IDs of the SKUs that do not exist")
+    private List<Long> notFound;
+
+    @ApiModelProperty(position = 3, value = "Positions (starting with 0) of the entries lacking a SKU ID, having a negative quantity or an unknown availability")
+    private List<Integer> invalid;
+
+    @ApiModelProperty(position = 4, value = "IDs of the SKUs left unchanged because their chunk could not be saved")
+    private List<Long> failed;
+}
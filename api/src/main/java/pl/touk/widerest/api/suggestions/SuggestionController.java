@@ -0,0 +1,66 @@
+package pl.touk.widerest.api.suggestions;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import pl.touk.widerest.api.categories.CategoryController;
+import pl.touk.widerest.api.products.ProductController;
+import pl.touk.widerest.hal.LinkTemplate;
+import pl.touk.widerest.security.oauth2.ResourceServerConfig;
+
+import javax.annotation.Resource;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+@RestController
+@Validated
+@RequestMapping(value = ResourceServerConfig.API_PATH + "/suggestions", produces = { MediaTypes.HAL_JSON_VALUE })
+@Api(value = "suggestions", description = "Typeahead suggestions endpoint")
+public class SuggestionController {
+
+    private static final LinkTemplate PRODUCT_LINK = LinkTemplate.of(ProductController.class, "readOneProductById");
+    private static final LinkTemplate CATEGORY_LINK = LinkTemplate.of(CategoryController.class, "readOneCategoryById");
+
+    @Resource(name = "wdSuggestionService")
+    protected SuggestionService suggestionService;
+
+    /* GET /suggestions */
+    @PreAuthorize("permitAll")
+    @RequestMapping(method = RequestMethod.GET)
+    @ApiOperation(
+            value = "Suggest products and categories",
+            notes = "Gets available products and categories whose name, or any word of it, starts with the given text. " +
+                    "Names starting with the text come first",
+            response = SuggestionDto.class,
+            responseContainer = "List"
+    )
+    @ApiResponses({
+            @ApiResponse(code = 200, message = "Successful retrieval of suggestions", responseContainer = "List")
+    })
+    public List<SuggestionDto> getSuggestions(
+            @ApiParam(value = "Text typed so far", required = true)
+            @RequestParam(value = "q") final String q,
+            @ApiParam(value = "Maximum number of suggestions")
+            @RequestParam(value = "limit", defaultValue = "10") @Min(1) @Max(50) final Integer limit
+    ) {
+        return suggestionService.findSuggestions(q, limit).stream()
+                .map(suggestion -> new SuggestionDto(
+                        suggestion.getType(),
+                        suggestion.getName(),
+                        (suggestion.getType() == SuggestionIndex.Type.PRODUCT ? PRODUCT_LINK : CATEGORY_LINK).expand(suggestion.getId())
+                ))
+                .collect(toList());
+    }
+}
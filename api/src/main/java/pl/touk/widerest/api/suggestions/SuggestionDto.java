@@ -0,0 +1,25 @@
+package pl.touk.widerest.api.suggestions;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel(value = "Suggestion", description = "Product or category whose name matches a typed prefix")
+public class SuggestionDto {
+
+    @ApiModelProperty(position = 0, value = "Kind of the suggested resource", allowableValues = "PRODUCT, CATEGORY")
+    private SuggestionIndex.Type type;
+
+    @ApiModelProperty(position = 1, value = "Name of the product or category", dataType = "java.lang.String")
+    private String name;
+
+    @ApiModelProperty(position = 2, value = "Link to the product or category", dataType = "java.lang.String")
+    private String href;
+}
@@ -0,0 +1,151 @@
+package pl.touk.widerest.api.suggestions;
+
+import lombok.Value;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory prefix index of product and category names.
+ *
+ * Every name is indexed under its normalized (lower case, single spaced) form and under each of its word suffixes,
+ * so that "red sh" finds both "Red shoes" and "Big red shoes". Lookups are range scans of sorted maps: their cost
+ * depends on the number of suggestions returned, not on the size of the index.
+ *
+ * Entries may be added, replaced and removed while the index is being read; writers have to be serialized.
+ */
+public class SuggestionIndex {
+
+    public enum Type {
+        PRODUCT, CATEGORY
+    }
+
+    @Value
+    public static class Suggestion {
+        Type type;
+        long id;
+        String name;
+        Date activeStartDate;
+        Date activeEndDate;
+
+        /* Same rule as CatalogPredicates#isActive */
+        public boolean isActive(final Date now) {
+            return activeStartDate != null && !activeStartDate.after(now)
+                    && (activeEndDate == null || !activeEndDate.before(now));
+        }
+
+        private String getReference() {
+            return type.name() + ':' + id;
+        }
+    }
+
+    /* Separates the indexed text from the reference that makes the key unique; sorts before any character of the text */
+    private static final char SEPARATOR = '\u0000';
+
+    private final ConcurrentMap<String, Suggestion> suggestionsByReference = new ConcurrentHashMap<>();
+
+    /* Matches at the start of a name rank before matches of a later word */
+    private final ConcurrentSkipListMap<String, Suggestion> namePrefixes = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Suggestion> wordPrefixes = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds the suggestion, replacing the previous one for the same entity, if any.
+     */
+    public void put(final Suggestion suggestion) {
+        final Suggestion previous = suggestionsByReference.put(suggestion.getReference(), suggestion);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(suggestion);
+    }
+
+    public void remove(final Type type, final long id) {
+        final Suggestion previous = suggestionsByReference.remove(type.name() + ':' + id);
+        if (previous != null) {
+            unindex(previous);
+        }
+    }
+
+    public int size() {
+        return suggestionsByReference.size();
+    }
+
+    /**
+     * Finds at most {@code limit} suggestions active at the given time whose name, or any of its words,
+     * starts with the given prefix. Ordered alphabetically, matches at the start of a name first.
+     */
+    public List<Suggestion> find(final String prefix, final int limit, final Date now) {
+        final String normalizedPrefix = normalize(prefix);
+        if (normalizedPrefix.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        final Map<String, Suggestion> found = new LinkedHashMap<>();
+        collect(namePrefixes, normalizedPrefix, limit, now, found);
+        collect(wordPrefixes, normalizedPrefix, limit, now, found);
+        return new ArrayList<>(found.values());
+    }
+
+    static String normalize(final String text) {
+        return StringUtils.join(StringUtils.split(StringUtils.defaultString(text).toLowerCase(Locale.ROOT)), ' ');
+    }
+
+    private static void collect(final NavigableMap<String, Suggestion> prefixes, final String prefix, final int limit,
+                                final Date now, final Map<String, Suggestion> found) {
+        final Collection<Suggestion> candidates = prefixes.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+
+        for (Suggestion candidate : candidates) {
+            if (found.size() >= limit) {
+                return;
+            }
+            if (candidate.isActive(now)) {
+                found.putIfAbsent(candidate.getReference(), candidate);
+            }
+        }
+    }
+
+    private void index(final Suggestion suggestion) {
+        final List<String> words = words(suggestion);
+        if (words.isEmpty()) {
+            return;
+        }
+
+        namePrefixes.put(key(words, 0, suggestion), suggestion);
+        for (int i = 1; i < words.size(); i++) {
+            wordPrefixes.put(key(words, i, suggestion), suggestion);
+        }
+    }
+
+    private void unindex(final Suggestion suggestion) {
+        final List<String> words = words(suggestion);
+        if (words.isEmpty()) {
+            return;
+        }
+
+        namePrefixes.remove(key(words, 0, suggestion));
+        for (int i = 1; i < words.size(); i++) {
+            wordPrefixes.remove(key(words, i, suggestion));
+        }
+    }
+
+    private static List<String> words(final Suggestion suggestion) {
+        final String normalizedName = normalize(suggestion.getName());
+        return normalizedName.isEmpty() ? Collections.emptyList() : Arrays.asList(normalizedName.split(" "));
+    }
+
+    private static String key(final List<String> words, final int fromWord, final Suggestion suggestion) {
+        return String.join(" ", words.subList(fromWord, words.size())) + SEPARATOR + suggestion.getReference();
+    }
+}
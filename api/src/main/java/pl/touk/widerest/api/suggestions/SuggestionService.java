@@ -0,0 +1,229 @@
+package pl.touk.widerest.api.suggestions;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.broadleafcommerce.common.time.SystemTime;
+import org.broadleafcommerce.core.catalog.domain.CategoryImpl;
+import org.broadleafcommerce.core.catalog.domain.ProductImpl;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.ApplicationListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.api.catalog.CatalogChangeEvent;
+import pl.touk.widerest.api.catalog.CatalogPredicates;
+import pl.touk.widerest.api.suggestions.SuggestionIndex.Suggestion;
+import pl.touk.widerest.api.suggestions.SuggestionIndex.Type;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Keeps a {@link SuggestionIndex} of the names of all non-archived products and categories.
+ *
+ * The index is built at startup. Afterwards, changes committed through the API are queued and applied in the background
+ * every {@code widerest.suggestions.update-interval} milliseconds, reloading just the changed entities; a change
+ * of all products or categories rebuilds the whole index, which replaces the old one once complete. Lookups never wait
+ * for any of this: they read whatever index is current. Whether an entity is active is checked on every lookup,
+ * so entities becoming (in)active need no update.
+ */
+@Slf4j
+@Service("wdSuggestionService")
+public class SuggestionService implements ApplicationListener<CatalogChangeEvent>, SmartInitializingSingleton {
+
+    /* Keeps IN (...) lists well below the limits of the databases we run on */
+    private static final int CHUNK_SIZE = 500;
+
+    @PersistenceContext(unitName = "blPU")
+    protected EntityManager em;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private final AtomicReference<SuggestionIndex> index = new AtomicReference<>();
+
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean(true);
+
+    private final Set<Long> changedProductIds = ConcurrentHashMap.newKeySet();
+
+    private final Set<Long> changedCategoryIds = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        refresh();
+    }
+
+    public List<Suggestion> findSuggestions(final String prefix, final int limit) {
+        return Optional.ofNullable(index.get())
+                .map(current -> current.find(prefix, limit, SystemTime.asDate(true)))
+                .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public void onApplicationEvent(final CatalogChangeEvent event) {
+        switch (event.getEntityType()) {
+            case PRODUCT:
+                queue(event.getIds(), changedProductIds);
+                break;
+            case CATEGORY:
+                queue(event.getIds(), changedCategoryIds);
+                break;
+            default:
+                /* SKU changes reach the product name only through the product, which is reported as well */
+        }
+    }
+
+    private void queue(final Collection<Long> ids, final Set<Long> changedIds) {
+        if (ids.isEmpty()) {
+            rebuildRequested.set(true);
+        } else {
+            changedIds.addAll(ids);
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${widerest.suggestions.update-interval:1000}",
+            fixedDelayString = "${widerest.suggestions.update-interval:1000}"
+    )
+    public synchronized void refresh() {
+        if (rebuildRequested.getAndSet(false)) {
+            changedProductIds.clear();
+            changedCategoryIds.clear();
+
+            final SuggestionIndex newIndex = new SuggestionIndex();
+            try {
+                readOnlyTransaction.execute(status -> {
+                    loadProducts(Optional.empty()).forEach(newIndex::put);
+                    loadCategories(Optional.empty()).forEach(newIndex::put);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                /* Retried by the next update; lookups keep using the old index meanwhile */
+                rebuildRequested.set(true);
+                throw e;
+            }
+            index.set(newIndex);
+
+            log.info("Suggestion index built with {} entries", newIndex.size());
+            return;
+        }
+
+        final SuggestionIndex current = index.get();
+        if (current == null || (changedProductIds.isEmpty() && changedCategoryIds.isEmpty())) {
+            return;
+        }
+
+        final List<Long> productIds = drain(changedProductIds);
+        final List<Long> categoryIds = drain(changedCategoryIds);
+
+        try {
+            readOnlyTransaction.execute(status -> {
+                update(current, Type.PRODUCT, productIds, this::loadProducts);
+                update(current, Type.CATEGORY, categoryIds, this::loadCategories);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            changedProductIds.addAll(productIds);
+            changedCategoryIds.addAll(categoryIds);
+            throw e;
+        }
+    }
+
+    /* Entities that are not loaded any more have been archived or deleted */
+    private static void update(final SuggestionIndex index, final Type type, final List<Long> ids,
+                               final Function<Optional<List<Long>>, List<Suggestion>> loader) {
+        for (List<Long> chunk : Lists.partition(ids, CHUNK_SIZE)) {
+            final Set<Long> missingIds = new HashSet<>(chunk);
+            for (Suggestion suggestion : loader.apply(Optional.of(chunk))) {
+                index.put(suggestion);
+                missingIds.remove(suggestion.getId());
+            }
+            missingIds.forEach(id -> index.remove(type, id));
+        }
+    }
+
+    private List<Suggestion> loadProducts(final Optional<List<Long>> productIds) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        final Root<ProductImpl> product = criteria.from(ProductImpl.class);
+        final Join<?, ?> defaultSku = product.join("defaultSku");
+        criteria.multiselect(
+                product.get("id"),
+                defaultSku.get("name"),
+                defaultSku.get("activeStartDate"),
+                defaultSku.get("activeEndDate")
+        );
+        criteria.where(restrict(builder, product, productIds));
+
+        return toSuggestions(Type.PRODUCT, em.createQuery(criteria).getResultList());
+    }
+
+    private List<Suggestion> loadCategories(final Optional<List<Long>> categoryIds) {
+        final CriteriaBuilder builder = em.getCriteriaBuilder();
+        final CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        final Root<CategoryImpl> category = criteria.from(CategoryImpl.class);
+        criteria.multiselect(
+                category.get("id"),
+                category.get("name"),
+                category.get("activeStartDate"),
+                category.get("activeEndDate")
+        );
+        criteria.where(restrict(builder, category, categoryIds));
+
+        return toSuggestions(Type.CATEGORY, em.createQuery(criteria).getResultList());
+    }
+
+    private static Predicate[] restrict(final CriteriaBuilder builder, final Root<?> entity, final Optional<List<Long>> ids) {
+        final List<Predicate> predicates = new ArrayList<>();
+        predicates.add(CatalogPredicates.isNotArchived(builder, entity));
+        ids.ifPresent(chunk -> predicates.add(entity.get("id").in(chunk)));
+        return predicates.toArray(new Predicate[predicates.size()]);
+    }
+
+    private static List<Suggestion> toSuggestions(final Type type, final List<Tuple> rows) {
+        final List<Suggestion> suggestions = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            suggestions.add(new Suggestion(type, row.get(0, Long.class), row.get(1, String.class),
+                    row.get(2, Date.class), row.get(3, Date.class)));
+        }
+        return suggestions;
+    }
+
+    private static List<Long> drain(final Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Long> drained = new ArrayList<>(ids);
+        ids.removeAll(drained);
+        return drained;
+    }
+}
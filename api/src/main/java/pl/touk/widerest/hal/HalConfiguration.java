@@ -1,5 +1,6 @@
 package pl.touk.widerest.hal;
 
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -53,6 +54,8 @@ public class HalConfiguration {
                 .distinct()
                 .forEach(objectMapper -> {
                     objectMapper.addMixIn(ResourceSupportWithEmbedded.class, ResourceSupportWithEmbeddedMixIn.class);
+                    objectMapper.registerModule(new SimpleModule("StreamingResources")
+                            .addSerializer(StreamingResources.class, new StreamingResourcesSerializer(relProvider())));
                 });
         ;
 
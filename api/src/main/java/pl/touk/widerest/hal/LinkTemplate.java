@@ -0,0 +1,88 @@
+package pl.touk.widerest.hal;
+
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.core.AnnotationMappingDiscoverer;
+import org.springframework.hateoas.core.MappingDiscoverer;
+import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.util.UriTemplate;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Link to a controller method, with the method's URI template resolved once, when the template is created.
+ *
+ * Renders the same href as {@code linkTo(methodOn(controller).method(...))} with the path variables given
+ * and all the other arguments {@code null}, but without creating an invocation proxy and re-reading
+ * the mappings on every call. The base URI (scheme, host, context path, forwarded headers) is still taken
+ * from {@link ControllerLinkBuilder}, once per request and controller.
+ */
+public class LinkTemplate {
+
+    private static final MappingDiscoverer DISCOVERER = new AnnotationMappingDiscoverer(RequestMapping.class);
+
+    private static final String BASE_ATTRIBUTE_PREFIX = LinkTemplate.class.getName() + ".base.";
+
+    private final Class<?> controller;
+
+    private final UriTemplate methodTemplate;
+
+    private LinkTemplate(final Class<?> controller, final UriTemplate methodTemplate) {
+        this.controller = controller;
+        this.methodTemplate = methodTemplate;
+    }
+
+    /**
+     * Compiles the template of the (only) request mapped method with the given name.
+     */
+    public static LinkTemplate of(final Class<?> controller, final String methodName) {
+        final List<Method> methods = Arrays.stream(ReflectionUtils.getUniqueDeclaredMethods(controller))
+                .filter(method -> method.getName().equals(methodName))
+                .filter(method -> method.isAnnotationPresent(RequestMapping.class))
+                .collect(toList());
+
+        if (methods.size() != 1) {
+            throw new IllegalArgumentException("Expected exactly one request mapping named " + methodName + " in " + controller.getName());
+        }
+
+        final String classMapping = DISCOVERER.getMapping(controller);
+        final String methodMapping = DISCOVERER.getMapping(controller, methods.get(0));
+
+        if (classMapping == null || !methodMapping.startsWith(classMapping)) {
+            throw new IllegalArgumentException(controller.getName() + " has no request mapping of its own");
+        }
+
+        return new LinkTemplate(controller, new UriTemplate(methodMapping.substring(classMapping.length())));
+    }
+
+    public String expand(final Object... pathVariables) {
+        return base() + methodTemplate.expand(pathVariables).toASCIIString();
+    }
+
+    public Link withRel(final String rel, final Object... pathVariables) {
+        return new Link(expand(pathVariables), rel);
+    }
+
+    public Link withSelfRel(final Object... pathVariables) {
+        return withRel(Link.REL_SELF, pathVariables);
+    }
+
+    private String base() {
+        final RequestAttributes requestAttributes = RequestContextHolder.currentRequestAttributes();
+        final String attributeName = BASE_ATTRIBUTE_PREFIX + controller.getName();
+
+        String base = (String) requestAttributes.getAttribute(attributeName, RequestAttributes.SCOPE_REQUEST);
+        if (base == null) {
+            base = ControllerLinkBuilder.linkTo(controller).toString();
+            requestAttributes.setAttribute(attributeName, base, RequestAttributes.SCOPE_REQUEST);
+        }
+        return base;
+    }
+}
@@ -0,0 +1,41 @@
+package pl.touk.widerest.hal;
+
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.ResourceSupport;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * HAL collection resource whose content is produced only while it is being serialized.
+ * Every element handed to the sink is written straight into the {@code _embedded} array
+ * (see {@link StreamingResourcesSerializer}), so the whole collection never has to be held in memory.
+ *
+ * Renders the same JSON as {@link org.springframework.hateoas.Resources} would for the same content.
+ */
+public class StreamingResources<T> extends ResourceSupport {
+
+    @FunctionalInterface
+    public interface ContentProducer<T> {
+        void produce(Consumer<? super T> sink);
+    }
+
+    private final ContentProducer<T> contentProducer;
+
+    protected StreamingResources() {
+        this(sink -> { });
+    }
+
+    public StreamingResources(ContentProducer<T> contentProducer, Link... links) {
+        this(contentProducer, Arrays.asList(links));
+    }
+
+    public StreamingResources(ContentProducer<T> contentProducer, Iterable<Link> links) {
+        this.contentProducer = contentProducer;
+        links.forEach(this::add);
+    }
+
+    public void forEachContent(Consumer<? super T> action) {
+        contentProducer.produce(action);
+    }
+}
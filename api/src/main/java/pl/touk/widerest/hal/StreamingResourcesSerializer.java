@@ -0,0 +1,105 @@
+package pl.touk.widerest.hal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.NameTransformer;
+import org.springframework.hateoas.RelProvider;
+import org.springframework.hateoas.ResourceSupport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link StreamingResources} as a HAL document, serializing each element as soon as it is produced.
+ *
+ * Elements are grouped under their collection rels, like Spring HATEOAS does for regular resources.
+ * Elements of the first rel encountered are streamed; the (rare) ones of other rels, e.g. bundles
+ * among products, are held back and written after it.
+ */
+public class StreamingResourcesSerializer extends StdSerializer<StreamingResources> {
+
+    private final RelProvider relProvider;
+
+    public StreamingResourcesSerializer(RelProvider relProvider) {
+        super(StreamingResources.class);
+        this.relProvider = relProvider;
+    }
+
+    @Override
+    public void serialize(StreamingResources value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        jgen.writeStartObject();
+
+        /* _links, rendered by the HAL module exactly as for any other ResourceSupport */
+        final JsonSerializer<Object> linksSerializer = provider.findValueSerializer(ResourceSupport.class, null)
+                .unwrappingSerializer(NameTransformer.NOP);
+        linksSerializer.serialize(value, jgen, provider);
+
+        final EmbeddedWriter embeddedWriter = new EmbeddedWriter(jgen, provider);
+        try {
+            value.forEachContent(embeddedWriter::write);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        embeddedWriter.close();
+
+        jgen.writeEndObject();
+    }
+
+    private class EmbeddedWriter {
+
+        private final JsonGenerator jgen;
+        private final SerializerProvider provider;
+
+        private String streamedRel;
+        private final Map<String, List<Object>> heldBack = new LinkedHashMap<>();
+
+        EmbeddedWriter(JsonGenerator jgen, SerializerProvider provider) {
+            this.jgen = jgen;
+            this.provider = provider;
+        }
+
+        void write(Object element) {
+            final String rel = relProvider.getCollectionResourceRelFor(element.getClass());
+
+            try {
+                if (streamedRel == null) {
+                    streamedRel = rel;
+                    jgen.writeObjectFieldStart("_embedded");
+                    jgen.writeArrayFieldStart(rel);
+                }
+
+                if (streamedRel.equals(rel)) {
+                    provider.defaultSerializeValue(element, jgen);
+                } else {
+                    heldBack.computeIfAbsent(rel, key -> new ArrayList<>()).add(element);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() throws IOException {
+            if (streamedRel == null) {
+                return;
+            }
+
+            jgen.writeEndArray();
+
+            for (Map.Entry<String, List<Object>> entry : heldBack.entrySet()) {
+                jgen.writeArrayFieldStart(entry.getKey());
+                for (Object element : entry.getValue()) {
+                    provider.defaultSerializeValue(element, jgen);
+                }
+                jgen.writeEndArray();
+            }
+
+            jgen.writeEndObject();
+        }
+    }
+}
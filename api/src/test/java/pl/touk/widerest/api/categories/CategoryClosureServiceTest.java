@@ -0,0 +1,155 @@
+package pl.touk.widerest.api.categories;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class CategoryClosureServiceTest {
+
+    /* Incrementally maintained closure, as stored in the table */
+    private final Map<CategoryClosure.Key, Long> closure = new HashMap<>();
+
+    /* Current relations, in the order they were added */
+    private final List<long[]> relations = new ArrayList<>();
+
+    @Test
+    public void shouldCountPathsOfDiamond() {
+        /*
+         *  1 ── 2 ── 4 ── 5
+         *   └── 3 ──┘
+         */
+        final Map<CategoryClosure.Key, Long> paths = CategoryClosureService.countPaths(tree(5,
+                new long[] {1, 2}, new long[] {1, 3}, new long[] {2, 4}, new long[] {3, 4}, new long[] {4, 5}));
+
+        assertThat(paths.get(key(1, 4, 2))).isEqualTo(2L);
+        assertThat(paths.get(key(1, 5, 3))).isEqualTo(2L);
+        assertThat(paths.get(key(2, 5, 2))).isEqualTo(1L);
+        assertThat(paths.get(key(4, 5, 1))).isEqualTo(1L);
+        assertThat(paths).hasSize(9);
+    }
+
+    @Test
+    public void shouldCountExponentiallyManyPaths() {
+        /* A ladder of 40 diamonds: 2^40 paths from the top to the bottom */
+        final List<long[]> ladder = new ArrayList<>();
+        for (long top = 1; top < 120; top += 3) {
+            ladder.add(new long[] {top, top + 1});
+            ladder.add(new long[] {top, top + 2});
+            ladder.add(new long[] {top + 1, top + 3});
+            ladder.add(new long[] {top + 2, top + 3});
+        }
+
+        final Map<CategoryClosure.Key, Long> paths = CategoryClosureService.countPaths(tree(121, ladder.toArray(new long[0][])));
+
+        assertThat(paths.get(key(1, 121, 80))).isEqualTo(1L << 40);
+    }
+
+    @Test
+    public void shouldLeaveOutCategoriesOnCycle() {
+        /* 1 ── 2 ── 3 ── 2, 3 ── 4 */
+        final Map<CategoryClosure.Key, Long> paths = CategoryClosureService.countPaths(tree(4,
+                new long[] {1, 2}, new long[] {2, 3}, new long[] {3, 2}, new long[] {3, 4}));
+
+        assertThat(paths).isEmpty();
+    }
+
+    @Test
+    public void shouldMatchRebuildAfterEachIncrementalChange() {
+        final Random random = new Random(42);
+        final int categoryCount = 12;
+
+        for (int step = 0; step < 300; step++) {
+            final long parentId = 1 + random.nextInt(categoryCount);
+            final long childId = 1 + random.nextInt(categoryCount);
+
+            final int existing = indexOf(parentId, childId);
+            if (existing >= 0 && random.nextBoolean()) {
+                apply(parentId, childId, -1);
+                relations.remove(existing);
+            } else if (existing < 0) {
+                try {
+                    apply(parentId, childId, 1);
+                    relations.add(new long[] {parentId, childId});
+                } catch (CategoryCycleException e) {
+                    assertThat(parentId == childId || closure.keySet().stream().anyMatch(key ->
+                            key.getAncestorId() == childId && key.getDescendantId() == parentId)).isTrue();
+                }
+            }
+
+            assertThat(closure).isEqualTo(CategoryClosureService.countPaths(tree(categoryCount, relations.toArray(new long[0][]))));
+        }
+    }
+
+    @Test
+    public void shouldRejectRelationClosingCycle() {
+        apply(1, 2, 1);
+        apply(2, 3, 1);
+
+        try {
+            apply(3, 1, 1);
+            failBecauseExceptionWasNotThrown(CategoryCycleException.class);
+        } catch (CategoryCycleException e) {
+            assertThat(closure).hasSize(3);
+        }
+
+        try {
+            apply(2, 2, 1);
+            failBecauseExceptionWasNotThrown(CategoryCycleException.class);
+        } catch (CategoryCycleException e) {
+            assertThat(closure).hasSize(3);
+        }
+    }
+
+    /* Mirrors CategoryClosureService.updateRelation, with the table held in memory */
+    private void apply(final long parentId, final long childId, final int sign) {
+        CategoryClosureService.relationChanges(parentId, childId, segments(parentId, false), segments(childId, true), sign)
+                .forEach((key, delta) -> {
+                    final long count = closure.getOrDefault(key, 0L) + delta;
+                    if (count > 0) {
+                        closure.put(key, count);
+                    } else {
+                        closure.remove(key);
+                    }
+                });
+    }
+
+    private List<CategoryClosureService.Segment> segments(final long categoryId, final boolean fromCategory) {
+        return closure.entrySet().stream()
+                .filter(entry -> (fromCategory ? entry.getKey().getAncestorId() : entry.getKey().getDescendantId()) == categoryId)
+                .map(entry -> new CategoryClosureService.Segment(entry.getKey().getAncestorId(), entry.getKey().getDescendantId(),
+                        entry.getKey().getDistance(), entry.getValue()))
+                .collect(toList());
+    }
+
+    private int indexOf(final long parentId, final long childId) {
+        for (int i = 0; i < relations.size(); i++) {
+            if (relations.get(i)[0] == parentId && relations.get(i)[1] == childId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static CategoryTree tree(final int categoryCount, final long[]... relations) {
+        final CategoryTree.Builder builder = CategoryTree.builder();
+        for (long id = 1; id <= categoryCount; id++) {
+            builder.category(id, null, null, false);
+        }
+        for (long[] relation : relations) {
+            builder.relation(relation[0], relation[1]);
+        }
+        return builder.build();
+    }
+
+    private static CategoryClosure.Key key(final long ancestorId, final long descendantId, final int distance) {
+        return new CategoryClosure.Key(ancestorId, descendantId, distance);
+    }
+}
@@ -0,0 +1,67 @@
+package pl.touk.widerest.api.categories;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CategoryTreeTest {
+
+    private static final Date YESTERDAY = new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000);
+
+    /*
+     *  1 ── 2 ── 4
+     *   └── 3 ──┘   (4 has two parents, 3 is archived)
+     *  5 (inactive)
+     */
+    private final CategoryTree tree = CategoryTree.builder()
+            .category(1, YESTERDAY, null, false)
+            .category(2, YESTERDAY, null, false)
+            .category(3, YESTERDAY, null, true)
+            .category(4, YESTERDAY, null, false)
+            .category(5, null, null, false)
+            .relation(1, 2)
+            .relation(1, 3)
+            .relation(2, 4)
+            .relation(3, 4)
+            .build();
+
+    @Test
+    public void shouldResolveRootsParentsAndChildren() {
+        assertThat(tree.getRootIds()).containsExactly(1L, 5L);
+        assertThat(tree.getNode(1).get().getChildIds()).containsExactly(2L, 3L);
+        assertThat(tree.getNode(4).get().getParentIds()).containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void shouldMaterializePathThroughFirstParent() {
+        assertThat(tree.getNode(4).get().getPath()).containsExactly(1L, 2L, 4L);
+        assertThat(tree.getNode(4).get().getDepth()).isEqualTo(2);
+        assertThat(tree.getNode(1).get().getDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldFilterByVisibility() {
+        assertThat(tree.getVisibleRootIds(false)).containsExactly(1L);
+        assertThat(tree.getVisibleRootIds(true)).containsExactly(1L, 5L);
+        assertThat(tree.getVisibleChildIds(1, true)).containsExactly(2L);
+        assertThat(tree.getVisibleSubtreeIds(Collections.singletonList(1L), false)).containsExactly(1L, 2L, 4L);
+    }
+
+    @Test
+    public void shouldSurviveCycles() {
+        final CategoryTree cyclicTree = CategoryTree.builder()
+                .category(1, YESTERDAY, null, false)
+                .category(2, YESTERDAY, null, false)
+                .relation(1, 2)
+                .relation(2, 1)
+                .build();
+
+        assertThat(cyclicTree.getRootIds()).isEmpty();
+        assertThat(cyclicTree.getNode(2).get().getPath()).containsExactly(1L, 2L);
+        assertThat(cyclicTree.getVisibleSubtreeIds(Arrays.asList(1L, 2L), false)).containsExactly(1L, 2L);
+    }
+}
@@ -0,0 +1,48 @@
+package pl.touk.widerest.api.common;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class CursorTest {
+
+    @Test
+    public void shouldDecodeEncodedIdTest() {
+        final Cursor cursor = Cursor.decode(Cursor.of(2008L).encode()).get();
+
+        assertThat(cursor.getId(), equalTo(2008L));
+        assertThat(cursor.getKey(), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void shouldDecodeEncodedIdAndKeyTest() {
+        /* The key may contain the separator and any characters, the encoded form only URL safe ones */
+        final Cursor cursor = Cursor.of(2008L, "Zażółć: gęślą jaźń/?&");
+        final String token = cursor.encode();
+
+        assertThat(token.matches("[A-Za-z0-9_-]+"), equalTo(true));
+        assertThat(Cursor.decode(token), equalTo(Optional.of(cursor)));
+        assertThat(Cursor.decode(token).get().getKey(), equalTo(Optional.of("Zażółć: gęślą jaźń/?&")));
+    }
+
+    @Test
+    public void shouldDecodeBlankTokenToNoCursorTest() {
+        assertThat(Cursor.decode(null), equalTo(Optional.empty()));
+        assertThat(Cursor.decode(" "), equalTo(Optional.empty()));
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void shouldRejectTokenThatIsNotBase64Test() {
+        Cursor.decode("not a cursor!");
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void shouldRejectTokenWithoutNumericIdTest() {
+        Cursor.decode(Base64.getUrlEncoder().encodeToString("abc:key".getBytes(StandardCharsets.UTF_8)));
+    }
+}
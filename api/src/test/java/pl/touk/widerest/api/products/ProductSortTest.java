@@ -0,0 +1,32 @@
+package pl.touk.widerest.api.products;
+
+import org.junit.Test;
+import pl.touk.widerest.api.common.InvalidCursorException;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProductSortTest {
+
+    @Test
+    public void shouldKeepTimestampKeysToTheNanosecond() {
+        final Timestamp activeStartDate = Timestamp.valueOf("2016-03-01 12:00:00.123456789");
+
+        final Comparable<?> key = ProductSort.NEWEST.parseKey(ProductSort.NEWEST.format(activeStartDate));
+
+        assertThat(key).isEqualTo(activeStartDate);
+    }
+
+    @Test
+    public void shouldKeepDecimalKeysAsWritten() {
+        assertThat(ProductSort.PRICE.format(new BigDecimal("1E+2"))).isEqualTo("100");
+        assertThat(ProductSort.PRICE.parseKey("79.990")).isEqualTo(new BigDecimal("79.990"));
+    }
+
+    @Test(expected = InvalidCursorException.class)
+    public void shouldRejectKeyOfAnotherOrdering() {
+        ProductSort.NEWEST.parseKey("1456833600000");
+    }
+}
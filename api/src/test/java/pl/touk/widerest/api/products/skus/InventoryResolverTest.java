@@ -0,0 +1,70 @@
+package pl.touk.widerest.api.products.skus;
+
+import org.broadleafcommerce.core.catalog.domain.Sku;
+import org.broadleafcommerce.core.catalog.domain.SkuImpl;
+import org.broadleafcommerce.core.inventory.service.InventoryService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class InventoryResolverTest {
+
+    private final InventoryResolver inventoryResolver = new InventoryResolver();
+
+    private final Sku firstSku = sku(1L);
+
+    private final Sku secondSku = sku(2L);
+
+    @Before
+    public void setUp() {
+        final Map<Sku, Integer> quantities = new HashMap<>();
+        quantities.put(firstSku, 5);
+        quantities.put(secondSku, 0);
+
+        inventoryResolver.inventoryService = mock(InventoryService.class);
+        when(inventoryResolver.inventoryService.retrieveQuantitiesAvailable(anyCollectionOf(Sku.class))).thenReturn(quantities);
+    }
+
+    @Test
+    public void shouldLookSkusUpOnceOutsideOfRequestWithinMemoScope() {
+        inventoryResolver.withMemo(() -> {
+            inventoryResolver.resolve(Arrays.asList(firstSku, secondSku));
+
+            assertThat(inventoryResolver.getQuantityAvailable(firstSku)).isEqualTo(5);
+            assertThat(inventoryResolver.isAvailable(secondSku)).isFalse();
+            return null;
+        });
+
+        verify(inventoryResolver.inventoryService, times(1)).retrieveQuantitiesAvailable(anyCollectionOf(Sku.class));
+        verifyNoMoreInteractions(inventoryResolver.inventoryService);
+    }
+
+    @Test
+    public void shouldForgetQuantitiesWhenMemoScopeEnds() {
+        inventoryResolver.withMemo(() -> {
+            inventoryResolver.resolve(Arrays.asList(firstSku, secondSku));
+            return null;
+        });
+
+        inventoryResolver.withMemo(() -> inventoryResolver.getQuantityAvailable(firstSku));
+
+        verify(inventoryResolver.inventoryService, times(2)).retrieveQuantitiesAvailable(anyCollectionOf(Sku.class));
+    }
+
+    private static Sku sku(final long id) {
+        final Sku sku = new SkuImpl();
+        sku.setId(id);
+        return sku;
+    }
+}
@@ -0,0 +1,70 @@
+package pl.touk.widerest.api.products.skus;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SkuInventoryServiceTest {
+
+    private final SkuInventoryService skuInventoryService = new SkuInventoryService();
+
+    @Before
+    public void setUp() {
+        skuInventoryService.chunkSize = 2;
+        skuInventoryService.transactionManager = new UnavailableTransactionManager();
+        skuInventoryService.init();
+    }
+
+    @Test
+    public void shouldReportSkusOfFailedChunks() {
+        final SkuInventoryUpdateResultDto result = skuInventoryService.updateInventory(Arrays.asList(
+                SkuInventoryDto.builder().skuId(1L).quantity(5).build(),
+                SkuInventoryDto.builder().skuId(2L).quantity(5).build(),
+                SkuInventoryDto.builder().skuId(3L).availability("UNAVAILABLE").build()
+        ));
+
+        assertThat(result.getFailed()).containsExactly(1L, 2L, 3L);
+        assertThat(result.getUpdated()).isZero();
+        assertThat(result.getUnchanged()).isZero();
+        assertThat(result.getNotFound()).isEmpty();
+        assertThat(result.getInvalid()).isEmpty();
+    }
+
+    @Test
+    public void shouldSkipInvalidEntries() {
+        final SkuInventoryUpdateResultDto result = skuInventoryService.updateInventory(Arrays.asList(
+                SkuInventoryDto.builder().skuId(1L).quantity(-1).build(),
+                null,
+                SkuInventoryDto.builder().quantity(1).build(),
+                SkuInventoryDto.builder().skuId(2L).availability("SOMETIMES").build()
+        ));
+
+        assertThat(result.getInvalid()).containsExactly(0, 1, 2, 3);
+        assertThat(result.getFailed()).isEmpty();
+    }
+
+    private static class UnavailableTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            throw new CannotCreateTransactionException("Database unavailable");
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            throw new IllegalStateException("No transaction");
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            throw new IllegalStateException("No transaction");
+        }
+    }
+}
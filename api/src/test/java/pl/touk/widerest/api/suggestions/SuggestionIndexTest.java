@@ -0,0 +1,53 @@
+package pl.touk.widerest.api.suggestions;
+
+import org.junit.Test;
+import pl.touk.widerest.api.suggestions.SuggestionIndex.Suggestion;
+import pl.touk.widerest.api.suggestions.SuggestionIndex.Type;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.extractProperty;
+
+public class SuggestionIndexTest {
+
+    private static final Date NOW = new Date();
+    private static final Date YESTERDAY = new Date(NOW.getTime() - 24 * 60 * 60 * 1000);
+    private static final Date TOMORROW = new Date(NOW.getTime() + 24 * 60 * 60 * 1000);
+
+    private final SuggestionIndex index = new SuggestionIndex();
+
+    @Test
+    public void shouldRankNameMatchesBeforeWordMatches() {
+        index.put(new Suggestion(Type.PRODUCT, 1, "Big  Red Shoes", YESTERDAY, null));
+        index.put(new Suggestion(Type.PRODUCT, 2, "Red shoes", YESTERDAY, null));
+        index.put(new Suggestion(Type.CATEGORY, 3, "Redwood", YESTERDAY, null));
+
+        assertThat(extractProperty("id").from(index.find(" RED ", 10, NOW))).containsExactly(2L, 3L, 1L);
+        assertThat(extractProperty("id").from(index.find("red sh", 10, NOW))).containsExactly(2L, 1L);
+        assertThat(extractProperty("id").from(index.find("red", 2, NOW))).containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void shouldSkipInactiveSuggestions() {
+        index.put(new Suggestion(Type.PRODUCT, 1, "Shirt", YESTERDAY, null));
+        index.put(new Suggestion(Type.PRODUCT, 2, "Shoes", TOMORROW, null));
+        index.put(new Suggestion(Type.PRODUCT, 3, "Shorts", YESTERDAY, YESTERDAY));
+
+        assertThat(extractProperty("id").from(index.find("sh", 10, NOW))).containsExactly(1L);
+    }
+
+    @Test
+    public void shouldReplaceAndRemoveSuggestions() {
+        index.put(new Suggestion(Type.PRODUCT, 1, "Shirt", YESTERDAY, null));
+        index.put(new Suggestion(Type.PRODUCT, 1, "Blouse", YESTERDAY, null));
+
+        assertThat(index.find("shirt", 10, NOW)).isEmpty();
+        assertThat(extractProperty("name").from(index.find("blo", 10, NOW))).containsExactly("Blouse");
+
+        index.remove(Type.PRODUCT, 1);
+
+        assertThat(index.find("blo", 10, NOW)).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+}
@@ -0,0 +1,8 @@
+--
+-- Indexes backing the order listing (GET /orders), for databases created by Hibernate (hbm2ddl.auto=create
+-- or create-drop) in development. Other databases get them from upgrade/create_order_indexes.sql.
+--
+CREATE INDEX ORDER_DATE_CREATED_ID_INDEX ON BLC_ORDER (DATE_CREATED, ORDER_ID);
+CREATE INDEX ORDER_STATUS_ID_INDEX ON BLC_ORDER (ORDER_STATUS, ORDER_ID);
+CREATE INDEX ORDER_CUSTOMER_ID_INDEX ON BLC_ORDER (CUSTOMER_ID, ORDER_ID);
+CREATE INDEX ORDER_ATTRIBUTE_VALUE_INDEX ON BLC_ORDER_ATTRIBUTE (NAME, VALUE, ORDER_ID);
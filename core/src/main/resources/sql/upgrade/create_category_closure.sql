@@ -0,0 +1,14 @@
+--
+-- Category closure table (pl.touk.widerest.api.categories.CategoryClosure), used to list categories by level
+-- and descendants of a category. Required before deploying on a database running with hbm2ddl.auto=validate;
+-- the table is filled from the existing category relations on the first start.
+--
+CREATE TABLE WD_CATEGORY_CLOSURE (
+    ANCESTOR_ID BIGINT NOT NULL,
+    DESCENDANT_ID BIGINT NOT NULL,
+    DISTANCE INTEGER NOT NULL,
+    PATH_COUNT BIGINT NOT NULL,
+    PRIMARY KEY (ANCESTOR_ID, DESCENDANT_ID, DISTANCE)
+);
+CREATE INDEX WD_CATCLOSURE_DESCENDANT_INDEX ON WD_CATEGORY_CLOSURE (DESCENDANT_ID);
+CREATE INDEX WD_CATCLOSURE_DISTANCE_INDEX ON WD_CATEGORY_CLOSURE (DISTANCE);
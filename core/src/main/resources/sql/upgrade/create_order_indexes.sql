@@ -0,0 +1,10 @@
+--
+-- Indexes backing the order listing (GET /orders), which pages newest first by seeking on ORDER_ID:
+-- each filter gets a composite index ending in ORDER_ID, so a page is read in index order and stops
+-- after the requested number of rows. The attribute index answers the 'channel' filter's lookup by
+-- name and value without reading the table.
+--
+CREATE INDEX ORDER_DATE_CREATED_ID_INDEX ON BLC_ORDER (DATE_CREATED, ORDER_ID);
+CREATE INDEX ORDER_STATUS_ID_INDEX ON BLC_ORDER (ORDER_STATUS, ORDER_ID);
+CREATE INDEX ORDER_CUSTOMER_ID_INDEX ON BLC_ORDER (CUSTOMER_ID, ORDER_ID);
+CREATE INDEX ORDER_ATTRIBUTE_VALUE_INDEX ON BLC_ORDER_ATTRIBUTE (NAME, VALUE, ORDER_ID);
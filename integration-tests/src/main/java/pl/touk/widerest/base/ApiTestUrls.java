@@ -20,12 +20,18 @@ public class ApiTestUrls {
     public static final String PRODUCTS_URL = API_BASE_URL + "/products";
     public static final String PRODUCT_BY_ID_URL = PRODUCTS_URL + "/{productId}";
     public static final String PRODUCTS_COUNT_URL = PRODUCTS_URL + "/count";
+    public static final String PRODUCTS_IMPORT_URL = PRODUCTS_URL + "/import";
+    public static final String PRODUCTS_EXPORT_URL = PRODUCTS_URL + "/export";
+    public static final String PRODUCTS_SEARCH_URL = PRODUCTS_URL + "/search";
+    public static final String PRODUCTS_SEARCH_INDEX_URL = PRODUCTS_SEARCH_URL + "/index";
     public static final String PRODUCT_BY_ID_SKUS = PRODUCTS_URL + "/{productId}/skus";
     public static final String PRODUCT_BY_ID_SKU_BY_ID = PRODUCT_BY_ID_SKUS + "/{skuId}";
     public static final String PRODUCT_BY_ID_SKUS_DEFAULT = PRODUCT_BY_ID_SKUS + "/default";
     public static final String CATEGORIES_BY_PRODUCT_BY_ID_COUNT = PRODUCT_BY_ID_URL + "/categories/count";
     public static final String SKUS_COUNT_URL = PRODUCT_BY_ID_SKUS + "/count";
     public static final String MEDIA_BY_KEY_URL = PRODUCT_BY_ID_SKU_BY_ID + "/media/{key}";
+    public static final String ALL_SKUS_COUNT_URL = PRODUCTS_URL + "/skus/count";
+    public static final String SKUS_INVENTORY_URL = PRODUCTS_URL + "/skus/inventory";
     public static final String BUNDLES_URL = PRODUCTS_URL + "/bundles";
     public static final String BUNDLE_BU_ID_URL = BUNDLES_URL + "/{bundleId}";
     public static final String PRODUCT_BY_ID_ATTRIBUTES_URL = PRODUCT_BY_ID_URL + "/attributes";
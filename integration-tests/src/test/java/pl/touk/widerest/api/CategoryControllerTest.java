@@ -6,18 +6,38 @@ import org.broadleafcommerce.core.inventory.service.type.InventoryType;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.web.client.HttpClientErrorException;
 import pl.touk.widerest.AbstractTest;
 import pl.touk.widerest.api.categories.CategoryDto;
+import pl.touk.widerest.api.categories.CategoryProductChangeResultDto;
+import pl.touk.widerest.api.categories.CategoryProductChangeResultDto.Operation;
+import pl.touk.widerest.api.categories.CategoryProductChangeResultDto.Status;
+import pl.touk.widerest.api.categories.CategoryProductsChangeDto;
 import pl.touk.widerest.api.products.ProductDto;
+import pl.touk.widerest.api.products.ProductSort;
+import pl.touk.widerest.base.ApiTestUrls;
 import pl.touk.widerest.base.ApiTestUtils;
 import pl.touk.widerest.base.DtoTestFactory;
 import pl.touk.widerest.security.oauth2.Scope;
 
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
 import static pl.touk.widerest.base.DtoTestFactory.categories;
 import static pl.touk.widerest.base.DtoTestFactory.products;
 
@@ -64,6 +84,17 @@ public class CategoryControllerTest extends AbstractTest {
         );
     }
 
+    @Test
+    public void shouldCountCategoriesRightAfterCreatingAndDeletingOne() throws Throwable {
+        final long categoriesCount = backofficeRestTemplate.getForObject(ApiTestUrls.CATEGORIES_COUNT_URL, Long.class, serverPort);
+
+        final long categoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(categories().testCategoryDto()));
+        assertThat(backofficeRestTemplate.getForObject(ApiTestUrls.CATEGORIES_COUNT_URL, Long.class, serverPort)).isEqualTo(categoriesCount + 1);
+
+        catalogOperationsRemote.removeCategory(categoryId);
+        assertThat(backofficeRestTemplate.getForObject(ApiTestUrls.CATEGORIES_COUNT_URL, Long.class, serverPort)).isEqualTo(categoriesCount);
+    }
+
     // TODO: better field by field comparison
     @Test
     public void shouldCreateNewCategoryWithProperlyInitializedFields() throws Throwable {
@@ -374,4 +405,94 @@ public class CategoryControllerTest extends AbstractTest {
                 )
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldPageThroughProductsWithEqualSortKeysWithoutSkippingOrRepeatingAny() throws Throwable {
+        givenAuthorizationFor(Scope.STAFF, adminRestTemplate -> {
+            // Given a category with five products sharing their price and activation date
+            final long categoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(categories().testCategoryDto()));
+            final List<Long> productIds = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                final long productId = ApiTestUtils.getIdFromEntity(
+                        catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory()));
+                catalogOperationsRemote.addProductToCategoryReference(categoryId, productId);
+                productIds.add(productId);
+            }
+
+            for (ProductSort sort : ProductSort.values()) {
+                // When reading them two at a time
+                final List<Long> readProductIds = readAllProductIds(apiUrl + "/categories/" + categoryId + "/products?limit=2&sort=" + sort);
+
+                // Then every product is read exactly once
+                assertThat(readProductIds).as(sort.name()).hasSameSizeAs(productIds).containsOnlyElementsOf(productIds);
+            }
+
+            // Then ties are broken by product id, in the direction of the ordering
+            assertThat(readAllProductIds(apiUrl + "/categories/" + categoryId + "/products?limit=2&sort=PRICE"))
+                    .isEqualTo(productIds);
+            final List<Long> newestFirst = new ArrayList<>(productIds);
+            Collections.reverse(newestFirst);
+            assertThat(readAllProductIds(apiUrl + "/categories/" + categoryId + "/products?limit=2&sort=NEWEST"))
+                    .isEqualTo(newestFirst);
+        });
+    }
+
+    @Test
+    public void shouldReportOutcomeOfEveryItemOfProductsChange() throws Throwable {
+        givenAuthorizationFor(Scope.STAFF, adminRestTemplate -> {
+            // Given a category with two products, and two other products
+            final long categoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(categories().testCategoryDto()));
+            final List<Long> productIds = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                productIds.add(ApiTestUtils.getIdFromEntity(
+                        catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory())));
+            }
+            catalogOperationsRemote.addProductToCategoryReference(categoryId, productIds.get(0));
+            catalogOperationsRemote.addProductToCategoryReference(categoryId, productIds.get(1));
+
+            final String missingProductHref = apiUrl + "/products/" + Long.MAX_VALUE;
+            final CategoryProductsChangeDto change = CategoryProductsChangeDto.builder()
+                    .remove(Arrays.asList(productHref(productIds.get(0)), productHref(productIds.get(2))))
+                    .add(Arrays.asList(productHref(productIds.get(3)), productHref(productIds.get(1)), missingProductHref, "not-a-link"))
+                    .build();
+
+            // When patching the products of the category
+            adminRestTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory());
+            final Resources<CategoryProductChangeResultDto> results = adminRestTemplate.exchange(
+                    apiUrl + "/categories/{categoryId}/products", HttpMethod.PATCH, new HttpEntity<>(change),
+                    new ParameterizedTypeReference<Resources<CategoryProductChangeResultDto>>() {}, categoryId).getBody();
+
+            // Then every item has its outcome, removals first
+            assertThat(results.getContent()).extracting("href", "operation", "status").containsExactly(
+                    tuple(productHref(productIds.get(0)), Operation.REMOVE, Status.REMOVED),
+                    tuple(productHref(productIds.get(2)), Operation.REMOVE, Status.NOT_PRESENT),
+                    tuple(productHref(productIds.get(3)), Operation.ADD, Status.ADDED),
+                    tuple(productHref(productIds.get(1)), Operation.ADD, Status.ALREADY_PRESENT),
+                    tuple(missingProductHref, Operation.ADD, Status.NOT_FOUND),
+                    tuple("not-a-link", Operation.ADD, Status.INVALID_HREF)
+            );
+
+            // Then the category holds the products kept and added
+            assertThat(readAllProductIds(apiUrl + "/categories/" + categoryId + "/products"))
+                    .containsOnly(productIds.get(1), productIds.get(3));
+        });
+    }
+
+    private String productHref(final long productId) {
+        return apiUrl + "/products/" + productId;
+    }
+
+    private List<Long> readAllProductIds(final String firstPageUrl) {
+        final List<Long> productIds = new ArrayList<>();
+        Optional<String> pageUrl = Optional.of(firstPageUrl);
+
+        while (pageUrl.isPresent()) {
+            final Resources<ProductDto> page = backofficeRestTemplate.exchange(URI.create(pageUrl.get()), HttpMethod.GET, null,
+                    new ParameterizedTypeReference<Resources<ProductDto>>() {}).getBody();
+            page.getContent().forEach(product -> productIds.add(ApiTestUtils.getIdFromLocationUrl(product.getLink(Link.REL_SELF).getHref())));
+            pageUrl = Optional.ofNullable(page.getLink(Link.REL_NEXT)).map(Link::getHref);
+        }
+
+        return productIds;
+    }
+}
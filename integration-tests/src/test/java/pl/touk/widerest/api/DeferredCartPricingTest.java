@@ -0,0 +1,56 @@
+package pl.touk.widerest.api;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import pl.touk.widerest.AbstractTest;
+import pl.touk.widerest.api.orders.CartPricingService;
+import pl.touk.widerest.api.orders.DiscreteOrderItemDto;
+import pl.touk.widerest.api.orders.OrderDto;
+import pl.touk.widerest.security.oauth2.Scope;
+
+import java.math.BigDecimal;
+import java.net.URI;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebIntegrationTest(value = "widerest.orders.deferred-pricing=true", randomPort = true)
+public class DeferredCartPricingTest extends AbstractTest {
+
+    @Test
+    public void shouldListRepricedTotalsAfterDeferredChanges() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+
+            // Given a cart changed twice without being read in between
+            URI orderUrl = createNewOrder(restTemplate);
+            URI orderItemUrl = addItemToOrder(restTemplate, orderUrl, 10, 2);
+            restTemplate.put(orderItemUrl.toASCIIString() + "/quantity", 5);
+
+            // When listing orders
+            OrderDto listedOrder = getAllOrders(restTemplate).stream()
+                    .filter(order -> order.getLink("self").getHref().contains(orderUrl.toASCIIString()))
+                    .findAny()
+                    .orElseThrow(AssertionError::new);
+
+            // Then the listed total covers both changes
+            DiscreteOrderItemDto item = getItemDetailsFromCart(restTemplate, orderItemUrl);
+            BigDecimal expectedTotal = item.getPrice().multiply(BigDecimal.valueOf(5));
+            assertThat(listedOrder.getTotalPrice().compareTo(expectedTotal), equalTo(0));
+
+            // Then the pricing bookkeeping does not leak into the attributes
+            assertFalse(listedOrder.getAttributes() != null
+                    && listedOrder.getAttributes().containsKey(CartPricingService.PRICING_STALE_ATTRIBUTE_NAME));
+
+            // Then the order read on its own agrees
+            OrderDto order = restTemplate.getForObject(orderUrl, OrderDto.class);
+            assertThat(order.getTotalPrice().compareTo(expectedTotal), equalTo(0));
+            assertFalse(order.getAttributes() != null
+                    && order.getAttributes().containsKey(CartPricingService.PRICING_STALE_ATTRIBUTE_NAME));
+        });
+    }
+}
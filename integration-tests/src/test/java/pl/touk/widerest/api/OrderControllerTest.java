@@ -1,19 +1,32 @@
 package pl.touk.widerest.api;
 
+import javaslang.control.Try;
 import org.apache.commons.lang3.tuple.Pair;
+import org.broadleafcommerce.core.order.domain.BundleOrderItem;
+import org.broadleafcommerce.core.order.domain.Order;
+import org.broadleafcommerce.core.order.service.OrderService;
+import org.broadleafcommerce.core.order.service.call.OrderItemRequestDTO;
 import org.broadleafcommerce.core.order.service.type.OrderStatus;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestTemplate;
 import pl.touk.widerest.AbstractTest;
 import pl.touk.widerest.api.orders.DiscreteOrderItemDto;
+import pl.touk.widerest.api.orders.OrderConverter;
 import pl.touk.widerest.api.orders.OrderDto;
 import pl.touk.widerest.api.orders.OrderItemDto;
 import pl.touk.widerest.api.products.ProductDto;
@@ -23,6 +36,7 @@ import pl.touk.widerest.base.ApiTestUrls;
 import pl.touk.widerest.base.ApiTestUtils;
 import pl.touk.widerest.security.oauth2.Scope;
 
+import javax.annotation.Resource;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.util.*;
@@ -37,6 +51,12 @@ import static pl.touk.widerest.base.DtoTestFactory.products;
 @RunWith(SpringJUnit4ClassRunner.class)
 public class OrderControllerTest extends AbstractTest {
 
+    @Resource(name = "blOrderService")
+    protected OrderService orderService;
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
     @Test
     public void shouldChangeOrderItemQuantity() throws Throwable {
 
@@ -169,6 +189,170 @@ public class OrderControllerTest extends AbstractTest {
         });
     }
 
+    @Test
+    public void shouldCountItemsOfBundlesAsTheOrderDoes() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+
+            // Given an order with a single item and a bundle
+            URI orderUrl = createNewOrder(restTemplate);
+            long orderId = ApiTestUtils.strapSuffixId(orderUrl.toASCIIString());
+            addItemToOrder(restTemplate, orderUrl, 10, 3);
+
+            new TransactionTemplate(transactionManager).execute(status -> {
+                final OrderItemRequestDTO bundleRequest = new OrderItemRequestDTO();
+                bundleRequest.setProductId(992L);
+                bundleRequest.setQuantity(2);
+                return Try.of(() -> orderService.addItem(orderId, bundleRequest, true)).get();
+            });
+
+            // When GETting the number of items in the order
+            Integer remoteItemsCount = getRemoteItemsInOrderCount(restTemplate, orderUrl);
+
+            // Then it should count the bundled items, just like the order itself
+            Pair<Boolean, Integer> bundledAndItemCount = new TransactionTemplate(transactionManager).execute(status -> {
+                final Order order = orderService.findOrderById(orderId);
+                return Pair.of(
+                        order.getOrderItems().stream().anyMatch(BundleOrderItem.class::isInstance),
+                        order.getItemCount()
+                );
+            });
+
+            assertTrue(bundledAndItemCount.getLeft());
+            assertThat(remoteItemsCount, equalTo(bundledAndItemCount.getRight()));
+        });
+    }
+
+    @Test
+    public void shouldRejectModificationBasedOnOutdatedETag() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+
+            // Given an order with an item, as read by the client
+            URI orderUrl = createNewOrder(restTemplate);
+            URI orderItemUrl = addItemToOrder(restTemplate, orderUrl, 10, 1);
+            String eTag = restTemplate.exchange(orderUrl, HttpMethod.GET, null, OrderDto.class).getHeaders().getETag();
+            assertNotNull(eTag);
+
+            // When modifying it with the tag read
+            HttpHeaders ifMatchHeaders = new HttpHeaders();
+            ifMatchHeaders.set(HttpHeaders.IF_MATCH, eTag);
+            restTemplate.exchange(orderItemUrl.toASCIIString() + "/quantity", HttpMethod.PUT, new HttpEntity<>(2, ifMatchHeaders), Void.class);
+
+            // Then modifying it again with the same, now outdated tag fails
+            try {
+                restTemplate.exchange(orderItemUrl.toASCIIString() + "/quantity", HttpMethod.PUT, new HttpEntity<>(3, ifMatchHeaders), Void.class);
+                fail("Modification based on an outdated ETag should be rejected");
+            } catch (HttpClientErrorException e) {
+                assertThat(e.getStatusCode(), equalTo(HttpStatus.PRECONDITION_FAILED));
+            }
+
+            // Then only the first modification took effect
+            assertThat(getItemDetailsFromCart(restTemplate, orderItemUrl).getQuantity(), equalTo(2));
+        });
+    }
+
+    @Test
+    public void shouldPageThroughOrdersNewestFirst() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+
+            // Given three orders
+            List<Integer> orderIds = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                orderIds.add(ApiTestUtils.strapSuffixId(createNewOrder(restTemplate).toASCIIString()));
+            }
+
+            // When listing them two at a time
+            Resources<OrderDto> firstPage = getOrdersPage(restTemplate, "limit=2");
+            Resources<OrderDto> secondPage = restTemplate.exchange(URI.create(firstPage.getLink(Link.REL_NEXT).getHref()),
+                    HttpMethod.GET, null, new ParameterizedTypeReference<Resources<OrderDto>>() {}).getBody();
+
+            // Then the newest come first and the next page continues where the first one ended
+            assertThat(orderIds(firstPage), equalTo(Arrays.asList(orderIds.get(2), orderIds.get(1))));
+            assertThat(orderIds(secondPage), equalTo(Collections.singletonList(orderIds.get(0))));
+
+            // Then the last page is not followed by another one
+            assertNull(secondPage.getLink(Link.REL_NEXT));
+        });
+    }
+
+    @Test
+    public void shouldFilterListedOrders() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+
+            // Given an order of a customer
+            URI orderUrl = createNewOrder(restTemplate);
+            int orderId = ApiTestUtils.strapSuffixId(orderUrl.toASCIIString());
+            int customerId = ApiTestUtils.strapSuffixId(
+                    restTemplate.getForObject(orderUrl, OrderDto.class).getLink("customer").getHref());
+
+            // When filtering by its status
+            // Then it is listed
+            assertThat(orderIds(getOrdersPage(restTemplate, "status=IN_PROCESS")), equalTo(Collections.singletonList(orderId)));
+
+            // When filtering by another status or a channel it has not been created in
+            // Then it is not listed
+            assertTrue(getOrdersPage(restTemplate, "status=SUBMITTED").getContent().isEmpty());
+            assertTrue(getOrdersPage(restTemplate, "channel=nonexistent").getContent().isEmpty());
+
+            givenAuthorizationFor(Scope.STAFF, adminRestTemplate -> {
+
+                // When back office lists the orders of the customer
+                // Then only that one is listed
+                assertThat(orderIds(getOrdersPage(adminRestTemplate, "customerId=" + customerId)),
+                        equalTo(Collections.singletonList(orderId)));
+            });
+        });
+    }
+
+    @Test
+    public void shouldRejectInvalidOrdersCursor() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+            try {
+                getOrdersPage(restTemplate, "cursor=not-a-cursor");
+                fail("An invalid cursor should be rejected");
+            } catch (HttpClientErrorException e) {
+                assertThat(e.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+            }
+        });
+    }
+
+    private Resources<OrderDto> getOrdersPage(RestTemplate restTemplate, String query) {
+        return restTemplate.exchange(ApiTestUrls.ORDERS_URL + "?" + query, HttpMethod.GET, null,
+                new ParameterizedTypeReference<Resources<OrderDto>>() {}, serverPort).getBody();
+    }
+
+    private static List<Integer> orderIds(Resources<OrderDto> orders) {
+        return orders.getContent().stream()
+                .map(order -> ApiTestUtils.strapSuffixId(order.getLink(Link.REL_SELF).getHref()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void shouldLinkOrderAndItsItemsToTheirResources() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+            URI orderUrl = createNewOrder(restTemplate);
+            URI orderItemUrl = addItemToOrder(restTemplate, orderUrl, 10, 1);
+
+            // Then the order links to itself and its sub-resources
+            OrderDto order = restTemplate.getForObject(orderUrl, OrderDto.class);
+            assertThat(order.getLink(Link.REL_SELF).getHref(), equalTo(orderUrl.toString()));
+            assertThat(order.getLink(OrderConverter.REL_ITEMS).getHref(), equalTo(orderUrl + "/items"));
+            assertThat(order.getLink(OrderConverter.REL_FULFILLMENTS).getHref(), equalTo(orderUrl + "/fulfillments"));
+            assertThat(order.getLink(OrderConverter.REL_STATUS).getHref(), equalTo(orderUrl + "/status"));
+            assertThat(order.getLink(OrderConverter.REL_PAYMENT).getHref(), equalTo(orderUrl + "/payment"));
+
+            // Then the item links to itself, within the order, and to its product
+            DiscreteOrderItemDto item = getItemDetailsFromCart(restTemplate, orderItemUrl);
+            assertThat(item.getLink(Link.REL_SELF).getHref(), equalTo(orderItemUrl.toString()));
+            assertTrue(item.getLink("product").getHref().startsWith(apiUrl + "/products/"));
+        });
+    }
+
     @Test
     public void OrderAccessTest() throws Throwable {
 
@@ -210,6 +394,46 @@ public class OrderControllerTest extends AbstractTest {
         });
     }
 
+    @Test
+    public void shouldNotFindOrderOfAnotherCustomer() throws Throwable {
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+            // Given an order with an item
+            URI orderUrl = createNewOrder(restTemplate);
+            addItemToOrder(restTemplate, orderUrl, 10, 1);
+
+            // Then its owner reads it directly
+            assertThat(restTemplate.getForEntity(orderUrl, OrderDto.class).getStatusCode(), equalTo(HttpStatus.OK));
+
+            givenAuthorizationFor(Scope.CUSTOMER, otherCustomerRestTemplate -> {
+                // Then another customer finds neither the order nor its items
+                for (String url : Arrays.asList(orderUrl.toASCIIString(), orderUrl + "/items", orderUrl + "/items/count")) {
+                    try {
+                        otherCustomerRestTemplate.getForObject(url, String.class);
+                        fail("Another customer's order should not be found: " + url);
+                    } catch (HttpClientErrorException e) {
+                        assertThat(e.getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+                    }
+                }
+
+                // Then another customer cannot add items to it
+                try {
+                    addItemToOrder(otherCustomerRestTemplate, orderUrl, 10, 1);
+                    fail("Another customer's order should not be found");
+                } catch (HttpClientErrorException e) {
+                    assertThat(e.getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+                }
+            });
+
+            // Then the order is left as it was
+            assertThat(getRemoteItemsInOrderCount(restTemplate, orderUrl), equalTo(1));
+
+            // Then staff read it directly
+            givenAuthorizationFor(Scope.STAFF, adminRestTemplate ->
+                    assertThat(adminRestTemplate.getForEntity(orderUrl, OrderDto.class).getStatusCode(), equalTo(HttpStatus.OK)));
+        });
+    }
+
     @Test
     public void shouldNotModifyOrderItemQuantity() throws Throwable {
         givenAuthorizationFor(Scope.STAFF, adminRestTemplate -> {
@@ -489,4 +713,70 @@ public class OrderControllerTest extends AbstractTest {
             assertThat(itemDetails.stream().findFirst().get().getAttributes().keySet().contains(nulloption), equalTo(false));
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldAddBatchOfItemsToOrder() throws Throwable {
+        final String firstProductHref = catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory())
+                .getHeaders().getLocation().toString();
+        final String secondProductHref = catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory())
+                .getHeaders().getLocation().toString();
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+            URI orderUrl = createNewOrder(restTemplate);
+
+            // When POSTing a batch of two items
+            ResponseEntity<Resources<DiscreteOrderItemDto>> response = postItemsBatch(restTemplate, orderUrl,
+                    Arrays.asList(orderItem(firstProductHref, 2), orderItem(secondProductHref, 3)));
+
+            // Then a link to each added item is returned, in the order given
+            assertThat(response.getStatusCode(), equalTo(HttpStatus.CREATED));
+            List<Link> itemLinks = response.getBody().getLinks().stream()
+                    .filter(link -> link.getRel().equals("item"))
+                    .collect(Collectors.toList());
+            assertThat(itemLinks, hasSize(2));
+
+            List<Integer> quantities = itemLinks.stream()
+                    .map(link -> getItemDetailsFromCart(restTemplate, URI.create(link.getHref())).getQuantity())
+                    .collect(Collectors.toList());
+            assertThat(quantities, equalTo(Arrays.asList(2, 3)));
+
+            // Then both items are in the order
+            assertThat(getRemoteItemsInOrderCount(restTemplate, orderUrl), equalTo(2));
+        });
+    }
+
+    @Test
+    public void shouldAddNoneOfBatchedItemsWhenOneFails() throws Throwable {
+        final String productHref = catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory())
+                .getHeaders().getLocation().toString();
+        final String missingProductHref = productHref.substring(0, productHref.lastIndexOf('/') + 1) + Long.MAX_VALUE;
+
+        givenAuthorizationFor(Scope.CUSTOMER, restTemplate -> {
+            URI orderUrl = createNewOrder(restTemplate);
+
+            // When POSTing a batch whose second item cannot be added
+            try {
+                postItemsBatch(restTemplate, orderUrl, Arrays.asList(orderItem(productHref, 1), orderItem(missingProductHref, 1)));
+                fail("A batch with a missing product should be rejected");
+            } catch (HttpStatusCodeException e) {
+                assertFalse(e.getStatusCode().is2xxSuccessful());
+            }
+
+            // Then neither item has been added
+            assertThat(getRemoteItemsInOrderCount(restTemplate, orderUrl), equalTo(0));
+        });
+    }
+
+    private ResponseEntity<Resources<DiscreteOrderItemDto>> postItemsBatch(RestTemplate restTemplate, URI orderUrl,
+                                                                           List<OrderItemDto> orderItemDtos) {
+        return restTemplate.exchange(orderUrl.toASCIIString() + "/items/batch", HttpMethod.POST,
+                new HttpEntity<>(orderItemDtos), new ParameterizedTypeReference<Resources<DiscreteOrderItemDto>>() {});
+    }
+
+    private static OrderItemDto orderItem(String productHref, int quantity) {
+        final OrderItemDto orderItemDto = new OrderItemDto();
+        orderItemDto.setProductHref(productHref);
+        orderItemDto.setQuantity(quantity);
+        return orderItemDto;
+    }
+}
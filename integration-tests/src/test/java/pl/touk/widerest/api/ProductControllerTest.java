@@ -1,5 +1,6 @@
 package pl.touk.widerest.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.collections4.CollectionUtils;
 import org.broadleafcommerce.common.currency.domain.BroadleafCurrency;
@@ -12,10 +13,14 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Resources;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -27,8 +32,13 @@ import pl.touk.widerest.api.categories.CategoryDto;
 import pl.touk.widerest.api.common.MediaDto;
 import pl.touk.widerest.api.products.BundleItemDto;
 import pl.touk.widerest.api.products.ProductBundleDto;
+import pl.touk.widerest.api.products.ProductController;
 import pl.touk.widerest.api.products.ProductDto;
+import pl.touk.widerest.api.products.ProductImportErrorDto;
+import pl.touk.widerest.api.products.ProductImportProgressDto;
 import pl.touk.widerest.api.products.skus.SkuDto;
+import pl.touk.widerest.api.products.skus.SkuInventoryDto;
+import pl.touk.widerest.api.products.skus.SkuInventoryUpdateResultDto;
 import pl.touk.widerest.api.products.skus.SkuProductOptionValueDto;
 import pl.touk.widerest.base.ApiTestUrls;
 import pl.touk.widerest.base.ApiTestUtils;
@@ -36,9 +46,16 @@ import pl.touk.widerest.base.DtoTestFactory;
 import pl.touk.widerest.security.oauth2.Scope;
 
 import javax.annotation.Resource;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 import static junit.framework.TestCase.fail;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -54,6 +71,9 @@ public class ProductControllerTest extends AbstractTest {
     @Resource
     protected BroadleafCurrencyService currencyService;
 
+    @Resource
+    protected ObjectMapper objectMapper;
+
     @Before
     public void initProductTests() {
         cleanupProductTests();
@@ -121,6 +141,36 @@ public class ProductControllerTest extends AbstractTest {
         assertThat(receivedDefaultSkuMediaDto.get("alt2").getUrl(), equalTo(mediaDto3.getUrl()));
     }
 
+    @Test
+    public void readingProductAfterWritesDoesNotServeCachedRepresentationTest() throws Throwable {
+        givenAuthorizationFor(Scope.STAFF, adminRestTemplate -> {
+
+            // when: reading a new product, which caches its representation
+            final ProductDto productDto = DtoTestFactory.products().getTestProductWithoutDefaultCategory();
+            final ResponseEntity<?> retEntity = catalogOperationsRemote.addProduct(productDto);
+            final long productId = ApiTestUtils.getIdFromLocationUrl(retEntity.getHeaders().getLocation().toString());
+            assertThat(getRemoteTestProductByIdDto(productId).getName(), equalTo(productDto.getName()));
+
+            // then: modifying the product shows in the next read
+            final ProductDto modifiedProductDto = DtoTestFactory.products().getTestProductWithoutDefaultCategory();
+            adminRestTemplate.put(ApiTestUrls.PRODUCT_BY_ID_URL, modifiedProductDto, serverPort, productId);
+            assertThat(getRemoteTestProductByIdDto(productId).getName(), equalTo(modifiedProductDto.getName()));
+
+            // then: adding an SKU to the product shows in the next read
+            catalogOperationsRemote.addTestSKUToProduct(productId, DtoTestFactory.products().testAdditionalSkuDto());
+            assertThat(getRemoteTestProductByIdDto(productId).getSkus(), Matchers.hasSize(1));
+
+            // then: adding the product to a category shows in the next read
+            final long categoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(DtoTestFactory.categories().testCategoryDto()));
+            catalogOperationsRemote.addProductToCategoryReference(categoryId, productId);
+            assertNotNull(getRemoteTestProductByIdDto(productId).getLink("category"));
+
+            // then: deleting that category shows in the next read as well
+            catalogOperationsRemote.removeCategory(categoryId);
+            assertNull(getRemoteTestProductByIdDto(productId).getLink("category"));
+        });
+    }
+
     @Test
     @Ignore("considering allowing duplicate names")
     public void addingDuplicateProductDoesNotIncreaseProductsCount() {
@@ -354,6 +404,207 @@ public class ProductControllerTest extends AbstractTest {
         });
     }
 
+    @Test
+    public void updatingSkusInventoryReportsSkippedEntriesTest() throws Throwable {
+        givenAuthorizationFor(Scope.STAFF, adminRestTemplate -> {
+
+            // given: a product with an additional SKU
+            final ResponseEntity<?> addedProductEntity = catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory());
+            final long productId = ApiTestUtils.getIdFromLocationUrl(addedProductEntity.getHeaders().getLocation().toString());
+
+            final ResponseEntity<?> addedSkuEntity = catalogOperationsRemote.addTestSKUToProduct(productId, products().testAdditionalSkuDto());
+            final long skuId = ApiTestUtils.getIdFromLocationUrl(addedSkuEntity.getHeaders().getLocation().toString());
+
+            // when: updating its inventory along with a negative quantity and a nonexistent SKU
+            final List<SkuInventoryDto> inventories = Arrays.asList(
+                    SkuInventoryDto.builder().skuId(skuId).quantity(7).availability("CHECK_QUANTITY").build(),
+                    SkuInventoryDto.builder().skuId(skuId).quantity(-1).build(),
+                    SkuInventoryDto.builder().skuId(Long.MAX_VALUE).quantity(1).build()
+            );
+            adminRestTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory());
+            final SkuInventoryUpdateResultDto result = adminRestTemplate.exchange(ApiTestUrls.SKUS_INVENTORY_URL, HttpMethod.PATCH,
+                    new HttpEntity<>(inventories), SkuInventoryUpdateResultDto.class, serverPort).getBody();
+
+            // then: the SKU is updated and the other entries are reported
+            assertThat(result.getUpdated(), equalTo(1L));
+            assertThat(result.getInvalid(), equalTo(Collections.singletonList(1)));
+            assertThat(result.getNotFound(), equalTo(Collections.singletonList(Long.MAX_VALUE)));
+            assertTrue(result.getFailed().isEmpty());
+
+            final SkuDto receivedSkuDto = backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCT_BY_ID_SKU_BY_ID, SkuDto.class,
+                    serverPort, productId, skuId);
+            assertThat(receivedSkuDto.getQuantityAvailable(), equalTo(7));
+        });
+    }
+
+    @Test
+    public void importingProductsSkipsMalformedAndInvalidRecordsTest() throws Throwable {
+        // given: a malformed record, a record without a retail price and two valid ones
+        final ProductDto invalidProductDto = products().getTestProductWithoutDefaultCategory();
+        invalidProductDto.setRetailPrice(null);
+        final ProductDto firstProductDto = products().getTestProductWithoutDefaultCategory();
+        final ProductDto secondProductDto = products().getTestProductWithoutDefaultCategory();
+
+        final String records = String.join("\n",
+                "{\"name\": ",
+                objectMapper.writeValueAsString(invalidProductDto),
+                objectMapper.writeValueAsString(firstProductDto),
+                objectMapper.writeValueAsString(secondProductDto));
+
+        // when: importing them
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf(ProductController.NDJSON_VALUE));
+        final String response = backofficeRestTemplate.postForObject(ApiTestUrls.PRODUCTS_IMPORT_URL,
+                new HttpEntity<>(records, headers), String.class, serverPort);
+        final String[] lines = response.split("\n");
+
+        // then: both bad records are reported by their line numbers
+        final ProductImportErrorDto malformedRecordError = objectMapper.readValue(lines[0], ProductImportErrorDto.class);
+        assertThat(malformedRecordError.getLine(), equalTo(1L));
+        final ProductImportErrorDto invalidRecordError = objectMapper.readValue(lines[1], ProductImportErrorDto.class);
+        assertThat(invalidRecordError.getLine(), equalTo(2L));
+
+        // then: the valid records are imported in a single batch
+        final ProductImportProgressDto result = objectMapper.readValue(lines[lines.length - 1], ProductImportProgressDto.class);
+        assertThat(result.getProcessed(), equalTo(4L));
+        assertThat(result.getImported(), equalTo(2L));
+        assertThat(result.getFailed(), equalTo(2L));
+        assertTrue(result.getCompleted());
+
+        assertThat(catalogService.findProductsByName(firstProductDto.getName()).size(), equalTo(1));
+        assertThat(catalogService.findProductsByName(secondProductDto.getName()).size(), equalTo(1));
+        assertTrue(catalogService.findProductsByName(invalidProductDto.getName()).isEmpty());
+    }
+
+    @Test
+    public void exportingProductsWritesEveryProductOnItsOwnLineTest() throws Throwable {
+        // given: two new products
+        final ProductDto firstProductDto = products().getTestProductWithoutDefaultCategory();
+        final ProductDto secondProductDto = products().getTestProductWithoutDefaultCategory();
+        final long firstProductId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addProduct(firstProductDto));
+        final long secondProductId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addProduct(secondProductDto));
+        final long productsCount = backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort);
+
+        for (boolean gzip : new boolean[] { false, true }) {
+            // when: exporting the products, plain and compressed
+            final ResponseEntity<byte[]> response = backofficeRestTemplate.getForEntity(ApiTestUrls.PRODUCTS_EXPORT_URL + "?gzip={gzip}",
+                    byte[].class, serverPort, gzip);
+            assertThat(response.getHeaders().getContentType().toString(), Matchers.startsWith(ProductController.NDJSON_VALUE));
+            assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), equalTo(gzip ? "gzip" : null));
+
+            final InputStream body = new ByteArrayInputStream(response.getBody());
+            final List<String> lines;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(gzip ? new GZIPInputStream(body) : body, StandardCharsets.UTF_8))) {
+                lines = reader.lines().collect(Collectors.toList());
+            }
+
+            // then: every product is exported once, ordered by id
+            assertThat((long) lines.size(), equalTo(productsCount));
+            final List<Long> exportedIds = new ArrayList<>();
+            for (String line : lines) {
+                exportedIds.add(ApiTestUtils.getIdFromLocationUrl(objectMapper.readTree(line).path("_links").path("self").path("href").asText()));
+            }
+            final List<Long> sortedIds = new ArrayList<>(exportedIds);
+            Collections.sort(sortedIds);
+            assertThat(exportedIds, equalTo(sortedIds));
+
+            // then: the records are the products as created
+            assertThat(objectMapper.readTree(lines.get(exportedIds.indexOf(firstProductId))).path("name").asText(), equalTo(firstProductDto.getName()));
+            assertThat(objectMapper.readTree(lines.get(exportedIds.indexOf(secondProductId))).path("name").asText(), equalTo(secondProductDto.getName()));
+        }
+    }
+
+    @Test
+    public void pagingProductsKeepsEmbedAndLinkParametersTest() {
+        // given: at least two products
+        catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory());
+        catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory());
+
+        // when: reading the first page of a single product
+        final Resources<ProductDto> firstPage = backofficeRestTemplate.exchange(ApiTestUrls.PRODUCTS_URL + "?limit=1&embed=true&link=false",
+                HttpMethod.GET, null, new ParameterizedTypeReference<Resources<ProductDto>>() {}, serverPort).getBody();
+
+        // then: the next page is requested with the same parameters
+        final String nextHref = firstPage.getLink(Link.REL_NEXT).getHref();
+        assertTrue(nextHref.contains("embed=true"));
+        assertTrue(nextHref.contains("link=false"));
+        assertTrue(nextHref.contains("cursor="));
+    }
+
+    @Test
+    public void readingProductsWithInvalidCursorFailsTest() {
+        try {
+            backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCTS_URL + "?cursor={cursor}", String.class, serverPort, "!!!");
+            fail();
+        } catch (HttpClientErrorException httpClientErrorException) {
+            assertThat(httpClientErrorException.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+        }
+    }
+
+    @Test
+    public void countingProductsAndSkusFollowsProductWritesTest() throws Throwable {
+        givenAuthorizationFor(Scope.CUSTOMER, customerRestTemplate -> {
+            final long productsCount = backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort);
+            final long skusCount = backofficeRestTemplate.getForObject(ApiTestUrls.ALL_SKUS_COUNT_URL, Long.class, serverPort);
+            final long visibleProductsCount = customerRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort);
+
+            // when: adding a product with an additional SKU
+            final ProductDto productDto = DtoTestFactory.products().getTestProductWithoutDefaultCategory();
+            productDto.setSkus(Collections.singletonList(DtoTestFactory.products().testAdditionalSkuDto()));
+            final ResponseEntity<?> addedProductEntity = catalogOperationsRemote.addProduct(productDto);
+            assertThat(addedProductEntity.getStatusCode(), equalTo(HttpStatus.CREATED));
+
+            // then: the counters include the product and both of its SKUs right away
+            assertThat(backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort), equalTo(productsCount + 1));
+            assertThat(backofficeRestTemplate.getForObject(ApiTestUrls.ALL_SKUS_COUNT_URL, Long.class, serverPort), equalTo(skusCount + 2));
+            assertThat(customerRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort), equalTo(visibleProductsCount + 1));
+
+            // when: deleting the product
+            backofficeRestTemplate.delete(addedProductEntity.getHeaders().getLocation());
+
+            // then: the counters are back where they started
+            assertThat(backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort), equalTo(productsCount));
+            assertThat(backofficeRestTemplate.getForObject(ApiTestUrls.ALL_SKUS_COUNT_URL, Long.class, serverPort), equalTo(skusCount));
+            assertThat(customerRestTemplate.getForObject(ApiTestUrls.PRODUCTS_COUNT_URL, Long.class, serverPort), equalTo(visibleProductsCount));
+        });
+    }
+
+    @Test
+    public void productAndSkuLinksPointAtTheirResourcesTest() {
+        // when: creating a product with an additional SKU, in a category
+        final long productId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addProduct(DtoTestFactory.products().getTestProductWithoutDefaultCategory()));
+        final long skuId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addTestSKUToProduct(productId, DtoTestFactory.products().testAdditionalSkuDto()));
+        final long categoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(DtoTestFactory.categories().testCategoryDto()));
+        catalogOperationsRemote.addProductToCategoryReference(categoryId, productId);
+
+        final String productUrl = apiUrl + "/products/" + productId;
+        final String skuUrl = productUrl + "/skus/" + skuId;
+
+        // then: the product links to itself, its SKUs, medias and categories
+        final ProductDto productDto = getRemoteTestProductByIdDto(productId);
+        assertThat(productDto.getLink(Link.REL_SELF).getHref(), equalTo(productUrl));
+        assertThat(productDto.getLink("default-sku").getHref(), Matchers.startsWith(productUrl + "/skus/"));
+        assertThat(productDto.getLink("skus").getHref(), equalTo(skuUrl));
+        assertThat(productDto.getLink("default-medias").getHref(), equalTo(productUrl + "/media"));
+        assertThat(productDto.getLink("category").getHref(), equalTo(apiUrl + "/categories/" + categoryId));
+
+        // then: the SKU links to itself, its product and its sub-resources
+        final SkuDto skuDto = backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCT_BY_ID_SKU_BY_ID, SkuDto.class, serverPort, productId, skuId);
+        assertThat(skuDto.getLink(Link.REL_SELF).getHref(), equalTo(skuUrl));
+        assertThat(skuDto.getLink("product").getHref(), equalTo(productUrl));
+        assertThat(skuDto.getLink("media").getHref(), equalTo(skuUrl + "/media"));
+        assertThat(skuDto.getLink("availability").getHref(), equalTo(skuUrl + "/availability"));
+        assertThat(skuDto.getLink("quantity").getHref(), equalTo(skuUrl + "/quantity"));
+
+        // then: the links follow the host the request was forwarded for
+        final HttpHeaders forwardedHeaders = new HttpHeaders();
+        forwardedHeaders.set("X-Forwarded-Host", "shop.example.com:8443");
+        final ProductDto forwardedProductDto = backofficeRestTemplate.exchange(ApiTestUrls.PRODUCT_BY_ID_URL, HttpMethod.GET,
+                new HttpEntity<>(forwardedHeaders), ProductDto.class, serverPort, productId).getBody();
+        assertThat(forwardedProductDto.getLink(Link.REL_SELF).getHref(), Matchers.endsWith("//shop.example.com:8443/v1/products/" + productId));
+        assertThat(forwardedProductDto.getLink("skus").getHref(), Matchers.endsWith("//shop.example.com:8443/v1/products/" + productId + "/skus/" + skuId));
+    }
+
     @Test
     public void skuAddedWithoutCurrencyGetsADefaultOneTest() {
         // when: adding product without currency specified
@@ -0,0 +1,74 @@
+package pl.touk.widerest.api;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.Resources;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import pl.touk.widerest.AbstractTest;
+import pl.touk.widerest.api.products.ProductDto;
+import pl.touk.widerest.base.ApiTestUrls;
+import pl.touk.widerest.base.ApiTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static pl.touk.widerest.base.DtoTestFactory.categories;
+import static pl.touk.widerest.base.DtoTestFactory.products;
+
+/* The product cache is turned off, so that every representation compared is converted anew */
+@RunWith(SpringJUnit4ClassRunner.class)
+@WebIntegrationTest(value = "widerest.catalog.product-cache.maximum-size=0", randomPort = true)
+public class ProductListingConversionTest extends AbstractTest {
+
+    @Test
+    public void shouldListProductsOfCategoryAsTheyAreReadOneByOne() throws Throwable {
+
+        // Given a category with a product having an additional SKU and attributes, also in another category
+        long categoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(categories().testCategoryDto()));
+        long otherCategoryId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addCategory(categories().testCategoryDto()));
+
+        ProductDto richProductDto = products().getTestProductWithoutDefaultCategory();
+        richProductDto.setSkus(Collections.singletonList(products().testAdditionalSkuDto()));
+        richProductDto.setAttributes(ImmutableMap.of("size", "XL", "color", "red"));
+        long richProductId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addProduct(richProductDto));
+        catalogOperationsRemote.addProductToCategoryReference(categoryId, richProductId);
+        catalogOperationsRemote.addProductToCategoryReference(otherCategoryId, richProductId);
+
+        // Given a plain product in the same category
+        long plainProductId = ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addProduct(products().getTestProductWithoutDefaultCategory()));
+        catalogOperationsRemote.addProductToCategoryReference(categoryId, plainProductId);
+
+        // When listing the products of the category
+        List<ProductDto> listedProducts = new ArrayList<>(backofficeRestTemplate.exchange(ApiTestUrls.PRODUCTS_IN_CATEGORY_URL,
+                HttpMethod.GET, null, new ParameterizedTypeReference<Resources<ProductDto>>() {}, serverPort, categoryId)
+                .getBody().getContent());
+
+        // Then both are listed
+        assertThat(listedProducts, hasSize(2));
+
+        // Then each one is listed the same, links included, as read on its own
+        for (ProductDto listedProduct : listedProducts) {
+            ProductDto readProduct = backofficeRestTemplate.getForObject(listedProduct.getLink(Link.REL_SELF).getHref(), ProductDto.class);
+            assertThat(listedProduct, equalTo(readProduct));
+            assertThat(listedProduct.getLinks(), equalTo(readProduct.getLinks()));
+        }
+
+        // Then the associations of the rich product are there
+        ProductDto listedRichProduct = listedProducts.stream()
+                .filter(product -> ApiTestUtils.getIdFromLocationUrl(product.getLink(Link.REL_SELF).getHref()) == richProductId)
+                .findAny()
+                .orElseThrow(AssertionError::new);
+        assertThat(listedRichProduct.getSkus(), hasSize(1));
+        assertThat(listedRichProduct.getAttributes(), equalTo(richProductDto.getAttributes()));
+        assertThat(listedRichProduct.getLinks().stream().filter(link -> link.getRel().equals("category")).count(), equalTo(2L));
+    }
+}
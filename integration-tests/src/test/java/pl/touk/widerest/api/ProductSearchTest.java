@@ -0,0 +1,127 @@
+package pl.touk.widerest.api;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.hateoas.Link;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pl.touk.widerest.AbstractTest;
+import pl.touk.widerest.api.products.ProductDto;
+import pl.touk.widerest.api.products.search.FacetDto;
+import pl.touk.widerest.api.products.search.FacetValueDto;
+import pl.touk.widerest.api.products.search.ProductSearchResultDto;
+import pl.touk.widerest.base.ApiTestUrls;
+import pl.touk.widerest.base.ApiTestUtils;
+
+import javax.annotation.Resource;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static pl.touk.widerest.base.DtoTestFactory.products;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+public class ProductSearchTest extends AbstractTest {
+
+    @Resource(name = "blTransactionManager")
+    protected PlatformTransactionManager transactionManager;
+
+    @Test
+    public void shouldSearchProductsWithFacetsAndFilterOnThem() throws Throwable {
+
+        // Given two products, named alike, with their prices in different ranges of the price facet
+        String query = uniqueName();
+        long cheapProductId = addProduct(query + " cheap", new BigDecimal("3.00"));
+        long dearProductId = addProduct(query + " dear", new BigDecimal("12.00"));
+
+        // When searching for them
+        ProductSearchResultDto result = search(query);
+
+        // Then both are found
+        assertThat(result.getTotalResults(), equalTo(2));
+        assertThat(productIds(result), containsInAnyOrder(cheapProductId, dearProductId));
+
+        // Then the price facet counts one product in each of their ranges
+        FacetDto priceFacet = result.getFacets().stream()
+                .filter(facet -> "price".equals(facet.getName()))
+                .findAny()
+                .orElseThrow(AssertionError::new);
+        FacetValueDto cheapRange = rangeOf(priceFacet, new BigDecimal("3.00"));
+        FacetValueDto dearRange = rangeOf(priceFacet, new BigDecimal("12.00"));
+        assertThat(cheapRange.getQuantity(), equalTo(1));
+        assertThat(dearRange.getQuantity(), equalTo(1));
+
+        // When filtering on the range of the cheaper one, by the key of its option
+        ProductSearchResultDto filteredResult = search(query + "&price=" + cheapRange.getKey());
+
+        // Then only that one is found
+        assertThat(filteredResult.getTotalResults(), equalTo(1));
+        assertThat(productIds(filteredResult), contains(cheapProductId));
+    }
+
+    @Test
+    public void shouldServeCachedResultsUntilSearchIndexIsRebuilt() throws Throwable {
+
+        // Given a product found by its name
+        String name = uniqueName();
+        long productId = addProduct(name, new BigDecimal("3.00"));
+        assertThat(productIds(search(name)), contains(productId));
+
+        // When renaming it behind the API's back
+        String newName = uniqueName();
+        new TransactionTemplate(transactionManager).execute(status -> {
+            catalogService.findProductById(productId).getDefaultSku().setName(newName);
+            return null;
+        });
+
+        // Then the cached result is still served
+        assertThat(productIds(search(name)), contains(productId));
+
+        // When rebuilding the search index
+        ResponseEntity<Void> response = backofficeRestTemplate.postForEntity(ApiTestUrls.PRODUCTS_SEARCH_INDEX_URL, null, Void.class, serverPort);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.NO_CONTENT));
+
+        // Then the product is found by its new name only
+        assertThat(search(name).getTotalResults(), equalTo(0));
+        assertThat(productIds(search(newName)), contains(productId));
+    }
+
+    protected long addProduct(String name, BigDecimal retailPrice) {
+        ProductDto productDto = products().getTestProductWithoutDefaultCategory();
+        productDto.setName(name);
+        productDto.setRetailPrice(retailPrice);
+        productDto.setSalePrice(null);
+        return ApiTestUtils.getIdFromEntity(catalogOperationsRemote.addProduct(productDto));
+    }
+
+    protected ProductSearchResultDto search(String queryString) {
+        return backofficeRestTemplate.getForObject(ApiTestUrls.PRODUCTS_SEARCH_URL + "?q=" + queryString,
+                ProductSearchResultDto.class, serverPort);
+    }
+
+    protected static String uniqueName() {
+        return "searched" + UUID.randomUUID().toString().replace("-", "");
+    }
+
+    protected static List<Long> productIds(ProductSearchResultDto result) {
+        return result.getProducts().stream()
+                .map(product -> ApiTestUtils.getIdFromLocationUrl(product.getLink(Link.REL_SELF).getHref()))
+                .collect(Collectors.toList());
+    }
+
+    private static FacetValueDto rangeOf(FacetDto facet, BigDecimal value) {
+        return facet.getFacetOptions().stream()
+                .filter(option -> option.getMinValue() == null || option.getMinValue().compareTo(value) <= 0)
+                .filter(option -> option.getMaxValue() == null || option.getMaxValue().compareTo(value) > 0)
+                .findAny()
+                .orElseThrow(AssertionError::new);
+    }
+}